@@ -0,0 +1,411 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Host-independent core of SinesBank: an additive bank of up to a few thousand sine partials fed by peak lists,
+// such as the peaks maximums.js finds in the "sinesfilter" buffer.
+// Every partial is a recursive oscillator, a 2D rotation of its (cos, sin) state, so a sample costs four
+// multiplies instead of a Math.sin. State lives in primitive arrays and the bank renders partial by partial,
+// keeping each oscillator in registers for the whole block.
+// A new peak list is matched to the sounding partials on the control thread: a peak close in frequency keeps
+// its partial and phase, the others get free slots. Amplitudes glide with a one-pole smoother per partial and
+// partials that have faded below the threshold are culled, so only audible partials cost anything.
+public class AdditiveEngine implements BlockProcessor, ParameterSink {
+    public static final int DEFAULT_PARTIALS = 1024;
+    private static final int MAX_PARTIALS = 4096;
+    private static final double MATCH_RATIO = 1.03;           // Peaks within 3% of a partial continue it
+    private static final double GOLDEN_ANGLE = 2.399963229728653; // Start phases, spread so 500 sines do not peak together
+
+    private final PerfStats stats = new PerfStats();
+    private final ParameterQueue queue = new ParameterQueue(); // Inlet values on their way to the audio thread
+    private long frameClock = 0;                               // Frames rendered so far
+    private final Ramp gain = new Ramp(1.0f);                  // Output gain, smoothed
+    private volatile float smoothMs = 20.0f;                   // Glide time of partial amplitudes and the gain
+    private volatile float threshold = 1e-5f;                  // Amplitude under which partials are culled (-100 dB)
+    private volatile float sampleRate = 44100.0f;              // Until the host reports its own
+
+    private Bank bank = new Bank(DEFAULT_PARTIALS);  // Oscillators played by process()
+    private final AtomicReference<Bank> pendingBank = new AtomicReference<>(); // Resized bank waiting to be swapped in
+    private final AtomicReference<Targets> pendingTargets = new AtomicReference<>(); // Latest peak set waiting to be applied
+
+    // Control side: the partial each slot was given by the last peak set, used to match the next one
+    private double[] slotFrequency = new double[DEFAULT_PARTIALS]; // 0 when the slot is free
+    private int nextFree = 0;                                    // Round-robin start of the free-slot search
+    private float binLowHz = 0.0f;                               // Frequency of the first entry of a bin list
+    private float binHighHz = -1.0f;                             // Of the last one; negative for Nyquist
+
+    public int getInputCount() {
+        return 0;
+    }
+
+    public int getOutputCount() {
+        return 1;
+    }
+
+    public void setSampleRate(float sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void process(float[][] inputs, float[][] outputs) {
+        long started = stats.begin();
+        render(outputs[0]);
+        stats.end(started, outputs[0].length, sampleRate);
+    }
+
+    public PerfStats getStats() {
+        return stats;
+    }
+
+    private void render(float[] out) {
+        queue.beginBlock(frameClock, out.length, sampleRate);
+        frameClock += out.length;
+
+        // Taken with getAndSet, so a peak set or bank published while this block takes the last one is never lost
+        Bank resized = pendingBank.getAndSet(null);
+        if (resized != null) bank = resized; // Starts silent, the next peak set fills it
+        Bank b = bank;
+        Targets targets = pendingTargets.getAndSet(null);
+        if (targets != null) {
+            b.apply(targets, stats);
+        }
+
+        Arrays.fill(out, 0.0f);
+        float k = 1.0f - (float) Math.exp(-1.0 / Math.max(1.0, smoothMs * 0.001 * sampleRate)); // One-pole coefficient
+        float floor = threshold;
+
+        // Two partials per pass: their recursions are independent, so the CPU overlaps them.
+        // Walking down lets a culled partial take the last one's place, which was already rendered.
+        int n = b.activeCount - 1;
+        for (; n >= 1; n -= 2) {
+            b.renderPair(n, n - 1, out, k);
+            b.cull(n, floor);
+            b.cull(n - 1, floor);
+        }
+        if (n == 0) {
+            b.renderPair(0, 0, out, k); // The odd one out, paired with itself at half the level
+            b.cull(0, floor);
+        }
+
+        // Output gain, with the queued changes at their sample
+        int nextChange = queue.nextOffset();
+        for (int i = 0; i < out.length; i++) {
+            if (i == nextChange) {
+                while (queue.poll(i)) apply(queue.value());
+                nextChange = queue.nextOffset();
+            }
+            out[i] *= gain.next();
+        }
+        while (queue.pollLatest()) apply(queue.value());
+        stats.voices(b.activeCount);
+    }
+
+    private void apply(float value) {
+        gain.setTarget(value, (int) (smoothMs * 0.001f * sampleRate));
+    }
+
+    // Inlet 1: output gain
+    public void parameter(int inlet, float value) {
+        if (inlet == 1) queue.push(1, Math.max(0.0f, value));
+    }
+
+    // Peaks as a list of bin amplitudes, e.g. the peaks outlet of maximums.js: entry i sounds at
+    // the bin range mapped linearly over the list, zeros are not peaks
+    public synchronized void setBins(float[] amplitudes) {
+        int count = amplitudes.length;
+        float nyquist = sampleRate * 0.5f;
+        float high = binHighHz < 0 ? nyquist : binHighHz;
+        double step = count > 1 ? (high - binLowHz) / (double) (count - 1) : 0;
+        int peaks = 0;
+        for (float a : amplitudes) {
+            if (a > 0) peaks++;
+        }
+        double[] frequencies = new double[peaks];
+        float[] levels = new float[peaks];
+        for (int i = 0, j = 0; i < count; i++) {
+            if (amplitudes[i] <= 0) continue;
+            frequencies[j] = binLowHz + i * step;
+            levels[j++] = amplitudes[i];
+        }
+        publish(frequencies, levels, peaks);
+    }
+
+    // Peaks as frequency/amplitude pairs: f1 a1 f2 a2 ...
+    public synchronized void setPairs(float[] pairs) {
+        int peaks = pairs.length / 2;
+        double[] frequencies = new double[peaks];
+        float[] levels = new float[peaks];
+        for (int j = 0; j < peaks; j++) {
+            frequencies[j] = pairs[2 * j];
+            levels[j] = pairs[2 * j + 1];
+        }
+        publish(frequencies, levels, peaks);
+    }
+
+    // Frequencies of the first and last entry of a bin list; a negative high is Nyquist
+    public synchronized void setBinRange(float lowHz, float highHz) {
+        binLowHz = Math.max(0.0f, lowHz);
+        binHighHz = highHz;
+    }
+
+    // Match a peak set to the slots of the previous one and hand it to the audio thread
+    private void publish(double[] frequencies, float[] levels, int peaks) {
+        int capacity = slotFrequency.length;
+        float nyquist = sampleRate * 0.5f;
+        float floor = threshold;
+
+        // Keep the loudest peaks that can sound: below Nyquist, above the threshold, at most one per slot.
+        // Levels are positive, so their float bits sort like the levels; the index rides in the low half.
+        long[] order = new long[peaks];
+        int usable = 0;
+        for (int j = 0; j < peaks; j++) {
+            if (frequencies[j] > 0 && frequencies[j] < nyquist && levels[j] >= floor) {
+                order[usable++] = ((long) Float.floatToIntBits(levels[j]) << 32) | j;
+            }
+        }
+        Arrays.sort(order, 0, usable);
+        int kept = Math.min(usable, capacity);
+
+        // The previous partials by frequency, to find the closest one with a binary search
+        double[] previous = slotFrequency;
+        int sounding = 0;
+        long[] bySlot = new long[capacity];
+        for (int s = 0; s < capacity; s++) {
+            if (previous[s] > 0) bySlot[sounding++] = (Double.doubleToLongBits(previous[s]) & ~0xFFFL) | s;
+        }
+        Arrays.sort(bySlot, 0, sounding); // Positive doubles sort like their bits; the slot hides in the low mantissa bits
+        double[] sortedFrequency = new double[sounding];
+        int[] sortedSlot = new int[sounding];
+        for (int n = 0; n < sounding; n++) {
+            sortedSlot[n] = (int) (bySlot[n] & 0xFFF);
+            sortedFrequency[n] = previous[sortedSlot[n]];
+        }
+
+        double[] assigned = new double[capacity];
+        Targets targets = new Targets(kept);
+        for (int n = 0; n < kept; n++) {
+            int j = (int) order[usable - 1 - n]; // Loudest first, it gets the first pick of the partials
+            double f = frequencies[j];
+            int slot = closest(sortedFrequency, sortedSlot, assigned, f);
+            if (slot < 0) slot = freeSlot(previous, assigned);
+            assigned[slot] = f;
+            double w = 2.0 * Math.PI * f / sampleRate;
+            targets.set(n, slot, (float) Math.cos(w), (float) Math.sin(w), levels[j]);
+        }
+        slotFrequency = assigned;
+        pendingTargets.set(targets);
+    }
+
+    // Slot of the closest previous partial within MATCH_RATIO that this set has not taken yet, or -1
+    private static int closest(double[] sortedFrequency, int[] sortedSlot, double[] assigned, double f) {
+        int insert = Arrays.binarySearch(sortedFrequency, f);
+        if (insert < 0) insert = -insert - 1;
+        int below = insert - 1;
+        while (below >= 0 && assigned[sortedSlot[below]] > 0) below--;
+        int above = insert;
+        while (above < sortedFrequency.length && assigned[sortedSlot[above]] > 0) above++;
+        double belowRatio = below >= 0 ? f / sortedFrequency[below] : Double.MAX_VALUE;
+        double aboveRatio = above < sortedFrequency.length ? sortedFrequency[above] / f : Double.MAX_VALUE;
+        if (Math.min(belowRatio, aboveRatio) >= MATCH_RATIO) return -1;
+        return belowRatio < aboveRatio ? sortedSlot[below] : sortedSlot[above];
+    }
+
+    // A slot neither sounding in the previous set nor taken by this one, else one the new set dropped
+    private int freeSlot(double[] previous, double[] assigned) {
+        int capacity = previous.length;
+        for (int i = 0; i < capacity; i++) {
+            int s = (nextFree + i) % capacity;
+            if (previous[s] <= 0 && assigned[s] <= 0) {
+                nextFree = s + 1;
+                return s;
+            }
+        }
+        for (int s = 0; s < capacity; s++) {
+            if (assigned[s] <= 0) return s;
+        }
+        return 0; // Unreachable: a set never has more peaks than slots
+    }
+
+    // Number of partial slots; the bank is allocated here, never in process(). Sounding partials are cut.
+    public synchronized void setMaxPartials(int count) {
+        int capacity = Math.max(1, Math.min(count, MAX_PARTIALS));
+        slotFrequency = new double[capacity];
+        nextFree = 0;
+        pendingTargets.set(null);
+        pendingBank.set(new Bank(capacity));
+    }
+
+    // Glide time of partial amplitudes and gain changes in milliseconds
+    public void setSmoothing(float ms) {
+        smoothMs = Math.max(0.0f, Math.min(ms, 1000.0f));
+    }
+
+    // Culling threshold in dB below full scale
+    public void setThreshold(float db) {
+        threshold = (float) Math.pow(10.0, Math.min(0.0f, db) / 20.0);
+    }
+
+    // "bins <a0> <a1> ...", "pairs <f1> <a1> ...", "binrange <low Hz> [high Hz]", "maxpartials <n>",
+    // "smooth <ms>", "threshold <dB>"
+    public boolean message(String name, String[] args) {
+        switch (name) {
+            case "bins":
+                setBins(floats(args));
+                return true;
+            case "pairs":
+                setPairs(floats(args));
+                return true;
+            case "binrange":
+                if (args.length == 0) return false;
+                setBinRange(Float.parseFloat(args[0]), args.length > 1 ? Float.parseFloat(args[1]) : -1);
+                return true;
+            case "maxpartials":
+                if (args.length == 0) return false;
+                setMaxPartials(Integer.parseInt(args[0]));
+                return true;
+            case "smooth":
+                if (args.length == 0) return false;
+                setSmoothing(Float.parseFloat(args[0]));
+                return true;
+            case "threshold":
+                if (args.length == 0) return false;
+                setThreshold(Float.parseFloat(args[0]));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static float[] floats(String[] args) {
+        float[] values = new float[args.length];
+        for (int i = 0; i < args.length; i++) values[i] = Float.parseFloat(args[i]);
+        return values;
+    }
+
+    // A matched peak set: slot, rotation and amplitude per peak, computed off the audio thread
+    private static final class Targets {
+        final int count;
+        final int[] slot;
+        final float[] cos;
+        final float[] sin;
+        final float[] amp;
+
+        Targets(int count) {
+            this.count = count;
+            slot = new int[count];
+            cos = new float[count];
+            sin = new float[count];
+            amp = new float[count];
+        }
+
+        void set(int n, int slotIndex, float c, float s, float a) {
+            slot[n] = slotIndex;
+            cos[n] = c;
+            sin[n] = s;
+            amp[n] = a;
+        }
+    }
+
+    // Oscillator storage, one primitive array per property plus the list of sounding slots
+    private static final class Bank {
+        final int capacity;
+        final float[] x;      // cos of the phase
+        final float[] y;      // sin of the phase, the output
+        final float[] cos;    // Rotation per sample
+        final float[] sin;
+        final float[] amp;    // Current amplitude
+        final float[] target; // Amplitude it glides to, 0 when the peak went away
+        final int[] active;   // Sounding slots
+        final int[] position; // Index of each slot in active, -1 when silent
+        final float[] startX; // Start phase of each slot, golden-angle spaced
+        final float[] startY;
+        int activeCount = 0;
+
+        Bank(int capacity) {
+            this.capacity = capacity;
+            x = new float[capacity];
+            y = new float[capacity];
+            cos = new float[capacity];
+            sin = new float[capacity];
+            amp = new float[capacity];
+            target = new float[capacity];
+            active = new int[capacity];
+            position = new int[capacity];
+            Arrays.fill(position, -1);
+            startX = new float[capacity];
+            startY = new float[capacity];
+            for (int p = 0; p < capacity; p++) {
+                startX[p] = (float) Math.cos(p * GOLDEN_ANGLE);
+                startY[p] = (float) Math.sin(p * GOLDEN_ANGLE);
+            }
+        }
+
+        // Audio thread: fade out every partial, then set the peaks of the new set. A partial that is still
+        // sounding keeps its phase, even when its slot was given to a new frequency.
+        void apply(Targets targets, PerfStats stats) {
+            for (int n = 0; n < activeCount; n++) target[active[n]] = 0.0f;
+            for (int n = 0; n < targets.count; n++) {
+                int p = targets.slot[n];
+                if (p >= capacity) continue; // Matched against a bank that was resized since
+                cos[p] = targets.cos[n];
+                sin[p] = targets.sin[n];
+                target[p] = targets.amp[n];
+                if (position[p] < 0) {
+                    position[p] = activeCount;
+                    active[activeCount++] = p;
+                    amp[p] = 0.0f;
+                    x[p] = startX[p];
+                    y[p] = startY[p];
+                    stats.spawned();
+                }
+            }
+        }
+
+        // Add active[n] and active[m] to out; with n == m the partial is rendered once
+        void renderPair(int n, int m, float[] out, float k) {
+            int p = active[n];
+            int q = active[m];
+            float xp = x[p], yp = y[p], cp = cos[p], sp = sin[p], ap = amp[p], tp = target[p];
+            float xq = x[q], yq = y[q], cq = cos[q], sq = sin[q], aq = amp[q], tq = target[q];
+            float half = p == q ? 0.5f : 1.0f;
+            ap *= half;
+            tp *= half;
+            aq *= half;
+            tq *= half;
+            for (int i = 0; i < out.length; i++) {
+                float xpn = cp * xp - sp * yp;
+                float xqn = cq * xq - sq * yq;
+                yp = sp * xp + cp * yp;
+                yq = sq * xq + cq * yq;
+                xp = xpn;
+                xq = xqn;
+                ap += (tp - ap) * k;
+                aq += (tq - aq) * k;
+                out[i] += ap * yp + aq * yq;
+            }
+            // Pull the states back onto the unit circle; rounding makes the rotation drift slowly
+            float gp = 1.5f - 0.5f * (xp * xp + yp * yp);
+            float gq = 1.5f - 0.5f * (xq * xq + yq * yq);
+            x[q] = xq * gq;
+            y[q] = yq * gq;
+            amp[q] = aq / half;
+            x[p] = xp * gp;
+            y[p] = yp * gp;
+            amp[p] = ap / half;
+        }
+
+        // Drop active[n] once it and its target are below the floor
+        void cull(int n, float floor) {
+            int p = active[n];
+            if (target[p] < floor && amp[p] < floor) deactivate(n);
+        }
+
+        // Remove active[n], moving the last sounding slot into its place
+        void deactivate(int n) {
+            int p = active[n];
+            int last = active[--activeCount];
+            active[n] = last;
+            position[last] = n;
+            position[p] = -1;
+            amp[p] = 0.0f;
+        }
+    }
+}
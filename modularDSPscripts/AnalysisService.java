@@ -0,0 +1,201 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+// Shared background analysis of sample snapshots: onset indexes, waveform pyramids and whatever else a
+// consumer describes as an Analysis. Jobs run on a small pool of daemon threads, never on the audio thread
+// or the Max scheduler. Results are cached per buffer name and kind for the newest content generation, so
+// every object reading the same buffer~ shares one job; a newer generation cancels the job of the older one.
+// Jobs are only requested from the control side: a consumer attaches its Slot to a source, which asks for the
+// current snapshot, and SampleCache hands every later snapshot to update() from its loader. The audio thread
+// only reads a slot, whose finished result arrives through a volatile field.
+public final class AnalysisService {
+    // Daemon threads at minimum priority, one less than the cores (at least one, at most two) to leave the
+    // audio thread a core. The queue is unbounded: there is one live job per buffer name and kind at most,
+    // the ones a newer snapshot cancelled return as soon as they are taken.
+    private static final class Pool {
+        static final ThreadPoolExecutor EXECUTOR;
+
+        static {
+            int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+            AtomicInteger count = new AtomicInteger();
+            EXECUTOR = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "AnalysisService-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+            EXECUTOR.prestartAllCoreThreads();
+        }
+    }
+
+    // Newest job per buffer name and kind, with its result once it is done; also the lock of every job and slot
+    private static final HashMap<String, Job<?>> jobs = new HashMap<>();
+
+    private AnalysisService() {
+    }
+
+    // Work on one snapshot; returns null when it noticed it was cancelled
+    public interface Analysis<T> {
+        T run(float[][] data, BooleanSupplier cancelled);
+    }
+
+    // Result tagged with the snapshot it was computed from
+    private static final class Result<T> {
+        final float[][] source;
+        final T value;
+
+        Result(float[][] source, T value) {
+            this.source = source;
+            this.value = value;
+        }
+    }
+
+    // A consumer's view of one kind of analysis on the snapshots of the source it is attached to
+    public static final class Slot<T> {
+        private final String kind;
+        private final Analysis<T> analysis;
+        private volatile Result<T> ready = null;
+        private Job<T> job = null; // Job the slot waits on or was served by
+
+        public Slot(String kind, Analysis<T> analysis) {
+            this.kind = kind;
+            this.analysis = analysis;
+            Pool.EXECUTOR.getPoolSize(); // Start the pool on the thread making the slot
+        }
+
+        // Result for this snapshot, or null while it is computed; reads one field, safe on the audio thread
+        public T get(SampleSource.Snapshot snapshot) {
+            Result<T> result = ready;
+            return result != null && result.source == snapshot.channels ? result.value : null;
+        }
+
+        // Control side: analyze the source's current snapshot and every later one, until detach()
+        @SuppressWarnings("unchecked")
+        public void attach(SampleSource source) {
+            synchronized (jobs) {
+                String key = source.getName() + '\u0000' + kind;
+                Job<T> current = (Job<T>) jobs.get(key);
+                SampleSource.Snapshot snapshot = source.snapshot();
+                if (current != null && current == job && !current.isOlderThan(snapshot)) return; // Already there
+                detach();
+                current = (Job<T>) jobs.get(key); // Gone if this slot was the last to wait on it
+                if (current == null || current.isOlderThan(snapshot)) {
+                    current = replace(key, current, new Job<>(key, snapshot, analysis));
+                }
+                current.subscribe(this);
+            }
+        }
+
+        // Control side: stop following the source; a job nobody waits on any more is cancelled
+        public void detach() {
+            synchronized (jobs) {
+                if (job == null) return;
+                job.slots.remove(this);
+                if (job.slots.isEmpty() && job.result == null) {
+                    job.cancelled = true;
+                    jobs.remove(job.key, job);
+                }
+                job = null;
+            }
+        }
+    }
+
+    // One analysis of one snapshot and the slots waiting for it
+    private static final class Job<T> implements Runnable {
+        final String key;
+        final int generation;
+        final float[][] data;
+        final Analysis<T> analysis;
+        final ArrayList<Slot<T>> slots = new ArrayList<>();
+        Result<T> result = null;
+        volatile boolean cancelled = false;
+
+        Job(String key, SampleSource.Snapshot snapshot, Analysis<T> analysis) {
+            this.key = key;
+            this.generation = snapshot.generation;
+            this.data = snapshot.channels;
+            this.analysis = analysis;
+        }
+
+        // Whether a snapshot replaces this one: a newer generation, or samples where there were none
+        boolean isOlderThan(SampleSource.Snapshot snapshot) {
+            return snapshot.channels != data && (snapshot.generation > generation || SampleSource.frames(data) == 0);
+        }
+
+        public void run() {
+            if (cancelled) return;
+            T value = analysis.run(data, () -> cancelled);
+            if (value == null) return;
+            Result<T> done = new Result<>(data, value);
+            synchronized (jobs) {
+                if (cancelled) return;
+                result = done;
+                for (Slot<T> slot : slots) slot.ready = done;
+            }
+        }
+
+        // Attach a slot; served at once if the result is already there
+        void subscribe(Slot<T> slot) {
+            slots.add(slot);
+            slot.job = this;
+            if (result != null) slot.ready = result;
+        }
+    }
+
+    // With the lock held: install a job in place of the current one, taking over its slots, and start it.
+    // A job of an empty snapshot is only a placeholder that keeps the slots until samples arrive.
+    private static <T> Job<T> replace(String key, Job<T> current, Job<T> next) {
+        jobs.put(key, next);
+        if (current != null) {
+            current.cancelled = true; // Content changed: stop working on the old generation
+            for (Slot<T> slot : current.slots) next.subscribe(slot);
+            current.slots.clear();
+        }
+        if (SampleSource.frames(next.data) > 0) Pool.EXECUTOR.execute(next);
+        return next;
+    }
+
+    // Loader side: a buffer has a new snapshot; every kind a slot is attached to is analyzed again
+    @SuppressWarnings("unchecked")
+    public static void update(String name, SampleSource.Snapshot snapshot) {
+        if (snapshot.frames == 0) return; // Nothing to analyze, the slots wait for samples
+        String prefix = name + '\u0000';
+        synchronized (jobs) {
+            ArrayList<Job<?>> followed = new ArrayList<>();
+            Iterator<Map.Entry<String, Job<?>>> entries = jobs.entrySet().iterator();
+            while (entries.hasNext()) {
+                Job<?> job = entries.next().getValue();
+                if (!job.key.startsWith(prefix) || !job.isOlderThan(snapshot)) continue;
+                entries.remove();
+                job.cancelled = true;
+                if (!job.slots.isEmpty()) followed.add(job); // A finished job nobody follows is just dropped
+            }
+            for (Job<?> job : followed) {
+                Job<Object> current = (Job<Object>) job;
+                replace(current.key, current, new Job<>(current.key, snapshot, current.analysis));
+            }
+        }
+    }
+
+    // Drop the cached results of a buffer name, e.g. when the last object reading it is deleted
+    public static void forget(String name) {
+        String prefix = name + '\u0000';
+        synchronized (jobs) {
+            Iterator<Job<?>> all = jobs.values().iterator();
+            while (all.hasNext()) {
+                Job<?> job = all.next();
+                if (job.key.startsWith(prefix)) {
+                    job.cancelled = true;
+                    all.remove();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Sample source over fixed arrays, e.g. a WAV file loaded by the offline renderer.
+public final class ArraySampleSource implements SampleSource {
+    private static final AtomicInteger count = new AtomicInteger();
+
+    private final String name;
+    private volatile Snapshot snapshot; // The only one, given its interleaved copy on request
+
+    public ArraySampleSource(float[][] channels) {
+        this("arrays " + count.incrementAndGet(), channels);
+    }
+
+    // Sources with the same name must hold the same samples, they share their analysis results
+    public ArraySampleSource(String name, float[][] channels) {
+        if (channels.length > MAX_CHANNELS) throw new IllegalArgumentException("more than " + MAX_CHANNELS + " channels");
+        this.name = name;
+        snapshot = new Snapshot(channels, null, 0);
+    }
+
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    public void requireInterleaved() {
+        snapshot = snapshot.withInterleaved();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getFrames() {
+        return snapshot.frames;
+    }
+
+    public void invalidate() {
+    }
+}
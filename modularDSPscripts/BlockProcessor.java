@@ -0,0 +1,14 @@
+// Audio side of an engine: renders one block of signal vectors at a time.
+public interface BlockProcessor {
+    int getInputCount();
+
+    int getOutputCount();
+
+    void setSampleRate(float sampleRate);
+
+    // One array per input/output, all of the same length; must not allocate
+    void process(float[][] inputs, float[][] outputs);
+
+    // Counters updated by process(), readable from any thread
+    PerfStats getStats();
+}
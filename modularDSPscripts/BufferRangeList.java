@@ -0,0 +1,178 @@
+import com.cycling74.max.*;
+
+// Compiled replacement for resample.js, BufferRangeToList.js and maximums.js:
+// resamples a start/end range of a buffer~ to a fixed number of points and finds the local maxima.
+// "mode min|max|rms|peak" summarizes each point's share of the range instead of interpolating one sample,
+// through a WaveformPyramid of the buffer, built by the AnalysisService: zooming out costs about the same
+// as zooming in and no peak is missed. Until the pyramid is there, the same values are read from the samples.
+// Arguments: buffer name, number of points (default 1024).
+// Outlet 0: resampled list, outlet 1: peaks-only list (zeros except at local maxima).
+public class BufferRangeList extends MaxObject {
+    private String bufferName = "samplefilter";
+    private int points = 1024;
+    private long sampleStart = 0;
+    private long sampleEnd = 10000;
+
+    private SampleCache cache;
+    private float[] values = new float[points]; // Output lists, reused between updates
+    private float[] peaks = new float[points];
+    private final MaxClock clock;
+    private boolean scheduled = false;
+
+    private static final String[] MODE_NAMES = {"min", "max", "rms", "peak"}; // WaveformPyramid kinds, in order
+    private static final int INTERPOLATE = -1;
+    private int mode = INTERPOLATE;
+    private final AnalysisService.Slot<WaveformPyramid> pyramid = new AnalysisService.Slot<>("pyramid", WaveformPyramid::build);
+
+    // Last computed state, so unchanged requests are not recomputed
+    private long lastStart = -1;
+    private long lastEnd = -1;
+    private int lastGeneration = -1;
+
+    public BufferRangeList(Atom[] args) {
+        if (args.length > 0) bufferName = args[0].getString();
+        if (args.length > 1) setPoints(args[1].getInt());
+        cache = SampleCache.acquire(bufferName);
+
+        declareInlets(new int[]{DataTypes.ALL, DataTypes.ALL}); // Start, End
+        declareOutlets(new int[]{DataTypes.LIST, DataTypes.LIST}); // Resampled list, Peaks list
+
+        // Range changes within one scheduler tick collapse into a single recompute
+        clock = new MaxClock(new Executable() {
+            public void execute() {
+                scheduled = false;
+                update(false);
+            }
+        });
+    }
+
+    public void inlet(int value) {
+        inlet((float) value);
+    }
+
+    public void inlet(float value) {
+        if (getInlet() == 0) {
+            sampleStart = Math.round(value);
+        } else {
+            sampleEnd = Math.round(value);
+        }
+        schedule();
+    }
+
+    // Start and end in one message
+    public void list(Atom[] args) {
+        if (args.length < 2) return;
+        sampleStart = Math.round(args[0].getFloat());
+        sampleEnd = Math.round(args[1].getFloat());
+        schedule();
+    }
+
+    // Output the current range again, even if nothing changed
+    public void bang() {
+        update(true);
+    }
+
+    // Read another buffer~
+    public void set(String name) {
+        pyramid.detach();
+        cache.release();
+        bufferName = name;
+        cache = SampleCache.acquire(bufferName);
+        if (mode != INTERPOLATE) pyramid.attach(cache);
+        schedule();
+    }
+
+    // Number of points in the output lists
+    public void points(int count) {
+        setPoints(count);
+        schedule();
+    }
+
+    // interp: linear interpolation at each point; min, max, rms, peak: over each point's share of the range
+    public void mode(String name) {
+        int parsed = INTERPOLATE;
+        for (int i = 0; i < MODE_NAMES.length; i++) {
+            if (MODE_NAMES[i].equals(name)) parsed = i;
+        }
+        if (parsed == INTERPOLATE && !name.equals("interp")) {
+            error("BufferRangeList: unknown mode " + name);
+            return;
+        }
+        mode = parsed;
+        if (mode != INTERPOLATE) pyramid.attach(cache); // Built in the background from now on, for every new snapshot
+        lastGeneration = -1;
+        schedule();
+    }
+
+    // Reload the buffer snapshot, e.g. after writing into the buffer~ without resizing it
+    public void refresh() {
+        cache.invalidate();
+        schedule();
+    }
+
+    private void setPoints(int count) {
+        points = Math.max(3, Math.min(count, 65536));
+        values = new float[points];
+        peaks = new float[points];
+        lastGeneration = -1;
+    }
+
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            clock.delay(0);
+        }
+    }
+
+    private void update(boolean force) {
+        cache.check(); // On the scheduler, like the list output
+        SampleSource.Snapshot snapshot = cache.snapshot();
+        float[][] data = snapshot.channels;
+        long len = snapshot.frames;
+        if (len <= 0) {
+            //post("Error: Buffer '" + bufferName + "' is empty or not loaded.");
+            return;
+        }
+
+        // Ensure start and end are within valid bounds
+        long start = Math.max(0, Math.min(sampleStart, len - 1));
+        long end = Math.max(start, Math.min(sampleEnd, len - 1));
+        int generation = snapshot.generation;
+        if (!force && start == lastStart && end == lastEnd && generation == lastGeneration) return;
+        lastStart = start;
+        lastEnd = end;
+        lastGeneration = generation;
+
+        // Step 1: Resample values with linear interpolation, or summarize each point's frames
+        float[] samples = SampleSource.channel(data, 1);
+        if (mode == INTERPOLATE) {
+            double step = (end - start) / (double) (points - 1);
+            for (int i = 0; i < points; i++) {
+                values[i] = Interpolator.linear(samples, start + i * step);
+            }
+        } else {
+            WaveformPyramid levels = pyramid.get(snapshot);
+            if (levels != null) {
+                levels.query(start, end, mode, values, points);
+            } else {
+                WaveformPyramid.scan(samples, start, end, mode, values, points);
+            }
+        }
+
+        // Step 2: Keep only the local maxima in the peaks list
+        peaks[0] = 0;
+        peaks[points - 1] = 0;
+        for (int i = 1; i < points - 1; i++) {
+            peaks[i] = values[i] > values[i - 1] && values[i] > values[i + 1] ? values[i] : 0;
+        }
+
+        outlet(1, peaks);
+        outlet(0, values);
+    }
+
+    public void notifyDeleted() {
+        clock.release();
+        pyramid.detach();
+        cache.release();
+    }
+}
@@ -0,0 +1,152 @@
+import com.cycling74.max.*;
+import com.cycling74.msp.*;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+// Max adapter for FilterEngine: the drawn curve of ProcFilter and fftEQ as a FIR filter instead of a pfft~.
+// Argument: buffer name of the curve (default "b1"), its points spanning DC to Nyquist like pfft~ bins.
+// The kernel is redesigned on the low-priority thread when the curve changes: send "dirty" after drawing,
+// or leave the polling fallback on. "phase linear|minimum", "partition n" and "taps n" trade latency,
+// resolution and CPU; "latency" outputs the delay in samples on the info outlet.
+public class CurveFilter extends MSPObject {
+    private final FilterEngine engine = new FilterEngine();
+    private final StatsReporter statsReporter = new StatsReporter(this, engine.getStats());
+    private final float[][] inputs = new float[1][];
+    private final float[][] outputs = new float[1][];
+    private String bufferName;
+    private MaxClock clock;
+    private MaxQelem designQelem;
+    private double pollMs = 50.0;                      // Fallback polling interval, 0 when disabled
+    private float[] polled = null;                     // Curve at the last poll
+
+    public CurveFilter() {
+        this("b1");
+    }
+
+    // With the curve's buffer~ typed into the object box, e.g. [mxj~ CurveFilter eqcurve]
+    public CurveFilter(String curveBuffer) {
+        bufferName = curveBuffer;
+
+        declareInlets(new int[]{SIGNAL, DataTypes.ALL}); // Signal to filter, Messages
+        declareOutlets(new int[]{SIGNAL});                // Filtered signal
+
+        // Designs run on the low-priority thread; setting the qelem again before it runs coalesces the requests
+        designQelem = new MaxQelem(new Executable() {
+            public void execute() {
+                readCurve();
+            }
+        });
+        clock = new MaxClock(new Executable() {
+            public void execute() {
+                if (pollMs <= 0) return;
+                detectChanges();
+                clock.delay(pollMs);
+            }
+        });
+        clock.delay(pollMs);
+    }
+
+    // Compare the whole curve with the last poll, read in one peek: this runs on the scheduler, not in perform()
+    private void detectChanges() {
+        float[] curve = MSPBuffer.peek(bufferName, 1);
+        if (curve == null || curve.length == 0) return;
+        if (!Arrays.equals(curve, polled)) {
+            polled = curve;
+            designQelem.set();
+        }
+    }
+
+    private void readCurve() {
+        float[] curve = MSPBuffer.peek(bufferName, 1);
+        if (curve == null || curve.length == 0) return; // buffer~ not there yet
+        engine.setCurve(curve);
+    }
+
+    @Override
+    public Method dsp(MSPSignal[] ins, MSPSignal[] outs) {
+        if (outs[0].sr > 0) engine.setSampleRate((float) outs[0].sr);
+        try {
+            return getClass().getDeclaredMethod("perform", MSPSignal[].class, MSPSignal[].class);
+        } catch (NoSuchMethodException e) {
+            //post("Error: Could not find perform method.");
+            return null;
+        }
+    }
+
+    public void perform(MSPSignal[] ins, MSPSignal[] outs) {
+        inputs[0] = ins[0].cc > 0 ? ins[0].vec : null;
+        outputs[0] = outs[0].vec;
+        engine.process(inputs, outputs);
+    }
+
+    // Sent after the curve was drawn; switches off the polling fallback
+    public void dirty() {
+        if (pollMs > 0) {
+            pollMs = 0;
+            clock.unset();
+        }
+        designQelem.set();
+    }
+
+    // Polling interval in ms for the fallback change detection, 0 to disable it
+    public void poll(float ms) {
+        pollMs = Math.max(0, ms);
+        clock.unset();
+        if (pollMs > 0) clock.delay(pollMs);
+    }
+
+    // Read the curve from another buffer~
+    public void set(String name) {
+        bufferName = name;
+        polled = null;
+        designQelem.set();
+    }
+
+    // linear: symmetric kernel, delayed by half its length; minimum: no delay beyond the partition
+    public void phase(String name) {
+        engine.setPhase(name);
+        latency();
+    }
+
+    // Samples per partition, a power of two: smaller is less latency, larger is less CPU
+    public void partition(int samples) {
+        engine.setPartition(samples);
+        latency();
+    }
+
+    // Kernel length, a power of two: longer follows the curve more closely at low frequencies
+    public void taps(int length) {
+        engine.setTaps(length);
+        latency();
+    }
+
+    // Output the delay through the filter in samples on the info outlet
+    public void latency() {
+        outlet(getInfoIdx(), "latency", new Atom[]{Atom.newAtom(engine.getLatency())});
+    }
+
+    // Output the performance counters on the info outlet
+    public void stats() {
+        statsReporter.request();
+    }
+
+    // Output them every ms milliseconds, 0 stops
+    public void statsinterval(float ms) {
+        statsReporter.interval(ms);
+    }
+
+    public void statsreset() {
+        engine.getStats().reset();
+    }
+
+    public void notifyDeleted() {
+        statsReporter.release();
+        if (clock != null) {
+            clock.unset();
+            clock.release();
+        }
+        if (designQelem != null) {
+            designQelem.release();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.HashMap;
+
+// Precomputed fade/window shapes for grains, triggers and scanner cycles.
+// A table is built once per shape and attack/release ratio and shared by every instance;
+// engines read it with a 0..1 phase, so an envelope costs two table reads, a linear interpolation and a multiply.
+public final class EnvelopeTable {
+    public static final int TRAPEZOID = 0;   // Linear fade-in and fade-out
+    public static final int HANN = 1;        // Raised cosine over the whole length, ignores the ratio
+    public static final int TUKEY = 2;       // Cosine fades, flat in the middle
+    public static final int GAUSSIAN = 3;    // Bell curve, the ratio sets its width
+    public static final int EXPONENTIAL = 4; // 60 dB exponential fades
+    private static final String[] NAMES = {"trapezoid", "hann", "tukey", "gaussian", "exponential"};
+
+    public static final int SIZE = 1024; // Table holds SIZE + 1 points, phase 1.0 included
+    private static final HashMap<Long, float[]> tables = new HashMap<>();
+
+    private EnvelopeTable() {
+    }
+
+    // Shape index for a name such as "hann", or -1 if the name is unknown
+    public static int parse(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    public static int shapeCount() {
+        return NAMES.length;
+    }
+
+    // Shared table for a shape; ratio is the fraction of the length used by each fade (0..0.5)
+    public static float[] get(int shape, float ratio) {
+        int ratioKey = Math.round(Math.max(0.0f, Math.min(ratio, 0.5f)) * 1000.0f); // Cache per 0.1%
+        long key = ((long) shape << 32) | ratioKey;
+        synchronized (tables) {
+            float[] table = tables.get(key);
+            if (table == null) {
+                table = build(shape, ratioKey / 1000.0);
+                tables.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    // Envelope value at a phase between 0 (start) and 1 (end), interpolated between the two nearest points
+    // so that fades over many seconds do not step
+    public static float read(float[] table, double phase) {
+        double x = phase * SIZE;
+        if (x >= SIZE) return table[SIZE];
+        if (!(x > 0)) return table[0];
+        int index = (int) x;
+        float a = table[index];
+        return a + (float) (x - index) * (table[index + 1] - a);
+    }
+
+    private static float[] build(int shape, double ratio) {
+        float[] table = new float[SIZE + 1];
+        for (int i = 0; i <= SIZE; i++) {
+            double x = i / (double) SIZE;
+            double edge = Math.min(x, 1.0 - x); // Distance from the nearest end
+            double value;
+            switch (shape) {
+                case HANN:
+                    value = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * x);
+                    break;
+                case TUKEY:
+                    value = edge >= ratio ? 1.0 : 0.5 - 0.5 * Math.cos(Math.PI * edge / ratio);
+                    break;
+                case GAUSSIAN: {
+                    double sigma = Math.max(0.01, ratio) * 0.5;
+                    double floor = Math.exp(-0.5 * Math.pow(0.5 / sigma, 2.0)); // Value at the ends, pulled to zero
+                    value = (Math.exp(-0.5 * Math.pow((x - 0.5) / sigma, 2.0)) - floor) / (1.0 - floor);
+                    break;
+                }
+                case EXPONENTIAL: {
+                    double k = Math.log(1000.0);
+                    value = edge >= ratio ? 1.0 : (Math.exp(k * edge / ratio) - 1.0) / (1000.0 - 1.0);
+                    break;
+                }
+                default:
+                    value = edge >= ratio ? 1.0 : edge / ratio;
+                    break;
+            }
+            table[i] = (float) value;
+        }
+        return table;
+    }
+}
@@ -0,0 +1,317 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+// Host-independent core of CurveFilter: filters its input with a drawn magnitude curve, the one fftEQ,
+// ProcFilter, SampleFilter and SinesFilter apply per bin in pfft~, turned into a FIR kernel.
+// The kernel is linear phase (symmetric, half its length of delay) or minimum phase (no delay beyond the
+// partition), designed on the thread that hands in the curve. It runs as uniformly partitioned overlap-save
+// convolution: the latency is one partition, the CPU cost per sample drops as the partitions grow.
+// A new curve swaps the kernel at a partition boundary with a crossfade over one partition; a new partition
+// size or kernel length swaps the whole convolver.
+public class FilterEngine implements BlockProcessor, ParameterSink {
+    public static final int LINEAR = 0;
+    public static final int MINIMUM = 1;
+    private static final String[] PHASE_NAMES = {"linear", "minimum"};
+
+    private final PerfStats stats = new PerfStats();
+    private float sampleRate = 44100.0f; // Until the host reports its own
+    private Convolver convolver;                   // Used by process()
+    // Handed over with getAndSet, so a design landing while process() takes the last one is never lost
+    private final AtomicReference<Convolver> pendingConvolver = new AtomicReference<>(); // Rebuilt convolver waiting to be swapped in
+    private final AtomicReference<Kernel> pendingKernel = new AtomicReference<>();       // New kernel for the current convolver
+
+    // Control side: what the kernel is designed from, kept to rebuild it for a new size
+    private float[] curve = {1.0f}; // Gain per point from DC to Nyquist; flat until a curve arrives
+    private int phase = LINEAR;
+    private int taps = 2048;        // Kernel length, a power of two
+    private int partition = 256;    // Samples per partition, a power of two
+    private float[] impulse;        // Current kernel taps
+
+    public FilterEngine() {
+        impulse = design(curve, taps, phase);
+        convolver = new Convolver(partition, new Kernel(impulse, partition));
+    }
+
+    public int getInputCount() {
+        return 1;
+    }
+
+    public int getOutputCount() {
+        return 1;
+    }
+
+    public void setSampleRate(float sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void process(float[][] inputs, float[][] outputs) {
+        long started = stats.begin();
+        Convolver rebuilt = pendingConvolver.getAndSet(null);
+        if (rebuilt != null) convolver = rebuilt;
+        Kernel kernel = pendingKernel.getAndSet(null);
+        if (kernel != null) {
+            convolver.swap(kernel); // Ignored if it was designed for another size
+        }
+        float[] in = inputs[0];
+        float[] out = outputs[0];
+        if (in == null) {
+            java.util.Arrays.fill(out, 0.0f);
+        } else {
+            convolver.process(in, out);
+        }
+        stats.end(started, out.length, sampleRate);
+    }
+
+    public PerfStats getStats() {
+        return stats;
+    }
+
+    // Delay through the filter in samples: one partition, plus half the kernel when linear phase
+    public synchronized int getLatency() {
+        return partition + (phase == LINEAR ? taps / 2 : 0);
+    }
+
+    // No number inlets
+    public void parameter(int inlet, float value) {
+    }
+
+    // Gain per point from DC to Nyquist, the layout of a pfft~ bin buffer; designs the new kernel on this thread
+    public synchronized void setCurve(float[] gains) {
+        if (gains.length == 0) return;
+        curve = gains.clone();
+        impulse = design(curve, taps, phase);
+        pendingKernel.set(new Kernel(impulse, partition));
+    }
+
+    // linear or minimum
+    public synchronized boolean setPhase(String name) {
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            if (PHASE_NAMES[i].equals(name)) {
+                phase = i;
+                impulse = design(curve, taps, phase);
+                pendingKernel.set(new Kernel(impulse, partition));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Partition size 32..8192, rounded down to a power of two: smaller is less latency, larger is less CPU
+    public synchronized void setPartition(int samples) {
+        partition = Integer.highestOneBit(Math.max(32, Math.min(samples, 8192)));
+        pendingKernel.set(null);
+        pendingConvolver.set(new Convolver(partition, new Kernel(impulse, partition)));
+    }
+
+    // Kernel length 64..32768, rounded down to a power of two: longer resolves the curve more finely
+    public synchronized void setTaps(int length) {
+        taps = Integer.highestOneBit(Math.max(64, Math.min(length, 32768)));
+        impulse = design(curve, taps, phase);
+        pendingKernel.set(null);
+        pendingConvolver.set(new Convolver(partition, new Kernel(impulse, partition)));
+    }
+
+    // "curve <g0> <g1> ...", "phase <linear|minimum>", "partition <n>", "taps <n>"
+    public boolean message(String name, String[] args) {
+        switch (name) {
+            case "curve": {
+                float[] gains = new float[args.length];
+                for (int i = 0; i < args.length; i++) gains[i] = Float.parseFloat(args[i]);
+                setCurve(gains);
+                return true;
+            }
+            case "phase":
+                return args.length > 0 && setPhase(args[0]);
+            case "partition":
+                if (args.length == 0) return false;
+                setPartition(Integer.parseInt(args[0]));
+                return true;
+            case "taps":
+                if (args.length == 0) return false;
+                setTaps(Integer.parseInt(args[0]));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Kernel taps for a curve; the curve's last point is Nyquist, in between it is read linearly
+    static float[] design(float[] gains, int length, int phase) {
+        return phase == MINIMUM ? minimumPhase(gains, length) : linearPhase(gains, length);
+    }
+
+    // Zero-phase response of the curve, centred in the kernel and windowed
+    private static float[] linearPhase(float[] gains, int length) {
+        RealFFT fft = new RealFFT(length);
+        int bins = fft.getBins();
+        float[] re = new float[bins];
+        float[] im = new float[bins];
+        for (int k = 0; k < bins; k++) re[k] = gain(gains, k, bins);
+        float[] zeroPhase = new float[length];
+        fft.inverse(re, im, zeroPhase);
+
+        float[] kernel = new float[length];
+        int centre = length / 2;
+        for (int n = 0; n < length; n++) {
+            double window = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * n / length); // Hann, peak at the centre
+            kernel[n] = (float) (zeroPhase[(n - centre + length) % length] * window);
+        }
+        return kernel;
+    }
+
+    // Homomorphic design: fold the real cepstrum of the log magnitude onto positive quefrencies.
+    // The cepstrum is computed four times longer than the kernel to keep its aliasing down.
+    private static float[] minimumPhase(float[] gains, int length) {
+        int size = length * 4;
+        RealFFT fft = new RealFFT(size);
+        int bins = fft.getBins();
+        float[] re = new float[bins];
+        float[] im = new float[bins];
+        for (int k = 0; k < bins; k++) re[k] = (float) Math.log(Math.max(gain(gains, k, bins), 1e-6f)); // -120 dB floor
+        float[] cepstrum = new float[size];
+        fft.inverse(re, im, cepstrum);
+
+        for (int n = 1; n < size / 2; n++) cepstrum[n] *= 2.0f;
+        for (int n = size / 2 + 1; n < size; n++) cepstrum[n] = 0.0f;
+        fft.forward(cepstrum, re, im);
+        for (int k = 0; k < bins; k++) {
+            double magnitude = Math.exp(re[k]);
+            double angle = im[k];
+            re[k] = (float) (magnitude * Math.cos(angle));
+            im[k] = (float) (magnitude * Math.sin(angle));
+        }
+        float[] response = new float[size];
+        fft.inverse(re, im, response);
+
+        // Keep the first taps, fading out the last eighth so the cut does not ripple the response
+        float[] kernel = new float[length];
+        int fade = length / 8;
+        for (int n = 0; n < length; n++) {
+            double window = n < length - fade ? 1.0 : 0.5 + 0.5 * Math.cos(Math.PI * (n - (length - fade) + 1) / (fade + 1));
+            kernel[n] = (float) (response[n] * window);
+        }
+        return kernel;
+    }
+
+    // Curve value at bin k of bins spanning DC..Nyquist
+    private static float gain(float[] gains, int k, int bins) {
+        if (gains.length == 1) return Math.max(0.0f, gains[0]);
+        double position = (double) k * (gains.length - 1) / (bins - 1);
+        int i = Math.min((int) position, gains.length - 2);
+        float frac = (float) (position - i);
+        return Math.max(0.0f, gains[i] + frac * (gains[i + 1] - gains[i]));
+    }
+
+    // Kernel cut into partitions, each zero-padded to two partitions and transformed
+    private static final class Kernel {
+        final int partition;
+        final int count;
+        final float[][] re;
+        final float[][] im;
+
+        Kernel(float[] impulse, int partition) {
+            this.partition = partition;
+            count = (impulse.length + partition - 1) / partition;
+            RealFFT fft = new RealFFT(2 * partition);
+            re = new float[count][fft.getBins()];
+            im = new float[count][fft.getBins()];
+            float[] frame = new float[2 * partition];
+            for (int p = 0; p < count; p++) {
+                java.util.Arrays.fill(frame, 0.0f);
+                System.arraycopy(impulse, p * partition, frame, 0, Math.min(partition, impulse.length - p * partition));
+                fft.forward(frame, re[p], im[p]);
+            }
+        }
+    }
+
+    // Uniformly partitioned overlap-save convolution with a frequency-domain delay line of input spectra
+    private static final class Convolver {
+        final int partition;
+        final int bins;
+        final RealFFT fft;
+        final float[] frame;      // The last two partitions of input
+        final float[] fifo;       // Input collected for the next partition
+        final float[] ready;      // Output of the last partition, played while the next one is collected
+        int fill = 0;
+        final float[][] historyRe; // Input spectra, newest at head
+        final float[][] historyIm;
+        int head = 0;
+        final float[] sumRe;
+        final float[] sumIm;
+        final float[] result;
+        final float[] fadeResult;  // Output of the previous kernel while crossfading
+        Kernel kernel;
+        Kernel fadeFrom = null;    // Previous kernel, faded out over the next partition
+
+        Convolver(int partition, Kernel kernel) {
+            this.partition = partition;
+            this.kernel = kernel;
+            fft = new RealFFT(2 * partition);
+            bins = fft.getBins();
+            frame = new float[2 * partition];
+            fifo = new float[partition];
+            ready = new float[partition];
+            historyRe = new float[kernel.count][bins];
+            historyIm = new float[kernel.count][bins];
+            sumRe = new float[bins];
+            sumIm = new float[bins];
+            result = new float[2 * partition];
+            fadeResult = new float[2 * partition];
+        }
+
+        // Take a kernel for the same partition size and length; the old one fades out
+        void swap(Kernel next) {
+            if (next.partition != partition || next.count != kernel.count) return;
+            if (fadeFrom == null) fadeFrom = kernel;
+            kernel = next;
+        }
+
+        void process(float[] in, float[] out) {
+            for (int i = 0; i < in.length; i++) {
+                fifo[fill] = in[i];
+                out[i] = ready[fill];
+                if (++fill == partition) {
+                    fill = 0;
+                    convolve();
+                }
+            }
+        }
+
+        private void convolve() {
+            System.arraycopy(frame, partition, frame, 0, partition);
+            System.arraycopy(fifo, 0, frame, partition, partition);
+            head = head == 0 ? historyRe.length - 1 : head - 1;
+            fft.forward(frame, historyRe[head], historyIm[head]);
+
+            accumulate(kernel, result);
+            if (fadeFrom == null) {
+                System.arraycopy(result, partition, ready, 0, partition);
+                return;
+            }
+            accumulate(fadeFrom, fadeResult);
+            fadeFrom = null;
+            float step = 1.0f / partition;
+            for (int n = 0; n < partition; n++) {
+                float w = (n + 1) * step;
+                ready[n] = fadeResult[partition + n] + w * (result[partition + n] - fadeResult[partition + n]);
+            }
+        }
+
+        // Sum of every input spectrum times the kernel partition of its age, back to the time domain
+        private void accumulate(Kernel k, float[] output) {
+            java.util.Arrays.fill(sumRe, 0.0f);
+            java.util.Arrays.fill(sumIm, 0.0f);
+            int count = historyRe.length;
+            for (int p = 0, h = head; p < count; p++, h = h + 1 == count ? 0 : h + 1) {
+                float[] xr = historyRe[h];
+                float[] xi = historyIm[h];
+                float[] hr = k.re[p];
+                float[] hi = k.im[p];
+                for (int b = 0; b < bins; b++) {
+                    sumRe[b] += xr[b] * hr[b] - xi[b] * hi[b];
+                    sumIm[b] += xr[b] * hi[b] + xi[b] * hr[b];
+                }
+            }
+            fft.inverse(sumRe, sumIm, output);
+        }
+    }
+}
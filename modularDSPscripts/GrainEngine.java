@@ -0,0 +1,474 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+// Host-independent core of RandomGrainGen: spawns grains between a start and end frame at a rate and density
+// mode from its GrainScheduler, each with a random length, speed and volume, and mixes them onto N outputs
+// (stereo by default) from a sample source. Each grain reads one interleaved frame per sample and is panned by
+// gains fixed when it spawns. A seed makes the grains reproducible. Grain starts can snap to the zero crossings
+// or onsets of an OnsetIndex of the buffer, which lets short fades start without a click.
+// Inlet values travel through a ParameterQueue and take effect at their sample; speed changes glide.
+// Every parameter but the envelope can also be driven by a signal input: a constant block is applied like
+// an inlet value, a moving one is read per sample (rate and speed) or when a grain spawns (the others).
+public class GrainEngine implements BlockProcessor, ParameterSink {
+    private final SampleSource source;
+    private final int channels;                 // Outputs
+    private final Panner panner = new Panner(); // Placement of new grains on the outputs
+    private final float[] mix;                  // One accumulator per output
+    private final int[] channelOf;              // Source channel played by each output
+    private final float[] frame = new float[SampleSource.MAX_CHANNELS]; // Interpolated source frame
+    private final PerfStats stats = new PerfStats();
+    private final ParameterQueue queue = new ParameterQueue(); // Inlet values on their way to the audio thread
+    private long frameClock = 0;                               // Frames rendered so far
+    private final Modulation modulation = new Modulation(6);    // Signal inputs, in inlet order
+    private long sampStart = 0;
+    private long sampEnd = 1;
+    private float rateMs = 100;
+    private float maxSpeed = 1.0f;
+    private final Ramp overallSpeed = new Ramp(1.0f); // Added to the speed of every grain, smoothed
+    private volatile float smoothMs = 20.0f;          // Glide time of speed changes
+    private float sampleRate = 44100.0f; // Until the host reports its own
+    private float grainVolume = 1.0f; // Volume control for grains
+    private final int minGrainSize = 3500;
+    private Xoshiro random = new Xoshiro(Xoshiro.randomSeed()); // Used by process() only
+    private final AtomicReference<Xoshiro> pendingRandom = new AtomicReference<>(); // Reseeded generator waiting to be swapped in
+    private final GrainScheduler scheduler = new GrainScheduler();
+    private GrainPool grains;                                              // Grains played by process()
+    private final AtomicReference<GrainPool> pendingGrains = new AtomicReference<>(); // Resized pool waiting to be swapped in
+    private volatile int interpMode = Interpolator.LINEAR; // Fractional read quality
+    private int envelopeShape = EnvelopeTable.TRAPEZOID;                                // Fade shape of each grain
+    private float envelopeRatio = 0.2f;                                                 // Fade-in/out as a fraction of the grain
+    private volatile float[] envelope = EnvelopeTable.get(envelopeShape, envelopeRatio); // Shared table for the shape
+    private volatile int snapMode = OnsetIndex.OFF;                       // Where grain starts snap to
+    private final AnalysisService.Slot<OnsetIndex> onsets = new AnalysisService.Slot<>("onsets", OnsetIndex::build);
+
+    public GrainEngine(SampleSource source) {
+        this(source, 2);
+    }
+
+    public GrainEngine(SampleSource source, int channels) {
+        this.source = source;
+        source.requireInterleaved();
+        this.channels = Math.max(1, channels);
+        mix = new float[this.channels];
+        channelOf = new int[this.channels];
+        grains = new GrainPool(GrainPool.DEFAULT_CAPACITY, this.channels);
+    }
+
+    // Start, end, rate, speed, volume, max speed; null or missing when not connected
+    public int getInputCount() {
+        return 6;
+    }
+
+    public int getOutputCount() {
+        return channels;
+    }
+
+    public void setSampleRate(float sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void process(float[][] inputs, float[][] outputs) {
+        long started = stats.begin();
+        render(inputs, outputs);
+        stats.end(started, outputs[0].length, sampleRate);
+    }
+
+    public PerfStats getStats() {
+        return stats;
+    }
+
+    private void render(float[][] inputs, float[][] outputs) {
+        int frames = outputs[0].length;
+        queue.beginBlock(frameClock, frames, sampleRate);
+        frameClock += frames;
+
+        // Swap in a pool resized by "maxgrains", carrying over the grains that still fit
+        GrainPool resized = pendingGrains.getAndSet(null);
+        if (resized != null) {
+            resized.copyFrom(grains);
+            grains = resized;
+        }
+        Xoshiro reseeded = pendingRandom.getAndSet(null);
+        if (reseeded != null) {
+            random = reseeded;
+            scheduler.reset();
+        }
+
+        SampleSource.Snapshot snapshot = source.snapshot();
+        float[][] data = snapshot.channels;
+        float[] samples = snapshot.interleaved; // Made with the snapshot, off the audio thread
+        long bufferFrames = samples != null ? snapshot.frames : 0;
+        if (bufferFrames <= 0) {
+            //post("Error: Buffer is empty or not found.");
+            for (float[] out : outputs) {
+                for (int i = 0; i < frames; i++) out[i] = 0;
+            }
+            applyChanges(frames - 1, 0);
+            stats.miss();
+            return;
+        }
+
+        // Output o plays source channel o, wrapping around when the buffer has fewer channels; while panning,
+        // every output plays the mono sum, collapsed into channel 0 of the frame
+        int stride = data.length;
+        int frameCount = (int) bufferFrames;
+        boolean downmix = stride > 1 && panner.isPanning(channels);
+        float downmixScale = 1.0f / stride;
+        for (int o = 0; o < channels; o++) channelOf[o] = downmix ? 0 : o % stride;
+
+        float[] startMod = modulation(inputs, 0, bufferFrames);
+        float[] endMod = modulation(inputs, 1, bufferFrames);
+        float[] rateMod = modulation(inputs, 2, bufferFrames);
+        float[] speedMod = modulation(inputs, 3, bufferFrames);
+        float[] volumeMod = modulation(inputs, 4, bufferFrames);
+        float[] maxSpeedMod = modulation(inputs, 5, bufferFrames);
+        boolean spawnMod = startMod != null || endMod != null || volumeMod != null || maxSpeedMod != null;
+        int snap = snapMode;
+        OnsetIndex index = snap != OnsetIndex.OFF ? onsets.get(snapshot) : null; // Unsnapped until it is built
+
+        fitRange(bufferFrames);
+
+        GrainPool pool = grains;
+        double[] pos = pool.pos;
+        float[] speed = pool.speed;
+        float[] volume = pool.volume;
+        double[] start = pool.start;
+        double[] end = pool.end;
+        double[] envScale = pool.envScale;
+        float[] pan = pool.gains;
+        int outputCount = channels;
+        float[] sums = mix;
+        float[] read = frame;
+        int[] sourceChannel = channelOf;
+        boolean stereo = outputCount == 2;
+        int left = sourceChannel[0];
+        int right = stereo ? sourceChannel[1] : 0;
+        int mode = interpMode;
+        float[] fade = envelope;
+
+        // The block is cut into segments at queued changes; the onsets of each are scheduled ahead
+        int nextChange = queue.nextOffset();
+        int segmentEnd = 0;
+        int onsetCount = 0;
+        int onsetIndex = 0;
+        int nextOnset = -1;
+        for (int i = 0; i < frames; i++) {
+            if (i == segmentEnd) {
+                if (i == nextChange) nextChange = applyChanges(i, bufferFrames);
+                if (rateMod == null) {
+                    onsetCount = scheduler.schedule(i, nextChange, 1000.0 / (rateMs * sampleRate), random);
+                    onsetIndex = 0;
+                    nextOnset = onsetCount > 0 ? scheduler.onset(0) : -1;
+                    segmentEnd = scheduler.end();
+                } else {
+                    segmentEnd = nextChange;
+                }
+            }
+            float speedOffset = speedMod != null ? Math.max(0.1f, speedMod[i]) : overallSpeed.next();
+
+            boolean onset;
+            if (rateMod != null) {
+                onset = scheduler.tick(1000.0 / (Math.max(1.0f, rateMod[i]) * sampleRate), random);
+            } else {
+                onset = i == nextOnset;
+                if (onset) nextOnset = ++onsetIndex < onsetCount ? scheduler.onset(onsetIndex) : -1;
+            }
+            if (onset) {
+                if (spawnMod) {
+                    // Sample and hold the moving inputs that only matter when a grain starts
+                    if (startMod != null) apply(0, startMod[i], bufferFrames);
+                    if (endMod != null) apply(1, endMod[i], bufferFrames);
+                    if (volumeMod != null) apply(4, volumeMod[i], bufferFrames);
+                    if (maxSpeedMod != null) apply(5, maxSpeedMod[i], bufferFrames);
+                }
+                spawnNewGrain(pool, bufferFrames, index, snap);
+            }
+
+            float mixL = 0; // Stereo sums stay in locals, other layouts in the accumulator array
+            float mixR = 0;
+            for (int j = pool.count - 1; j >= 0; j--) {
+                if (pos[j] >= end[j]) {
+                    pool.remove(j); // Swap the last grain into this slot, it was already mixed this sample
+                    continue;
+                }
+
+                double step = speedOffset + speed[j];
+                Interpolator.readFrame(samples, stride, frameCount, pos[j], mode, step, read); // Every channel in one pass
+                if (downmix) {
+                    float sum = read[0];
+                    for (int c = 1; c < stride; c++) sum += read[c];
+                    read[0] = sum * downmixScale;
+                }
+                double currentPos = pos[j] + step;
+                pos[j] = currentPos;
+
+                // Fade based on the advanced position of the grain
+                float gain = EnvelopeTable.read(fade, (currentPos - start[j]) * envScale[j]) * volume[j];
+                int g = j * outputCount;
+                if (stereo) {
+                    mixL += read[left] * gain * pan[g];
+                    mixR += read[right] * gain * pan[g + 1];
+                } else {
+                    for (int o = 0; o < outputCount; o++) {
+                        sums[o] += read[sourceChannel[o]] * gain * pan[g + o];
+                    }
+                }
+            }
+            if (stereo) {
+                outputs[0][i] = mixL;
+                outputs[1][i] = mixR;
+            } else {
+                for (int o = 0; o < outputCount; o++) {
+                    outputs[o][i] = sums[o];
+                    sums[o] = 0;
+                }
+            }
+        }
+        while (queue.pollLatest()) apply(queue.id(), queue.value(), bufferFrames);
+        if (rateMod != null) rateMs = Math.max(1.0f, rateMod[rateMod.length - 1]); // Continue from here if it stops moving
+        if (speedMod != null) overallSpeed.setTarget(Math.max(0.1f, speedMod[speedMod.length - 1]), 0);
+        stats.voices(pool.count);
+    }
+
+    // Signal input k if it moves this block, else null; a new constant value is applied like inlet k
+    private float[] modulation(float[][] inputs, int k, long bufferFrames) {
+        switch (modulation.poll(inputs, k)) {
+            case Modulation.CHANGED:
+                apply(k, inputs[k][0], bufferFrames);
+                return null;
+            case Modulation.AUDIO:
+                return inputs[k];
+            default:
+                return null;
+        }
+    }
+
+    // Keep the range at least one minimum grain long
+    private void fitRange(long bufferFrames) {
+        if (sampEnd - sampStart < minGrainSize) {
+            sampEnd = (sampStart + minGrainSize) - Math.max(0, sampStart + minGrainSize - bufferFrames);
+            //post("Adjusted sampEnd to ensure min grain size: " + sampEnd);
+        }
+    }
+
+    // Apply the queued changes due at this offset; returns the offset of the next one
+    private int applyChanges(int offset, long bufferFrames) {
+        while (queue.poll(offset)) apply(queue.id(), queue.value(), bufferFrames);
+        return queue.nextOffset();
+    }
+
+    // Audio thread: one inlet value, clamped to the current snapshot if there is one
+    private void apply(int inletIdx, float value, long bufferFrames) {
+        long last = bufferFrames > 0 ? bufferFrames - 1 : Long.MAX_VALUE;
+        switch (inletIdx) {
+            case 0:  // Inlet 1: sampStart
+                sampStart = Math.round(Math.max(0, Math.min(value, last)));
+                if (bufferFrames > 0) fitRange(bufferFrames);
+                break;
+            case 1:  // Inlet 2: sampEnd
+                sampEnd = Math.round(Math.max(0, Math.min(value, last)));
+                if (bufferFrames > 0) fitRange(bufferFrames);
+                break;
+            case 2:  // Inlet 3: rateMs
+                rateMs = Math.max(1.0f, value);
+                break;
+            case 3:  // Inlet 4: speed, glides to the new value
+                overallSpeed.setTarget(Math.max(0.1f, value), (int) (smoothMs * 0.001f * sampleRate));
+                break;
+            case 4:  // Inlet 5: volume control for grains
+                grainVolume = Math.max(0.0f, Math.min(value, 1.0f));
+                break;
+            case 5:
+                maxSpeed = Math.max(0.1f, value);
+                break;
+        }
+    }
+
+    private void spawnNewGrain(GrainPool pool, long bufferFrames, OnsetIndex index, int snap) {
+        if (sampEnd - sampStart < minGrainSize) return;
+        if (pool.count >= pool.capacity) {
+            stats.dropped(); // Pool is full, skip this grain
+            return;
+        }
+        long grainStart = sampStart + random.nextInt((int) Math.max(1, sampEnd - sampStart - minGrainSize));
+        long grainSize = minGrainSize + random.nextInt((int) Math.max(1, sampEnd - sampStart - minGrainSize));
+        if (index != null) grainStart = index.snap(grainStart, sampStart, sampEnd - minGrainSize, snap);
+        if (grainSize + grainStart > bufferFrames) grainSize -= (grainSize + grainStart - bufferFrames);
+
+        // Random volume between the volume inlet and 1.0, random per-grain speed
+        float volumeFactor = grainVolume + random.nextFloat() * (1.0f - grainVolume);
+        pool.add(grainStart, grainSize, bufferFrames, volumeFactor, Math.max(1.0f, random.nextFloat() * maxSpeed));
+        panner.place(random, pool.gains, (pool.count - 1) * pool.outputs, pool.outputs);
+        stats.spawned();
+    }
+
+    // Fixed-capacity grain storage, one primitive array per grain property
+    private static class GrainPool {
+        static final int DEFAULT_CAPACITY = 128;
+
+        final int capacity;
+        final int outputs;
+        int count = 0;
+        final double[] pos;     // Current read position in frames
+        final float[] speed;    // Per-grain speed, added to the overall speed
+        final float[] volume;   // Random volume factor of the grain
+        final double[] start;   // First frame of the grain
+        final double[] end;     // Frame where the grain finishes
+        final double[] envScale; // Converts frames since start to envelope phase
+        final float[] gains;     // Panning gain per output, outputs consecutive floats per grain
+
+        GrainPool(int capacity, int outputs) {
+            this.capacity = capacity;
+            this.outputs = outputs;
+            gains = new float[capacity * outputs];
+            pos = new double[capacity];
+            speed = new float[capacity];
+            volume = new float[capacity];
+            start = new double[capacity];
+            end = new double[capacity];
+            envScale = new double[capacity];
+        }
+
+        void add(long grainStart, long grainLength, long bufferFrames, float volumeFactor, float grainSpeed) {
+            int j = count++;
+            pos[j] = grainStart;
+            speed[j] = grainSpeed;
+            volume[j] = volumeFactor;
+            start[j] = grainStart;
+            end[j] = Math.min(grainStart + grainLength, bufferFrames - 1);
+            envScale[j] = 1.0 / Math.max(1.0, end[j] - grainStart);
+        }
+
+        void remove(int j) {
+            int last = --count;
+            pos[j] = pos[last];
+            speed[j] = speed[last];
+            volume[j] = volume[last];
+            start[j] = start[last];
+            end[j] = end[last];
+            envScale[j] = envScale[last];
+            System.arraycopy(gains, last * outputs, gains, j * outputs, outputs);
+        }
+
+        void copyFrom(GrainPool other) {
+            count = Math.min(other.count, capacity);
+            System.arraycopy(other.pos, 0, pos, 0, count);
+            System.arraycopy(other.speed, 0, speed, 0, count);
+            System.arraycopy(other.volume, 0, volume, 0, count);
+            System.arraycopy(other.start, 0, start, 0, count);
+            System.arraycopy(other.end, 0, end, 0, count);
+            System.arraycopy(other.envScale, 0, envScale, 0, count);
+            System.arraycopy(other.gains, 0, gains, 0, count * outputs);
+        }
+    }
+
+    // Inlets 0..6: start, end, rate (ms), speed, volume, max speed, envelope shape index
+    public void parameter(int inletIdx, float value) {
+        if (inletIdx == 6) { // Inlet 7: envelope shape index, a table swap safe from any thread
+            setEnvelope((int) value, envelopeRatio);
+            return;
+        }
+        if (inletIdx >= 0 && inletIdx <= 5) queue.push(inletIdx, value);
+    }
+
+    // Restart the random sequence and the schedule from a seed: the same seed and input give the same grains
+    public void setSeed(long seed) {
+        pendingRandom.set(new Xoshiro(seed));
+    }
+
+    // Density mode by name (periodic, poisson, jitter, burst); negative amount or count keep the current ones
+    public boolean setDensity(String mode, float amount, int count) {
+        int parsed = GrainScheduler.parse(mode);
+        if (parsed < 0) return false;
+        scheduler.setMode(parsed, amount, count);
+        return true;
+    }
+
+    // Random placement of new grains: spread 0..1 of the line or ring around centre 0..1, spread 0 is off
+    public void setPan(float spread, float centre) {
+        panner.set(spread, centre);
+    }
+
+    // Grain starts: off (anywhere), zero (nearest zero crossing) or onset (nearest onset in the range)
+    public boolean setSnap(String mode) {
+        int parsed = OnsetIndex.parse(mode);
+        if (parsed < 0) return false;
+        // The index is built in the background for the current snapshot and every later one, only while snapping
+        if (parsed == OnsetIndex.OFF) {
+            onsets.detach();
+        } else {
+            onsets.attach(source);
+        }
+        snapMode = parsed;
+        return true;
+    }
+
+    // Glide time of speed changes in milliseconds, 0 jumps
+    public void setSmoothing(float ms) {
+        smoothMs = Math.max(0.0f, Math.min(ms, 1000.0f));
+    }
+
+    // Maximum number of simultaneous grains; the pool is allocated here, never in process()
+    public void setMaxGrains(int count) {
+        pendingGrains.set(new GrainPool(Math.max(1, Math.min(count, 4096)), channels));
+    }
+
+    // "maxgrains <n>", "interp <mode>", "envelope <shape> [ratio]", "smooth <ms>", "seed <n>",
+    // "density <mode> [amount] [count]", "pan <spread> [centre]", "snap <off|zero|onset>", "refresh"
+    public boolean message(String name, String[] args) {
+        switch (name) {
+            case "snap":
+                return args.length > 0 && setSnap(args[0]);
+            case "pan":
+                if (args.length == 0) return false;
+                setPan(Float.parseFloat(args[0]), args.length > 1 ? Float.parseFloat(args[1]) : 0.5f);
+                return true;
+            case "seed":
+                if (args.length == 0) return false;
+                setSeed(Long.parseLong(args[0]));
+                return true;
+            case "density":
+                return args.length > 0 && setDensity(args[0], args.length > 1 ? Float.parseFloat(args[1]) : -1,
+                        args.length > 2 ? Integer.parseInt(args[2]) : -1);
+            case "smooth":
+                if (args.length == 0) return false;
+                setSmoothing(Float.parseFloat(args[0]));
+                return true;
+            case "maxgrains":
+                if (args.length == 0) return false;
+                setMaxGrains(Integer.parseInt(args[0]));
+                return true;
+            case "interp":
+                return args.length > 0 && setInterpolation(args[0]);
+            case "envelope":
+                return args.length > 0 && setEnvelope(args[0], args.length > 1 ? Float.parseFloat(args[1]) : -1);
+            case "refresh":
+                source.invalidate();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Envelope by name; a negative ratio keeps the current one
+    public boolean setEnvelope(String shapeName, float ratio) {
+        int shape = EnvelopeTable.parse(shapeName);
+        if (shape < 0) return false;
+        setEnvelope(shape, ratio < 0 ? envelopeRatio : ratio);
+        return true;
+    }
+
+    // Look up the shared table, built on first use of this shape and ratio
+    public void setEnvelope(int shape, float ratio) {
+        envelopeShape = Math.max(0, Math.min(shape, EnvelopeTable.shapeCount() - 1));
+        envelopeRatio = Math.max(0.0f, Math.min(ratio, 0.5f));
+        envelope = EnvelopeTable.get(envelopeShape, envelopeRatio);
+    }
+
+    // Interpolation quality: nearest, linear, hermite or sinc
+    public boolean setInterpolation(String mode) {
+        int parsed = Interpolator.parse(mode);
+        if (parsed < 0) return false;
+        interpMode = parsed;
+        return true;
+    }
+}
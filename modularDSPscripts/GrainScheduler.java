@@ -0,0 +1,107 @@
+// Onset times of grains and trigger events. The gap to the next onset is kept in periods, so the rate can
+// change between segments; the onsets of a segment at a constant rate are computed ahead, one division per
+// onset instead of one accumulation per sample. Density modes:
+//   periodic  one onset every period
+//   poisson   exponential gaps with a mean of one period
+//   jitter    each gap is the period moved by up to +-amount of a period
+//   burst     count onsets close together, amount of a period apart, then a gap; the mean rate is unchanged
+public final class GrainScheduler {
+    public static final int PERIODIC = 0;
+    public static final int POISSON = 1;
+    public static final int JITTER = 2;
+    public static final int BURST = 3;
+    private static final String[] NAMES = {"periodic", "poisson", "jitter", "burst"};
+    public static final int MAX_ONSETS = 4096; // A segment is cut short after this many onsets, the rest follows
+
+    private final int[] onsets = new int[MAX_ONSETS];
+    private double remaining = 1.0; // Periods until the next onset
+    private int burstIndex = 0;     // Onsets already played of the current burst
+    private int scheduledTo = 0;
+
+    private volatile int mode = PERIODIC;
+    private volatile float amount = 0.5f; // Jitter depth, or the spacing inside a burst, in periods
+    private volatile int burstCount = 4;
+
+    // Mode index for a name such as "poisson", or -1 if the name is unknown
+    public static int parse(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    // Safe from any thread; a negative amount or count keeps the current one
+    public void setMode(int newMode, float newAmount, int newCount) {
+        if (newAmount >= 0) amount = Math.min(newAmount, 1.0f);
+        if (newCount > 0) burstCount = Math.min(newCount, 64);
+        mode = newMode;
+    }
+
+    // Start over, e.g. after reseeding: the first onset is one period away
+    public void reset() {
+        remaining = 1.0;
+        burstIndex = 0;
+    }
+
+    // Onsets in [from, to) at a constant step of periods per sample; returns how many, read them with onset().
+    // The schedule covers [from, end()), which is short of to only if MAX_ONSETS was reached.
+    public int schedule(int from, int to, double step, Xoshiro random) {
+        int count = 0;
+        int i = from;
+        if (step <= 0) {
+            scheduledTo = to;
+            return 0;
+        }
+        while (i < to && count < MAX_ONSETS) {
+            // The onset falls on the first sample whose step reaches the remaining gap
+            double samples = Math.max(1.0, Math.ceil(remaining / step - 1e-9));
+            if (samples > to - i) {
+                remaining -= (to - i) * step;
+                i = to;
+                break;
+            }
+            i += (int) samples;
+            onsets[count++] = i - 1;
+            remaining += nextGap(random) - samples * step;
+        }
+        scheduledTo = i;
+        return count;
+    }
+
+    // Offset of the k-th onset of the last schedule()
+    public int onset(int k) {
+        return onsets[k];
+    }
+
+    // First sample the last schedule() did not cover
+    public int end() {
+        return scheduledTo;
+    }
+
+    // One sample at this step, for rates that move every sample; true if an onset falls on it
+    public boolean tick(double step, Xoshiro random) {
+        remaining -= Math.max(0.0, step);
+        if (remaining > 0) return false;
+        remaining = Math.max(remaining + nextGap(random), 0.0); // At most one onset per sample
+        return true;
+    }
+
+    // Periods from one onset to the next
+    private double nextGap(Xoshiro random) {
+        switch (mode) {
+            case POISSON:
+                return random.nextExponential();
+            case JITTER:
+                return Math.max(0.0, 1.0 + amount * (2.0 * random.nextDouble() - 1.0));
+            case BURST: {
+                int count = burstCount;
+                float spacing = Math.min(amount, 1.0f / count);
+                if (++burstIndex < count) return spacing;
+                burstIndex = 0;
+                return count - (count - 1) * spacing; // Rest of the count periods the burst stands for
+            }
+            default:
+                return 1.0;
+        }
+    }
+}
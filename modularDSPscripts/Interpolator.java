@@ -0,0 +1,246 @@
+// Fractional-position reads from a sample array, shared by every buffer reader.
+// Positions outside the array are clamped to the first/last frame.
+public final class Interpolator {
+    public static final int NEAREST = 0; // Closest frame, the old Math.round behaviour
+    public static final int LINEAR = 1;  // Two-point linear
+    public static final int HERMITE = 2; // Four-point, third-order Hermite
+    public static final int SINC = 3;    // Polyphase windowed-sinc from a precomputed table, band-limited for the speed
+    private static final String[] NAMES = {"nearest", "linear", "hermite", "sinc"};
+
+    // Windowed-sinc tables: one row of taps per sub-sample phase, built once for all instances. Reading faster
+    // than one frame per sample moves the source spectrum up, so each table set lowers the cutoff by its speed
+    // and stretches the kernel to match; a read takes the first set at least as fast as it, the last beyond 4x.
+    private static final int SINC_HALF = 8;                 // Taps on each side of the read position at speed 1
+    private static final int SINC_PHASES = 1024;            // Sub-sample resolution of the tables
+    private static final double SINC_CUTOFF = 0.92;         // Fraction of Nyquist kept by the lowpass at speed 1
+    private static final double[] SINC_SPEEDS = {1.0, 1.5, 2.0, 3.0, 4.0};
+    private static final int[] SINC_HALVES = new int[SINC_SPEEDS.length]; // Taps on each side, per set
+    private static final float[][] SINC_TABLES = new float[SINC_SPEEDS.length][];
+
+    static {
+        for (int b = 0; b < SINC_SPEEDS.length; b++) {
+            SINC_HALVES[b] = (int) Math.ceil(SINC_HALF * SINC_SPEEDS[b]);
+            SINC_TABLES[b] = buildSincTable(SINC_HALVES[b], SINC_CUTOFF / SINC_SPEEDS[b]);
+        }
+    }
+
+    private Interpolator() {
+    }
+
+    // Mode index for a name such as "hermite", or -1 if the name is unknown
+    public static int parse(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    public static float read(float[] samples, double pos, int mode) {
+        return read(samples, pos, mode, 1.0);
+    }
+
+    // The same for a read moving speed frames per sample, which only the sinc mode takes into account
+    public static float read(float[] samples, double pos, int mode, double speed) {
+        switch (mode) {
+            case LINEAR:
+                return linear(samples, pos);
+            case HERMITE:
+                return hermite(samples, pos);
+            case SINC:
+                return sinc(samples, pos, speed);
+            default:
+                return nearest(samples, pos);
+        }
+    }
+
+    // Index of the sinc table set for a speed in frames per sample
+    private static int band(double speed) {
+        double s = Math.abs(speed);
+        int b = 0;
+        while (b < SINC_SPEEDS.length - 1 && s > SINC_SPEEDS[b]) b++;
+        return b;
+    }
+
+    public static float nearest(float[] samples, double pos) {
+        int index = (int) (pos + 0.5);
+        if (pos <= 0) return samples[0];
+        return samples[Math.min(index, samples.length - 1)];
+    }
+
+    public static float linear(float[] samples, double pos) {
+        int last = samples.length - 1;
+        if (pos <= 0) return samples[0];
+        int i = (int) pos;
+        if (i >= last) return samples[last];
+        float frac = (float) (pos - i);
+        float y0 = samples[i];
+        return y0 + frac * (samples[i + 1] - y0);
+    }
+
+    public static float hermite(float[] samples, double pos) {
+        int last = samples.length - 1;
+        if (pos <= 0) return samples[0];
+        int i = (int) pos;
+        if (i >= last) return samples[last];
+        float x = (float) (pos - i);
+
+        float ym1 = samples[i > 0 ? i - 1 : 0];
+        float y0 = samples[i];
+        float y1 = samples[i + 1];
+        float y2 = samples[i + 2 <= last ? i + 2 : last];
+
+        float c1 = 0.5f * (y1 - ym1);
+        float c2 = ym1 - 2.5f * y0 + 2.0f * y1 - 0.5f * y2;
+        float c3 = 0.5f * (y2 - ym1) + 1.5f * (y0 - y1);
+        return ((c3 * x + c2) * x + c1) * x + y0;
+    }
+
+    public static float sinc(float[] samples, double pos, double speed) {
+        int last = samples.length - 1;
+        if (pos <= 0) return samples[0];
+        int i = (int) pos;
+        if (i >= last) return samples[last];
+        int b = band(speed);
+        int half = SINC_HALVES[b];
+        int taps = 2 * half;
+        float[] table = SINC_TABLES[b];
+        int row = (int) ((pos - i) * SINC_PHASES + 0.5) * taps;
+        int first = i - (half - 1);
+
+        float sum = 0;
+        if (first >= 0 && first + taps <= samples.length) {
+            for (int k = 0; k < taps; k++) {
+                sum += samples[first + k] * table[row + k];
+            }
+        } else {
+            // Near the edges, repeat the first/last frame
+            for (int k = 0; k < taps; k++) {
+                int index = Math.max(0, Math.min(first + k, last));
+                sum += samples[index] * table[row + k];
+            }
+        }
+        return sum;
+    }
+
+    // Every channel of an interleaved frame at a fractional frame position, into out[0..stride).
+    // One pass over the neighbouring frames serves all channels; the modes match read().
+    // The caller passes the frame count, which keeps a division out of every read, and the speed of the read.
+    public static void readFrame(float[] frames, int stride, int frameCount, double pos, int mode, double speed, float[] out) {
+        switch (mode) {
+            case LINEAR:
+                linearFrame(frames, stride, frameCount, pos, out);
+                break;
+            case HERMITE:
+                hermiteFrame(frames, stride, frameCount, pos, out);
+                break;
+            case SINC:
+                sincFrame(frames, stride, frameCount, pos, speed, out);
+                break;
+            default:
+                nearestFrame(frames, stride, frameCount, pos, out);
+                break;
+        }
+    }
+
+    public static void nearestFrame(float[] frames, int stride, int frameCount, double pos, float[] out) {
+        int index = pos <= 0 ? 0 : Math.min((int) (pos + 0.5), frameCount - 1);
+        System.arraycopy(frames, index * stride, out, 0, stride);
+    }
+
+    public static void linearFrame(float[] frames, int stride, int frameCount, double pos, float[] out) {
+        int last = frameCount - 1;
+        int i = pos <= 0 ? 0 : (int) pos;
+        if (pos <= 0 || i >= last) {
+            System.arraycopy(frames, Math.min(i, last) * stride, out, 0, stride);
+            return;
+        }
+        float frac = (float) (pos - i);
+        int base = i * stride;
+        for (int c = 0; c < stride; c++) {
+            float y0 = frames[base + c];
+            out[c] = y0 + frac * (frames[base + stride + c] - y0);
+        }
+    }
+
+    public static void hermiteFrame(float[] frames, int stride, int frameCount, double pos, float[] out) {
+        int last = frameCount - 1;
+        int i = pos <= 0 ? 0 : (int) pos;
+        if (pos <= 0 || i >= last) {
+            System.arraycopy(frames, Math.min(i, last) * stride, out, 0, stride);
+            return;
+        }
+        float x = (float) (pos - i);
+        int base = i * stride;
+        int before = (i > 0 ? i - 1 : 0) * stride;
+        int after = (i + 2 <= last ? i + 2 : last) * stride;
+        for (int c = 0; c < stride; c++) {
+            float ym1 = frames[before + c];
+            float y0 = frames[base + c];
+            float y1 = frames[base + stride + c];
+            float y2 = frames[after + c];
+
+            float c1 = 0.5f * (y1 - ym1);
+            float c2 = ym1 - 2.5f * y0 + 2.0f * y1 - 0.5f * y2;
+            float c3 = 0.5f * (y2 - ym1) + 1.5f * (y0 - y1);
+            out[c] = ((c3 * x + c2) * x + c1) * x + y0;
+        }
+    }
+
+    public static void sincFrame(float[] frames, int stride, int frameCount, double pos, double speed, float[] out) {
+        int last = frameCount - 1;
+        int i = pos <= 0 ? 0 : (int) pos;
+        if (pos <= 0 || i >= last) {
+            System.arraycopy(frames, Math.min(i, last) * stride, out, 0, stride);
+            return;
+        }
+        int b = band(speed);
+        int half = SINC_HALVES[b];
+        int taps = 2 * half;
+        float[] table = SINC_TABLES[b];
+        int row = (int) ((pos - i) * SINC_PHASES + 0.5) * taps;
+        int first = i - (half - 1);
+
+        if (first >= 0 && first + taps <= last + 1) {
+            for (int c = 0; c < stride; c++) {
+                float sum = 0;
+                for (int k = 0, tap = first * stride + c; k < taps; k++, tap += stride) {
+                    sum += frames[tap] * table[row + k];
+                }
+                out[c] = sum;
+            }
+        } else {
+            // Near the edges, repeat the first/last frame
+            for (int c = 0; c < stride; c++) {
+                float sum = 0;
+                for (int k = 0; k < taps; k++) {
+                    sum += frames[Math.max(0, Math.min(first + k, last)) * stride + c] * table[row + k];
+                }
+                out[c] = sum;
+            }
+        }
+    }
+
+    // Taps on each side of the read position and cutoff as a fraction of Nyquist
+    private static float[] buildSincTable(int half, double cutoff) {
+        int taps = 2 * half;
+        float[] table = new float[(SINC_PHASES + 1) * taps];
+        for (int phase = 0; phase <= SINC_PHASES; phase++) {
+            double frac = phase / (double) SINC_PHASES;
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                double x = k - (half - 1) - frac; // Distance of the tap from the read position
+                double t = Math.PI * cutoff * x;
+                double sinc = x == 0 ? 1.0 : Math.sin(t) / t;
+                double w = Math.PI * x / half;   // Blackman window over the taps
+                double window = Math.abs(x) >= half ? 0.0 : 0.42 + 0.5 * Math.cos(w) + 0.08 * Math.cos(2.0 * w);
+                table[phase * taps + k] = (float) (sinc * window);
+                sum += sinc * window;
+            }
+            // Normalize every phase to unity gain at DC
+            for (int k = 0; k < taps; k++) {
+                table[phase * taps + k] /= (float) sum;
+            }
+        }
+        return table;
+    }
+}
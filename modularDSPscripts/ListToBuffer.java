@@ -0,0 +1,98 @@
+import com.cycling74.max.*;
+import com.cycling74.msp.*;
+
+import java.util.Arrays;
+
+// Compiled replacement for ListToBuffer.js: writes multislider lists into a buffer~.
+// Only the values that changed since the last write are poked, one bulk poke per contiguous run.
+// Arguments: buffer name (default "transfervalues"), channel (default 1).
+// Inlet 0: list to store, or "range <offset> v1 v2 ..." to update part of it. Inlet 1: bang to write.
+// Outlet 0: bang after the buffer~ was changed, e.g. for the "transfer" message of ShiftBuffer.
+public class ListToBuffer extends MaxObject {
+    private String bufferName = "transfervalues";
+    private int channel = 1;
+
+    private float[] storedList = new float[0]; // Latest list received
+    private float[] written = new float[0];    // What the buffer~ holds from our last write
+    private long writtenFrames = -1;           // Buffer size at the last write, a change forces a full write
+
+    public ListToBuffer(Atom[] args) {
+        if (args.length > 0) bufferName = args[0].getString();
+        if (args.length > 1) channel = Math.max(1, args[1].getInt());
+
+        declareInlets(new int[]{DataTypes.ALL, DataTypes.ALL}); // List input, Bang to write
+        declareOutlets(new int[]{DataTypes.ALL});                // Bang when the buffer~ changed
+    }
+
+    // First inlet: receives a list from multislider
+    public void list(Atom[] args) {
+        if (storedList.length != args.length) storedList = new float[args.length];
+        for (int i = 0; i < args.length; i++) {
+            storedList[i] = args[i].getFloat();
+        }
+        if (getInlet() == 1) bang(); // A list on the second inlet is stored and written at once
+    }
+
+    // Partial update: values starting at an offset into the stored list
+    public void range(Atom[] args) {
+        if (args.length < 2) return;
+        int offset = Math.max(0, args[0].getInt());
+        int count = args.length - 1;
+        if (offset + count > storedList.length) storedList = Arrays.copyOf(storedList, offset + count);
+        for (int i = 0; i < count; i++) {
+            storedList[offset + i] = args[i + 1].getFloat();
+        }
+        if (getInlet() == 1) bang();
+    }
+
+    // Second inlet: bang triggers writing into buffer~
+    public void bang() {
+        long frames = MSPBuffer.getFrames(bufferName);
+        if (frames <= 0) {
+            error("ListToBuffer: buffer~ '" + bufferName + "' not found or empty");
+            return;
+        }
+        if (storedList.length == 0) return; // No data stored yet
+
+        int numSamples = (int) Math.min(storedList.length, frames); // Ensure safe range
+        boolean fullWrite = frames != writtenFrames;
+        if (written.length < numSamples) {
+            written = Arrays.copyOf(written, numSamples);
+            fullWrite = true;
+        }
+
+        // Poke each contiguous run of changed values with a single call
+        boolean changed = false;
+        int i = 0;
+        while (i < numSamples) {
+            if (!fullWrite && storedList[i] == written[i]) {
+                i++;
+                continue;
+            }
+            int runStart = i;
+            while (i < numSamples && (fullWrite || storedList[i] != written[i])) i++;
+
+            float[] run = Arrays.copyOfRange(storedList, runStart, i);
+            MSPBuffer.poke(bufferName, channel, runStart, run);
+            System.arraycopy(run, 0, written, runStart, run.length);
+            changed = true;
+        }
+        writtenFrames = frames;
+
+        if (changed) {
+            SampleCache.invalidate(bufferName); // Engines reading this buffer~ reload their snapshot
+            outletBang(0);
+        }
+    }
+
+    // Forget what was written, so the next bang writes the whole list
+    public void refresh() {
+        writtenFrames = -1;
+    }
+
+    // Write into another buffer~
+    public void set(String name) {
+        bufferName = name;
+        writtenFrames = -1;
+    }
+}
@@ -20,13 +20,13 @@ CP="$MAX_BASE/lib/max.jar"
 
 mkdir -p "$DEST"
 
-# 3) Compile ALL .java in this script’s dir (including your five files)
+# 3) Compile ALL .java in this script’s dir in one pass (engines share helper classes)
 SRC_DIR="$(cd "$(dirname "$0")" && pwd)"
 echo "Compiling → $DEST"
 for src in "$SRC_DIR"/*.java; do
   echo "  ↳ $(basename "$src")"
-  javac -d "$DEST" -cp "$CP" "$src"
 done
+javac -d "$DEST" -cp "$CP" "$SRC_DIR"/*.java
 
 echo
 echo "✅  Done! Classes installed to:"
@@ -1,28 +1,32 @@
 import com.cycling74.max.*;
 import com.cycling74.msp.*;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.nio.file.Paths;
 
+// Max adapter for ScannerEngine reading the "aud" buffer~, or a long WAV/AIFF file streamed from disk.
 public class MinimalPlayback extends MSPObject {
     private String bufferName = "aud";   // Name of the buffer
-    private long sampStart = 0;          // Start sample index
-    private long sampEnd = 1;            // End sample index
-    private long pendingStart = 0;       // Pending start sample index
-    private long pendingEnd = 1;         // Pending end sample index
-    private float phasorRate = 1.0f;     // Cycles per second
-    private float currentPhase = 0.0f;   // Internal phasor phase
-    private float previousPhase = 0.0f;  // Previous phase value
-    private float sampleRate = 44100.0f; // Default sample rate
-    private boolean rangeChanged = false; // Flag for pending range update
+    private final SampleCache cache;      // Shared snapshot of the buffer
+    private final ScannerEngine engine;
+    private final StatsReporter statsReporter;
+    private final float[][] inputs = new float[3][]; // Rate, start and end signals, null when not connected
+    private final float[][] outputs = new float[1][];
+    private long fileCacheBytes = StreamedFile.DEFAULT_CACHE_BYTES;
 
     public MinimalPlayback() {
-        declareInlets(new int[]{SIGNAL, DataTypes.ALL, DataTypes.ALL, DataTypes.ALL}); // Empty, Cycles/sec, Start, End
-        declareOutlets(new int[]{SIGNAL});                                           // Output audio signal
+        declareInlets(new int[]{SIGNAL, SIGNAL, SIGNAL, SIGNAL, DataTypes.ALL}); // Empty, Cycles/sec, Start, End (numbers or signals), Envelope
+        declareOutlets(new int[]{SIGNAL});                                       // Output audio signal
+        cache = SampleCache.acquire(bufferName);
+        engine = new ScannerEngine(cache);
+        statsReporter = new StatsReporter(this, engine.getStats());
         //post("MinimalPlayback initialized.");
     }
 
     @Override
     public Method dsp(MSPSignal[] ins, MSPSignal[] outs) {
+        if (outs[0].sr > 0) engine.setSampleRate((float) outs[0].sr);
         try {
             return getClass().getDeclaredMethod("perform", MSPSignal[].class, MSPSignal[].class);
         } catch (NoSuchMethodException e) {
@@ -32,95 +36,84 @@ public class MinimalPlayback extends MSPObject {
     }
 
     public void perform(MSPSignal[] ins, MSPSignal[] outs) {
-        float[] outputSignal = outs[0].vec; // Output signal buffer
-
-        long bufferFrames = MSPBuffer.getFrames(bufferName);
-        if (bufferFrames <= 0) {
-            //post("Error: Buffer is empty or not found.");
-            for (int i = 0; i < outputSignal.length; i++) outputSignal[i] = 0;
-            return;
+        for (int k = 0; k < inputs.length; k++) {
+            inputs[k] = ins[k + 1].cc > 0 ? ins[k + 1].vec : null; // Unconnected inlets keep the number path
         }
+        outputs[0] = outs[0].vec;
+        engine.process(inputs, outputs);
+    }
 
-        // Detect start of a new cycle using a phase delta
-        float phaseIncrement = phasorRate / sampleRate;
-        for (int i = 0; i < outputSignal.length; i++) {
-            currentPhase += phaseIncrement;
-
-            if (currentPhase >= 1.0f) {
-                currentPhase -= 1.0f;
-            }
-
-            if (currentPhase < previousPhase && rangeChanged) {
-                // Phase has wrapped, apply pending range
-                sampStart = Math.max(0, Math.min(pendingStart, bufferFrames - 1));
-                sampEnd = Math.max(sampStart + 1, Math.min(pendingEnd, bufferFrames));
-                rangeChanged = false;
-                //post("Range updated: sampStart = " + sampStart + ", sampEnd = " + sampEnd);
-            }
-
-            previousPhase = currentPhase;
+    public void inlet(float value) {
+        // Debug: Log which inlet is triggered
+        //post("Debug: Value received on inlet " + getInlet() + ": " + value);
+        engine.parameter(getInlet(), value);
+    }
 
-            if (phasorRate <= 0.0f || sampEnd <= sampStart) {
-                //post("Error: Invalid phasorRate or range, outputting silence.");
-                outputSignal[i] = 0;
-                continue;
-            }
+    // Envelope inlet: a shape name (trapezoid, hann, tukey, gaussian, exponential), optionally followed by the fade ratio
+    public void anything(String message, Atom[] args) {
+        if (getInlet() != 4 || !engine.setEnvelope(message, args.length > 0 ? args[0].getFloat() : -1)) {
+            error("MinimalPlayback: unknown envelope " + message);
+        }
+    }
 
-            long rangeLength = sampEnd - sampStart;
-            long sampleIndex = sampStart + Math.round(currentPhase * rangeLength);
-            sampleIndex = Math.max(sampStart, Math.min(sampleIndex, sampEnd - 1));
+    // Set the interpolation quality: nearest, linear, hermite or sinc
+    public void interp(String mode) {
+        if (!engine.setInterpolation(mode)) error("MinimalPlayback: unknown interpolation " + mode);
+    }
 
-            float sample = MSPBuffer.peek(bufferName, 0, sampleIndex);
+    // Glide time of rate changes in milliseconds, 0 jumps
+    public void smooth(float ms) {
+        engine.setSmoothing(ms);
+    }
 
-            // Apply fades
-            float fadeFactor = 1.0f;
-            if (currentPhase < 0.1f) { // Fade-in over first 10% of the range
-                fadeFactor = currentPhase / 0.1f;
-            } else if (currentPhase > 0.9f) { // Fade-out over last 10% of the range
-                fadeFactor = (1.0f - currentPhase) / 0.1f;
+    // File mode: "file <path>" streams a WAV or AIFF file from disk, "file" alone goes back to the buffer~.
+    // Only the header is read here; the samples are decoded near the scan range while playing.
+    public void file(Atom[] args) {
+        StreamedFile streamed = null;
+        if (args.length > 0) {
+            String name = args[0].getString();
+            String located = MaxSystem.locateFile(name);
+            try {
+                streamed = StreamedFile.open(Paths.get(MaxSystem.maxPathToNativePath(located != null ? located : name)), fileCacheBytes);
+            } catch (IOException | RuntimeException e) {
+                error("MinimalPlayback: cannot open " + name + ": " + e.getMessage());
+                return;
             }
-
-            outputSignal[i] = sample * fadeFactor;
+            post("MinimalPlayback: streaming " + streamed.getName() + ", " + streamed.frames + " frames, "
+                    + (streamed.getCacheBytes() >> 20) + " MB cache");
         }
+        StreamedFile previous = engine.setFile(streamed);
+        if (previous != null) previous.close();
     }
 
-    public void inlet(float value) {
-        int inletIdx = getInlet(); // Get the index of the inlet that received the value
+    // Page cache size in megabytes for the next file
+    public void filecache(float megabytes) {
+        fileCacheBytes = (long) (Math.max(1.0f, Math.min(megabytes, 4096.0f)) * (1 << 20));
+    }
 
-        // Debug: Log which inlet is triggered
-        //post("Debug: Value received on inlet " + inletIdx + ": " + value);
+    // Reload the buffer snapshot, e.g. after writing into the buffer~ without resizing it
+    public void refresh() {
+        cache.invalidate();
+    }
 
-        long bufferFrames = MSPBuffer.getFrames(bufferName);
+    // Output the performance counters on the info outlet
+    public void stats() {
+        statsReporter.request();
+    }
 
-        if (bufferFrames <= 0) {
-            //post("Error: Buffer not loaded or empty.");
-            return;
-        }
+    // Output them every ms milliseconds, 0 stops
+    public void statsinterval(float ms) {
+        statsReporter.interval(ms);
+    }
 
-        switch (inletIdx) {
-            case 1: // Second inlet: phasorRate
-                if (value <= 0) {
-                    //post("Warning: Received invalid phasorRate (" + value + "), ignoring.");
-                } else {
-                    phasorRate = value; // Accept valid phasorRate
-                    //post("Phasor rate updated to: " + phasorRate + " cycles/sec");
-                }
-                break;
-
-            case 2: // Third inlet: sampStart
-                pendingStart = Math.round(Math.max(0, Math.min(value, bufferFrames - 1)));
-                rangeChanged = true; // Mark range as pending
-                //post("Pending start updated to: " + pendingStart);
-                break;
-
-            case 3: // Fourth inlet: sampEnd
-                pendingEnd = Math.round(Math.max(0, Math.min(value, bufferFrames - 1)));
-                rangeChanged = true; // Mark range as pending
-                //post("Pending end updated to: " + pendingEnd);
-                break;
-
-            default:
-                //post("Warning: Unhandled inlet index: " + inletIdx);
-        }
+    public void statsreset() {
+        engine.getStats().reset();
+    }
+
+    public void notifyDeleted() {
+        statsReporter.release();
+        StreamedFile streamed = engine.setFile(null);
+        if (streamed != null) streamed.close();
+        cache.release();
     }
 }
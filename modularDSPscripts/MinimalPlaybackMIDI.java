@@ -3,26 +3,27 @@ import com.cycling74.msp.*;
 
 import java.lang.reflect.Method;
 
+// Max adapter for ScannerEngine reading the "polyphonicPlayback" buffer~.
 public class MinimalPlaybackMIDI extends MSPObject {
     private String bufferName = "polyphonicPlayback";   // Name of the buffer
-    private long sampStart = 0;          // Start sample index
-    private long sampEnd = 1;            // End sample index
-    private long pendingStart = 0;       // Pending start sample index
-    private long pendingEnd = 1;         // Pending end sample index
-    private float phasorRate = 1.0f;     // Cycles per second
-    private float currentPhase = 0.0f;   // Internal phasor phase
-    private float previousPhase = 0.0f;  // Previous phase value
-    private float sampleRate = 44100.0f; // Default sample rate
-    private boolean rangeChanged = false; // Flag for pending range update
+    private final SampleCache cache;      // Shared snapshot of the buffer
+    private final ScannerEngine engine;
+    private final StatsReporter statsReporter;
+    private final float[][] inputs = new float[0][];
+    private final float[][] outputs = new float[1][];
 
     public MinimalPlaybackMIDI() {
-        declareInlets(new int[]{SIGNAL, DataTypes.ALL, DataTypes.ALL, DataTypes.ALL}); // Empty, Cycles/sec, Start, End
+        declareInlets(new int[]{SIGNAL, DataTypes.ALL, DataTypes.ALL, DataTypes.ALL, DataTypes.ALL}); // Empty, Cycles/sec, Start, End, Envelope
         declareOutlets(new int[]{SIGNAL});                                           // Output audio signal
-        //post("MinimalPlayback initialized.");
+        cache = SampleCache.acquire(bufferName);
+        engine = new ScannerEngine(cache);
+        statsReporter = new StatsReporter(this, engine.getStats());
+        //post("MinimalPlaybackMIDI initialized.");
     }
 
     @Override
     public Method dsp(MSPSignal[] ins, MSPSignal[] outs) {
+        if (outs[0].sr > 0) engine.setSampleRate((float) outs[0].sr);
         try {
             return getClass().getDeclaredMethod("perform", MSPSignal[].class, MSPSignal[].class);
         } catch (NoSuchMethodException e) {
@@ -32,95 +33,54 @@ public class MinimalPlaybackMIDI extends MSPObject {
     }
 
     public void perform(MSPSignal[] ins, MSPSignal[] outs) {
-        float[] outputSignal = outs[0].vec; // Output signal buffer
-
-        long bufferFrames = MSPBuffer.getFrames(bufferName);
-        if (bufferFrames <= 0) {
-            //post("Error: Buffer is empty or not found.");
-            for (int i = 0; i < outputSignal.length; i++) outputSignal[i] = 0;
-            return;
-        }
-
-        // Detect start of a new cycle using a phase delta
-        float phaseIncrement = phasorRate / sampleRate;
-        for (int i = 0; i < outputSignal.length; i++) {
-            currentPhase += phaseIncrement;
-
-            if (currentPhase >= 1.0f) {
-                currentPhase -= 1.0f;
-            }
-
-            if (currentPhase < previousPhase && rangeChanged) {
-                // Phase has wrapped, apply pending range
-                sampStart = Math.max(0, Math.min(pendingStart, bufferFrames - 1));
-                sampEnd = Math.max(sampStart + 1, Math.min(pendingEnd, bufferFrames));
-                rangeChanged = false;
-                //post("Range updated: sampStart = " + sampStart + ", sampEnd = " + sampEnd);
-            }
-
-            previousPhase = currentPhase;
-
-            if (phasorRate <= 0.0f || sampEnd <= sampStart) {
-                //post("Error: Invalid phasorRate or range, outputting silence.");
-                outputSignal[i] = 0;
-                continue;
-            }
-
-            long rangeLength = sampEnd - sampStart;
-            long sampleIndex = sampStart + Math.round(currentPhase * rangeLength);
-            sampleIndex = Math.max(sampStart, Math.min(sampleIndex, sampEnd - 1));
-
-            float sample = MSPBuffer.peek(bufferName, 0, sampleIndex);
+        outputs[0] = outs[0].vec;
+        engine.process(inputs, outputs);
+    }
 
-            // Apply fades
-            float fadeFactor = 1.0f;
-            if (currentPhase < 0.1f) { // Fade-in over first 10% of the range
-                fadeFactor = currentPhase / 0.1f;
-            } else if (currentPhase > 0.9f) { // Fade-out over last 10% of the range
-                fadeFactor = (1.0f - currentPhase) / 0.1f;
-            }
+    public void inlet(float value) {
+        // Debug: Log which inlet is triggered
+        //post("Debug: Value received on inlet " + getInlet() + ": " + value);
+        engine.parameter(getInlet(), value);
+    }
 
-            outputSignal[i] = sample * fadeFactor;
+    // Envelope inlet: a shape name (trapezoid, hann, tukey, gaussian, exponential), optionally followed by the fade ratio
+    public void anything(String message, Atom[] args) {
+        if (getInlet() != 4 || !engine.setEnvelope(message, args.length > 0 ? args[0].getFloat() : -1)) {
+            error("MinimalPlaybackMIDI: unknown envelope " + message);
         }
     }
 
-    public void inlet(float value) {
-        int inletIdx = getInlet(); // Get the index of the inlet that received the value
-
-        // Debug: Log which inlet is triggered
-        //post("Debug: Value received on inlet " + inletIdx + ": " + value);
+    // Set the interpolation quality: nearest, linear, hermite or sinc
+    public void interp(String mode) {
+        if (!engine.setInterpolation(mode)) error("MinimalPlaybackMIDI: unknown interpolation " + mode);
+    }
 
-        long bufferFrames = MSPBuffer.getFrames(bufferName);
+    // Glide time of rate changes in milliseconds, 0 jumps
+    public void smooth(float ms) {
+        engine.setSmoothing(ms);
+    }
 
-        if (bufferFrames <= 0) {
-            //post("Error: Buffer not loaded or empty.");
-            return;
-        }
+    // Reload the buffer snapshot, e.g. after writing into the buffer~ without resizing it
+    public void refresh() {
+        cache.invalidate();
+    }
 
-        switch (inletIdx) {
-            case 1: // Second inlet: phasorRate
-                if (value <= 0) {
-                    //post("Warning: Received invalid phasorRate (" + value + "), ignoring.");
-                } else {
-                    phasorRate = value; // Accept valid phasorRate
-                    //post("Phasor rate updated to: " + phasorRate + " cycles/sec");
-                }
-                break;
+    // Output the performance counters on the info outlet
+    public void stats() {
+        statsReporter.request();
+    }
 
-            case 2: // Third inlet: sampStart
-                pendingStart = Math.round(Math.max(0, Math.min(value, bufferFrames - 1)));
-                rangeChanged = true; // Mark range as pending
-                //post("Pending start updated to: " + pendingStart);
-                break;
+    // Output them every ms milliseconds, 0 stops
+    public void statsinterval(float ms) {
+        statsReporter.interval(ms);
+    }
 
-            case 3: // Fourth inlet: sampEnd
-                pendingEnd = Math.round(Math.max(0, Math.min(value, bufferFrames - 1)));
-                rangeChanged = true; // Mark range as pending
-                //post("Pending end updated to: " + pendingEnd);
-                break;
+    public void statsreset() {
+        engine.getStats().reset();
+    }
 
-            default:
-                //post("Warning: Unhandled inlet index: " + inletIdx);
-        }
+    public void notifyDeleted() {
+        statsReporter.release();
+        cache.release();
     }
 }
@@ -0,0 +1,43 @@
+import java.util.Arrays;
+
+// Signal-rate parameter inputs. Each block an input is absent (not connected), constant or moving;
+// a constant block is handed to the engine like an inlet value, once per change, so static patches
+// stay on the scalar code path and only moving signals are read per sample.
+public final class Modulation {
+    public static final int ABSENT = 0;  // Not connected, inlet values apply
+    public static final int STEADY = 1;  // Constant, same value as already applied
+    public static final int CHANGED = 2; // Constant, new value in signal[0] to apply once
+    public static final int AUDIO = 3;   // Moving, read it per sample
+
+    private final float[] applied; // Constant value applied last per input, NaN if none
+
+    public Modulation(int inputs) {
+        applied = new float[inputs];
+        Arrays.fill(applied, Float.NaN);
+    }
+
+    // True if every sample of the block has the same value; stops at the first difference
+    public static boolean isConstant(float[] signal) {
+        float first = signal[0];
+        for (int i = 1; i < signal.length; i++) {
+            if (signal[i] != first) return false;
+        }
+        return true;
+    }
+
+    // State of input k for this block; inputs may be shorter than the number of inputs, or hold nulls
+    public int poll(float[][] inputs, int k) {
+        float[] signal = k < inputs.length ? inputs[k] : null;
+        if (signal == null || signal.length == 0) {
+            applied[k] = Float.NaN; // Reconnecting applies the signal again
+            return ABSENT;
+        }
+        if (!isConstant(signal)) {
+            applied[k] = Float.NaN;
+            return AUDIO;
+        }
+        if (signal[0] == applied[k]) return STEADY;
+        applied[k] = signal[0];
+        return CHANGED;
+    }
+}
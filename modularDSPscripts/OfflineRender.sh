@@ -0,0 +1,11 @@
+#!/usr/bin/env bash
+set -e
+
+# Render an engine without Max: ./OfflineRender.sh grains in.wav out.wav --seconds 10 --set 2 20
+# Only the host-independent classes are compiled (javac follows OfflineRenderer's references), so no max.jar is needed.
+SRC_DIR="$(cd "$(dirname "$0")" && pwd)"
+OUT="${TMPDIR:-/tmp}/modularDSP-offline"
+
+mkdir -p "$OUT"
+javac -d "$OUT" -sourcepath "$SRC_DIR" "$SRC_DIR/OfflineRenderer.java"
+java -cp "$OUT" OfflineRenderer "$@"
@@ -0,0 +1,258 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless runner: renders an engine outside of Max, as fast as it goes, from a WAV file to a WAV file.
+// The input file is the buffer~ the engine plays from; signal inputs are unconnected unless --lfo drives them.
+//
+// java OfflineRenderer <scanner|grains|trigger|sampler|sine|additive|filter> in.wav out.wav [options]
+//   --seconds s          length of the render (default: length of the input)
+//   --vector n           signal vector size (default 64)
+//   --channels n         outputs of the grains and trigger engines (default 2)
+//   --feed input         play the input file's first channel into a signal input, e.g. --feed 0 for filter
+//   --realtime           pace the blocks like an audio device, e.g. to test streaming from disk
+//   --at s               time of the --set/--msg options that follow (default 0)
+//   --set inlet value    number on an inlet
+//   --msg name args...   message, e.g. --msg interp sinc, --msg note 60 100
+//   --lfo input hz lo hi sine between lo and hi on a signal input for the whole render, 0 Hz holds lo
+public final class OfflineRenderer {
+    // A parameter change or message, applied at the first block boundary at or after its time
+    private static final class Control {
+        final long frame;
+        final int inlet;      // -1 for messages
+        final float value;
+        final String name;
+        final String[] args;
+
+        Control(long frame, int inlet, float value, String name, String[] args) {
+            this.frame = frame;
+            this.inlet = inlet;
+            this.value = value;
+            this.name = name;
+            this.args = args;
+        }
+    }
+
+    // Sine driving a signal input
+    private static final class Lfo {
+        final int input;
+        final double hz;
+        final float low;
+        final float high;
+
+        Lfo(int input, double hz, float low, float high) {
+            this.input = input;
+            this.hz = hz;
+            this.low = low;
+            this.high = high;
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            run(args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("OfflineRenderer: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void run(String[] args) throws IOException {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("usage: OfflineRenderer <scanner|grains|trigger|sampler|sine|additive|filter> in.wav out.wav"
+                    + " [--seconds s] [--vector n] [--at s] [--set inlet value] [--msg name args...]");
+        }
+        WavFile input = WavFile.read(Paths.get(args[1]));
+        Path outputPath = Paths.get(args[2]);
+        float sampleRate = input.sampleRate;
+        double seconds = input.frames() / sampleRate;
+        int vectorSize = 64;
+        boolean realtime = false;
+        int channels = 2;
+        int feed = -1;
+
+        List<String[]> pending = new ArrayList<>(); // Controls are resolved once the sample rate is known
+        List<Lfo> lfos = new ArrayList<>();
+        double at = 0;
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seconds":
+                    seconds = Double.parseDouble(value(args, ++i));
+                    break;
+                case "--vector":
+                    vectorSize = Math.max(1, Integer.parseInt(value(args, ++i)));
+                    break;
+                case "--channels":
+                    channels = Math.max(1, Integer.parseInt(value(args, ++i)));
+                    break;
+                case "--feed":
+                    feed = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--realtime":
+                    realtime = true;
+                    break;
+                case "--at":
+                    at = Double.parseDouble(value(args, ++i));
+                    break;
+                case "--set":
+                    pending.add(new String[]{Double.toString(at), "set", value(args, i + 1), value(args, i + 2)});
+                    i += 2;
+                    break;
+                case "--lfo":
+                    lfos.add(new Lfo(Integer.parseInt(value(args, i + 1)), Double.parseDouble(value(args, i + 2)),
+                            Float.parseFloat(value(args, i + 3)), Float.parseFloat(value(args, i + 4))));
+                    i += 4;
+                    break;
+                case "--msg": {
+                    value(args, i + 1);
+                    int end = i + 2;
+                    while (end < args.length && !args[end].startsWith("--")) end++;
+                    String[] control = new String[end - i + 1];
+                    control[0] = Double.toString(at);
+                    control[1] = "msg";
+                    System.arraycopy(args, i + 1, control, 2, end - i - 1);
+                    pending.add(control);
+                    i = end - 1;
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        List<Control> controls = new ArrayList<>();
+        for (String[] c : pending) {
+            long frame = Math.round(Double.parseDouble(c[0]) * sampleRate);
+            if (c[1].equals("set")) {
+                controls.add(new Control(frame, Integer.parseInt(c[2]), Float.parseFloat(c[3]), null, null));
+            } else {
+                controls.add(new Control(frame, -1, 0, c[2], Arrays.copyOfRange(c, 3, c.length)));
+            }
+        }
+        controls.sort(Comparator.comparingLong(c -> c.frame));
+
+        SampleSource source = new ArraySampleSource(input.channels);
+        BlockProcessor engine = create(args[0], source, channels);
+        ParameterSink parameters = (ParameterSink) engine;
+        engine.setSampleRate(sampleRate);
+
+        float[][] inputs = new float[engine.getInputCount()][]; // Null: not connected
+        for (Lfo lfo : lfos) {
+            if (lfo.input < 0 || lfo.input >= inputs.length) {
+                throw new IllegalArgumentException(args[0] + " has no signal input " + lfo.input);
+            }
+            inputs[lfo.input] = new float[vectorSize];
+        }
+        if (feed >= inputs.length) throw new IllegalArgumentException(args[0] + " has no signal input " + feed);
+        if (feed >= 0) inputs[feed] = new float[vectorSize];
+        float[][] outputs = new float[engine.getOutputCount()][vectorSize];
+        long totalFrames = Math.max(0, Math.round(seconds * sampleRate));
+        long processNanos = 0;
+        long startNanos = System.nanoTime();
+
+        try (WavFile.Writer writer = new WavFile.Writer(outputPath, outputs.length, input.sampleRate, vectorSize)) {
+            int next = 0;
+            for (long frame = 0; frame < totalFrames; frame += vectorSize) {
+                while (next < controls.size() && controls.get(next).frame <= frame) {
+                    apply(parameters, controls.get(next++));
+                }
+                fillInputs(lfos, inputs, frame, sampleRate);
+                if (feed >= 0) fillFeed(input.channels[0], inputs[feed], frame);
+
+                if (realtime) waitUntil(startNanos + (long) (frame * 1e9 / sampleRate));
+                long t = System.nanoTime();
+                engine.process(inputs, outputs);
+                processNanos += System.nanoTime() - t;
+
+                writer.write(outputs, (int) Math.min(vectorSize, totalFrames - frame));
+            }
+        }
+
+        double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+        double processSeconds = Math.max(processNanos / 1e9, 1e-9);
+        System.out.printf("%s: %d frames (%.2f s of audio) x %d channels, vector %d%n",
+                args[0], totalFrames, totalFrames / sampleRate, outputs.length, vectorSize);
+        System.out.printf("process: %.1f ms, %.0f samples/sec, %.1fx realtime (%.1f ms including file output)%n",
+                processSeconds * 1e3, totalFrames / processSeconds, totalFrames / sampleRate / processSeconds, wallSeconds * 1e3);
+        printStats(engine.getStats());
+    }
+
+    private static void printStats(PerfStats stats) {
+        StringBuilder histogram = new StringBuilder();
+        for (int b = 0; b < PerfStats.BUCKETS; b++) {
+            double limit = PerfStats.bucketLimit(b);
+            histogram.append(Double.isInfinite(limit) ? " >100%: " : String.format(" <%.4g%%: ", limit * 100))
+                    .append(stats.get(PerfStats.HISTOGRAM + b));
+        }
+        System.out.printf("load: %.2f%% average, %.2f%% peak of the block deadline;%s%n",
+                stats.averageLoad() * 100, stats.peakLoad() * 100, histogram);
+        System.out.printf("voices: %d peak; spawned %d, stolen %d, dropped %d, buffer misses %d%n",
+                stats.get(PerfStats.PEAK_VOICES), stats.get(PerfStats.SPAWNED), stats.get(PerfStats.STOLEN),
+                stats.get(PerfStats.DROPPED), stats.get(PerfStats.MISSES));
+    }
+
+    private static BlockProcessor create(String name, SampleSource source, int channels) {
+        switch (name) {
+            case "scanner":
+                return new ScannerEngine(source);
+            case "grains":
+                return new GrainEngine(source, channels);
+            case "trigger":
+                return new TriggerEngine(source, channels);
+            case "sampler":
+                return new SamplerEngine(source);
+            case "sine":
+                return new SineEngine();
+            case "additive":
+                return new AdditiveEngine();
+            case "filter":
+                return new FilterEngine();
+            default:
+                throw new IllegalArgumentException("unknown engine " + name);
+        }
+    }
+
+    private static void apply(ParameterSink parameters, Control control) {
+        if (control.name == null) {
+            parameters.parameter(control.inlet, control.value);
+        } else if (!parameters.message(control.name, control.args)) {
+            throw new IllegalArgumentException("message not understood: " + control.name + " " + String.join(" ", control.args));
+        }
+    }
+
+    // Signal inputs driven by --lfo, from the current frame on
+    private static void fillInputs(List<Lfo> lfos, float[][] inputs, long frame, float sampleRate) {
+        for (Lfo lfo : lfos) {
+            float[] in = inputs[lfo.input];
+            for (int i = 0; i < in.length; i++) {
+                double phase = 2.0 * Math.PI * lfo.hz * (frame + i) / sampleRate;
+                in[i] = lfo.low + (lfo.high - lfo.low) * (float) (0.5 - 0.5 * Math.cos(phase));
+            }
+        }
+    }
+
+    // Input file on a signal input, silence after its end
+    private static void fillFeed(float[] samples, float[] in, long frame) {
+        for (int i = 0; i < in.length; i++) {
+            long n = frame + i;
+            in[i] = n < samples.length ? samples[(int) n] : 0.0f;
+        }
+    }
+
+    private static void waitUntil(long nanos) {
+        long left;
+        while ((left = nanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("missing value after " + args[i - 1]);
+        return args[i];
+    }
+}
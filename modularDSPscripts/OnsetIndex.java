@@ -0,0 +1,216 @@
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+// Start points of a sample snapshot where a grain or voice can begin without a click: the zero crossings of
+// the channel sum, and the onsets found by spectral flux, each moved back to the zero crossing before it.
+// Built in one pass over the snapshot by the AnalysisService, queried with binary searches when a grain spawns.
+public final class OnsetIndex {
+    public static final int OFF = 0;
+    public static final int ZERO = 1;
+    public static final int ONSET = 2;
+    private static final String[] MODE_NAMES = {"off", "zero", "onset"};
+
+    private static final int FFT_SIZE = 1024;
+    private static final int HOP = 512;
+    private static final int BANDS_PER_OCTAVE = 3;  // Flux is taken over log-spaced bands, not every bin
+    private static final int CHUNK = 64;           // Energy resolution when placing an onset inside its hops
+    private static final int PEAK_RADIUS = 3;     // Flux frames on each side a peak has to beat
+    private static final int MEAN_RADIUS = 8;     // Flux frames averaged for the adaptive threshold
+    private static final float SENSITIVITY = 1.5f; // Peak has to exceed the local mean by this factor...
+    private static final float FLOOR = 1.0f;       // ...and this fraction of the mean flux of the whole snapshot
+    private static final float NOISE = 1e-4f;      // Crossings closer to silence than this are not told apart
+
+    private final int[] zeros;  // Frames of the zero crossings, ascending
+    private final int[] onsets; // Frames of the onsets, ascending
+
+    private OnsetIndex(int[] zeros, int[] onsets) {
+        this.zeros = zeros;
+        this.onsets = onsets;
+    }
+
+    // Snap mode by name: off, zero or onset; -1 if unknown
+    public static int parse(String name) {
+        for (int i = 0; i < MODE_NAMES.length; i++) {
+            if (MODE_NAMES[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    public int zeroCount() {
+        return zeros.length;
+    }
+
+    public int onsetCount() {
+        return onsets.length;
+    }
+
+    public int onset(int i) {
+        return onsets[i];
+    }
+
+    // Zero crossing nearest to a frame, the frame itself if there is none
+    public long nearestZero(long frame) {
+        int i = nearest(zeros, frame);
+        return i < 0 ? frame : zeros[i];
+    }
+
+    // Onset nearest to a frame within low..high, else the nearest zero crossing within it, else the frame
+    public long snap(long frame, long low, long high, int mode) {
+        if (mode == ONSET) {
+            int i = nearestWithin(onsets, frame, low, high);
+            if (i >= 0) return onsets[i];
+        }
+        if (mode != OFF) {
+            int i = nearestWithin(zeros, frame, low, high);
+            if (i >= 0) return zeros[i];
+        }
+        return frame;
+    }
+
+    // Index of the value nearest to a key, -1 for an empty array
+    private static int nearest(int[] sorted, long key) {
+        if (sorted.length == 0) return -1;
+        int i = Arrays.binarySearch(sorted, (int) Math.max(Integer.MIN_VALUE, Math.min(key, Integer.MAX_VALUE)));
+        if (i >= 0) return i;
+        int above = -i - 1;
+        if (above == 0) return 0;
+        if (above == sorted.length) return above - 1;
+        return key - sorted[above - 1] <= sorted[above] - key ? above - 1 : above;
+    }
+
+    // Index of the value nearest to a key among those within low..high, -1 if there is none
+    private static int nearestWithin(int[] sorted, long key, long low, long high) {
+        int i = nearest(sorted, Math.max(low, Math.min(key, high)));
+        if (i < 0) return -1;
+        if (sorted[i] >= low && sorted[i] <= high) return i;
+        // The nearest lies outside, so the neighbour on the side of the range is the only candidate
+        int j = sorted[i] < low ? i + 1 : i - 1;
+        return j >= 0 && j < sorted.length && sorted[j] >= low && sorted[j] <= high ? j : -1;
+    }
+
+    // Index of a snapshot, built on the calling thread
+    public static OnsetIndex build(float[][] data) {
+        return build(data, () -> false);
+    }
+
+    // The same, giving up with null once cancelled
+    public static OnsetIndex build(float[][] data, BooleanSupplier cancelled) {
+        int frames = SampleSource.frames(data);
+        float[] mono = new float[frames];
+        for (float[] channel : data) {
+            for (int i = 0; i < frames; i++) mono[i] += channel[i];
+        }
+        int[] zeros = zeroCrossings(mono);
+        int[] onsets = onsets(mono, zeros, cancelled);
+        return onsets == null ? null : new OnsetIndex(zeros, onsets);
+    }
+
+    // Frames where the sum changes sign, each the sample of the pair nearer to zero
+    private static int[] zeroCrossings(float[] mono) {
+        int[] found = new int[Math.max(16, mono.length / 64)];
+        int count = 0;
+        boolean positive = mono.length > 0 && mono[0] >= 0;
+        for (int i = 1; i < mono.length; i++) {
+            float x = mono[i];
+            if (Math.abs(x) < NOISE || (x >= 0) == positive) continue;
+            positive = x >= 0;
+            if (count == found.length) found = Arrays.copyOf(found, count * 2);
+            found[count++] = Math.abs(mono[i - 1]) < Math.abs(x) ? i - 1 : i;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    // Peaks of the spectral flux over frames centred on each hop, placed at the largest rise in short-term
+    // energy around the peak and moved back to the zero crossing before it
+    private static int[] onsets(float[] mono, int[] zeros, BooleanSupplier cancelled) {
+        int hops = mono.length / HOP + 1;
+        RealFFT fft = new RealFFT(FFT_SIZE);
+        int bins = fft.getBins();
+        float[] window = new float[FFT_SIZE];
+        for (int n = 0; n < FFT_SIZE; n++) window[n] = (float) (0.5 - 0.5 * Math.cos(2.0 * Math.PI * n / FFT_SIZE));
+        int[] edges = bandEdges(bins);
+        int bands = edges.length - 1;
+        float[] frame = new float[FFT_SIZE];
+        float[] re = new float[bins];
+        float[] im = new float[bins];
+        float[] previous = new float[bands];
+        float[] flux = new float[hops];
+        double total = 0;
+        for (int t = 0; t < hops; t++) {
+            if ((t & 1023) == 0 && cancelled.getAsBoolean()) return null; // Checked every 12 s of audio at 44.1 kHz
+            int first = t * HOP - FFT_SIZE / 2;
+            for (int n = 0; n < FFT_SIZE; n++) {
+                int i = first + n;
+                frame[n] = i >= 0 && i < mono.length ? mono[i] * window[n] : 0.0f;
+            }
+            fft.forward(frame, re, im);
+            float sum = 0;
+            for (int b = 0; b < bands; b++) {
+                float power = 0;
+                for (int k = edges[b]; k < edges[b + 1]; k++) power += re[k] * re[k] + im[k] * im[k];
+                float level = (float) Math.log1p(10.0 * Math.sqrt(power)); // Log compressed band magnitude
+                if (level > previous[b]) sum += level - previous[b];
+                previous[b] = level;
+            }
+            flux[t] = sum;
+            total += sum;
+        }
+        float floor = (float) (FLOOR * total / Math.max(1, hops));
+
+        int[] found = new int[16];
+        int count = 0;
+        for (int t = 1; t < hops; t++) {
+            float f = flux[t];
+            if (f <= floor) continue;
+            boolean peak = true;
+            for (int d = -PEAK_RADIUS; d <= PEAK_RADIUS && peak; d++) {
+                int u = t + d;
+                if (d != 0 && u >= 0 && u < hops && (flux[u] > f || (flux[u] == f && d < 0))) peak = false;
+            }
+            if (!peak) continue;
+            double mean = 0;
+            int low = Math.max(0, t - MEAN_RADIUS);
+            int high = Math.min(hops - 1, t + MEAN_RADIUS);
+            for (int u = low; u <= high; u++) mean += flux[u];
+            if (f <= SENSITIVITY * mean / (high - low + 1)) continue;
+
+            int at = steepestRise(mono, t * HOP - HOP, t * HOP + HOP);
+            int z = Arrays.binarySearch(zeros, at);
+            if (z < 0) z = -z - 2;
+            if (z >= 0 && at - zeros[z] <= HOP) at = zeros[z];
+            if (count > 0 && found[count - 1] >= at) continue;
+            if (count == found.length) found = Arrays.copyOf(found, count * 2);
+            found[count++] = at;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    // First bin of each band, DC left out: single bins at the bottom, a third of an octave wide above
+    private static int[] bandEdges(int bins) {
+        int[] edges = new int[bins];
+        int count = 0;
+        edges[count++] = 1;
+        for (int b = 1; edges[count - 1] < bins; b++) {
+            int edge = Math.min(bins, (int) Math.round(Math.pow(2.0, (double) b / BANDS_PER_OCTAVE)));
+            if (edge > edges[count - 1]) edges[count++] = edge;
+        }
+        return Arrays.copyOf(edges, count);
+    }
+
+    // Start of the chunk within from..to whose energy rose most over the chunk before it
+    private static int steepestRise(float[] mono, int from, int to) {
+        int best = Math.max(0, from);
+        float bestRise = -1;
+        float before = 0;
+        for (int c = from - CHUNK; c < to; c += CHUNK) {
+            float energy = 0;
+            for (int i = Math.max(0, c); i < Math.min(mono.length, c + CHUNK); i++) energy += mono[i] * mono[i];
+            if (c >= from && energy - before > bestRise) {
+                bestRise = energy - before;
+                best = Math.max(0, Math.min(c, mono.length - 1));
+            }
+            before = energy;
+        }
+        return best;
+    }
+}
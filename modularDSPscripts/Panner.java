@@ -0,0 +1,45 @@
+// Equal-power placement of a grain or voice on N outputs, worked out once when it starts.
+// Two outputs form a line from left to right; three or more form a ring of equally spaced speakers, where a
+// position between two neighbours is shared by that pair only (pairwise panning, what VBAP does in 2D).
+// While panning, a grain plays the mono sum of its source channels, so a position moves the whole grain and
+// no channel is lost to the speaker it lands on. With spread 0 panning is off: output o plays source channel o
+// (wrapping around the source's channels) at full level, which keeps the stereo objects as they always sounded.
+public final class Panner {
+    private static final float HALF_PI = (float) (Math.PI / 2.0);
+
+    private volatile float spread = 0.0f;  // Width of the random position range, 0..1 of the line or ring
+    private volatile float centre = 0.5f;  // Middle of that range: 0..1 from left to right, or once around the ring
+
+    public void set(float spread, float centre) {
+        this.spread = Math.max(0.0f, Math.min(spread, 1.0f));
+        this.centre = Math.max(0.0f, Math.min(centre, 1.0f));
+    }
+
+    // Whether grains are placed on these outputs, and so play the mono sum of their channels
+    public boolean isPanning(int outputs) {
+        return spread > 0 && outputs > 1;
+    }
+
+    // Gains of a new grain into gains[offset .. offset + outputs); draws from the generator only while panning
+    public void place(Xoshiro random, float[] gains, int offset, int outputs) {
+        float width = spread;
+        if (width <= 0 || outputs == 1) {
+            for (int o = 0; o < outputs; o++) gains[offset + o] = 1.0f;
+            return;
+        }
+        float position = centre + (random.nextFloat() - 0.5f) * width;
+        if (outputs == 2) {
+            float p = Math.max(0.0f, Math.min(position, 1.0f));
+            gains[offset] = (float) Math.cos(p * HALF_PI);
+            gains[offset + 1] = (float) Math.sin(p * HALF_PI);
+            return;
+        }
+        float ring = position * outputs;
+        ring -= (float) Math.floor(ring / outputs) * outputs; // Wrap into 0..outputs
+        int speaker = Math.min((int) ring, outputs - 1);
+        float frac = ring - speaker;
+        for (int o = 0; o < outputs; o++) gains[offset + o] = 0.0f;
+        gains[offset + speaker] = (float) Math.cos(frac * HALF_PI);
+        gains[offset + (speaker + 1) % outputs] = (float) Math.sin(frac * HALF_PI);
+    }
+}
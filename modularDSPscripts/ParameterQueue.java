@@ -0,0 +1,163 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Allocation-free queue of timestamped parameter changes from the control threads to the audio thread.
+// Times are on the engine's sample clock (frames rendered since it started). A change pushed while block k renders
+// is stamped one block ahead at the same position, so it lands at the matching sample of block k+1: one block of
+// latency, no jitter. The audio thread pops each change at its exact sample offset and never waits.
+// Max can deliver messages from both its main and scheduler threads, so pushes are serialized by the queue's lock;
+// the consumer side is a plain single-consumer ring and lock-free, the audio thread never takes that lock.
+public final class ParameterQueue {
+    private static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+    public static final int COALESCED_IDS = 16; // Ids below this keep their latest value if the queue overflows
+
+    private final int[] ids = new int[CAPACITY];
+    private final float[] values = new float[CAPACITY];
+    private final float[] extras = new float[CAPACITY];
+    private final long[] times = new long[CAPACITY];
+    private volatile long written = 0;
+    private volatile long read = 0;
+    private long lastTime = 0; // Producer side, keeps the stamps in order
+
+    // Latest value per id when the queue was full (e.g. DSP switched off while a dial moves): sequence << 32 | float bits.
+    // Every push of a coalesced id takes a new sequence; its low bit is set when the value went into the ring, so the
+    // overflow slot is superseded and an older overflow value is never replayed over it.
+    private final AtomicLongArray latest = new AtomicLongArray(COALESCED_IDS);
+    private final int[] latestSequence = new int[COALESCED_IDS];
+    private final int[] appliedSequence = new int[COALESCED_IDS];
+    private volatile boolean overflow = false;
+    private int scan = -1;
+
+    // Sample clock, published by the audio thread at the start of each block; clockNanos is 0 until the first block
+    private volatile long clockFrame = 0;
+    private volatile long clockNanos = 0;
+    private volatile int clockBlock = 64;
+    private volatile double framesPerNano = 44100e-9;
+
+    // Consumer state of the current block and the change popped last
+    private long blockStart = 0;
+    private int blockFrames = 0;
+    private int currentId;
+    private float currentValue;
+    private float currentExtra;
+
+    // Queue a change for the matching sample of the next block; false if the queue is full
+    public boolean push(int id, float value) {
+        return push(id, value, 0);
+    }
+
+    public synchronized boolean push(int id, float value, float extra) {
+        return pushAt(id, value, extra, now());
+    }
+
+    // Queue a change at an explicit frame of the sample clock, e.g. from an offline renderer
+    public synchronized boolean pushAt(int id, float value, float extra, long frame) {
+        long w = written;
+        if (w - read >= CAPACITY) {
+            if (id < COALESCED_IDS) {
+                latest.set(id, ((long) nextSequence(id, false) << 32) | (Float.floatToRawIntBits(value) & 0xFFFFFFFFL));
+                overflow = true;
+            }
+            return false;
+        }
+        lastTime = Math.max(frame, lastTime);
+        int slot = (int) (w & MASK);
+        ids[slot] = id;
+        values[slot] = value;
+        extras[slot] = extra;
+        times[slot] = lastTime;
+        // A queued value beats any kept one; marked before the slot is published, so no drain can replay the old one
+        if (id < COALESCED_IDS) latest.set(id, (long) nextSequence(id, true) << 32);
+        written = w + 1; // Publishes the slot
+        return true;
+    }
+
+    // Producer side: a new sequence for an id, odd if the value went into the ring, even if it only overflowed
+    private int nextSequence(int id, boolean queued) {
+        int next = (latestSequence[id] | 1) + 1;
+        latestSequence[id] = queued ? next | 1 : next;
+        return latestSequence[id];
+    }
+
+    // Whether a push would fail now, e.g. while DSP is off and nothing drains the queue
+    public boolean isFull() {
+        return written - read >= CAPACITY;
+    }
+
+    // Position on the sample clock where a change arriving now belongs
+    private long now() {
+        long nanos = clockNanos;
+        long frame = clockFrame;
+        if (nanos == 0) return frame; // Not rendering yet, apply at the first sample
+        int block = clockBlock;
+        long elapsed = (long) ((System.nanoTime() - nanos) * framesPerNano);
+        return frame + block + Math.max(0, Math.min(elapsed, block - 1));
+    }
+
+    // Audio thread: start a block at the given frame of the sample clock
+    public void beginBlock(long frame, int frames, float sampleRate) {
+        blockStart = frame;
+        blockFrames = frames;
+        framesPerNano = sampleRate * 1e-9;
+        clockBlock = frames;
+        clockFrame = frame;
+        clockNanos = System.nanoTime();
+    }
+
+    // Offset of the next queued change within the current block, or the block length if none is due in it
+    public int nextOffset() {
+        long r = read;
+        if (r == written) return blockFrames;
+        long offset = times[(int) (r & MASK)] - blockStart;
+        return (int) Math.max(0, Math.min(offset, blockFrames));
+    }
+
+    // Pop the next change if it is due at or before this offset of the current block
+    public boolean poll(int offset) {
+        long r = read;
+        if (r == written) return false;
+        int slot = (int) (r & MASK);
+        if (times[slot] > blockStart + offset) return false;
+        currentId = ids[slot];
+        currentValue = values[slot];
+        currentExtra = extras[slot];
+        read = r + 1; // Frees the slot
+        return true;
+    }
+
+    // After the queue drained: pop the values that only made it into the overflow slots
+    public boolean pollLatest() {
+        if (scan < 0) {
+            if (!overflow || read != written) return false;
+            overflow = false;
+            scan = 0;
+        }
+        while (scan < COALESCED_IDS) {
+            int id = scan++;
+            long packed = latest.get(id);
+            int sequence = (int) (packed >>> 32);
+            if (sequence != appliedSequence[id]) {
+                appliedSequence[id] = sequence;
+                if ((sequence & 1) != 0) continue; // Superseded by a value that went through the ring
+                currentId = id;
+                currentValue = Float.intBitsToFloat((int) packed);
+                currentExtra = 0;
+                return true;
+            }
+        }
+        scan = -1;
+        return false;
+    }
+
+    public int id() {
+        return currentId;
+    }
+
+    public float value() {
+        return currentValue;
+    }
+
+    public float extra() {
+        return currentExtra;
+    }
+}
@@ -0,0 +1,8 @@
+// Control side of an engine: the numbers and messages an mxj~ object receives on its inlets.
+public interface ParameterSink {
+    // A number arriving on an inlet
+    void parameter(int inlet, float value);
+
+    // A named message such as "interp sinc"; false if the engine does not understand it
+    boolean message(String name, String[] args);
+}
@@ -0,0 +1,102 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Real-time-safe performance counters of one engine instance.
+// Only the audio thread writes (single writer, ordered stores, no locks); any thread may read at any time.
+// Nothing allocates after construction, so it can stay on in every instance.
+public final class PerfStats {
+    public static final int BLOCKS = 0;         // Blocks processed
+    public static final int BUSY_NANOS = 1;     // Time spent processing them
+    public static final int DEADLINE_NANOS = 2; // Real time those blocks cover
+    public static final int MAX_NANOS = 3;      // Longest block
+    public static final int MAX_DEADLINE = 4;   // Deadline of the longest block
+    public static final int SPAWNED = 5;        // Voices or grains started
+    public static final int STOLEN = 6;         // Voices cut short to make room
+    public static final int DROPPED = 7;        // Events skipped because no voice was free
+    public static final int MISSES = 8;         // Blocks rendered as silence because the buffer was empty or missing
+    public static final int VOICES = 9;         // Voices or grains sounding after the last block
+    public static final int PEAK_VOICES = 10;
+    public static final int HISTOGRAM = 11;     // First duration bucket
+
+    // Upper bounds of the duration buckets as a fraction of the block deadline; the last bucket counts the overruns
+    private static final double[] BUCKET_LIMITS = {0.0625, 0.125, 0.25, 0.5, 0.75, 1.0};
+    public static final int BUCKETS = BUCKET_LIMITS.length + 1;
+    public static final int SIZE = HISTOGRAM + BUCKETS;
+
+    private final AtomicLongArray values = new AtomicLongArray(SIZE);
+    private volatile boolean resetRequested = false;
+
+    // Start timing a block; returns the start time for end()
+    public long begin() {
+        if (resetRequested) {
+            resetRequested = false;
+            for (int i = 0; i < SIZE; i++) values.lazySet(i, 0);
+        }
+        return System.nanoTime();
+    }
+
+    // Finish timing a block of the given length
+    public void end(long start, int frames, float sampleRate) {
+        long nanos = System.nanoTime() - start;
+        long deadline = (long) (frames * 1e9 / sampleRate);
+        add(BLOCKS, 1);
+        add(BUSY_NANOS, nanos);
+        add(DEADLINE_NANOS, deadline);
+        if (nanos > values.get(MAX_NANOS)) {
+            values.lazySet(MAX_NANOS, nanos);
+            values.lazySet(MAX_DEADLINE, deadline);
+        }
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS.length && nanos > BUCKET_LIMITS[bucket] * deadline) bucket++;
+        add(HISTOGRAM + bucket, 1);
+    }
+
+    public void voices(int active) {
+        values.lazySet(VOICES, active);
+        if (active > values.get(PEAK_VOICES)) values.lazySet(PEAK_VOICES, active);
+    }
+
+    public void spawned() {
+        add(SPAWNED, 1);
+    }
+
+    public void stolen() {
+        add(STOLEN, 1);
+    }
+
+    public void dropped() {
+        add(DROPPED, 1);
+    }
+
+    public void miss() {
+        add(MISSES, 1);
+    }
+
+    private void add(int field, long amount) {
+        values.lazySet(field, values.get(field) + amount); // Single writer, a plain increment is enough
+    }
+
+    public long get(int field) {
+        return values.get(field);
+    }
+
+    // Average and worst block duration as a fraction of the block deadline
+    public double averageLoad() {
+        long deadline = values.get(DEADLINE_NANOS);
+        return deadline > 0 ? values.get(BUSY_NANOS) / (double) deadline : 0;
+    }
+
+    public double peakLoad() {
+        long deadline = values.get(MAX_DEADLINE);
+        return deadline > 0 ? values.get(MAX_NANOS) / (double) deadline : 0;
+    }
+
+    // Upper bound of a histogram bucket as a fraction of the deadline, infinite for the overrun bucket
+    public static double bucketLimit(int bucket) {
+        return bucket < BUCKET_LIMITS.length ? BUCKET_LIMITS[bucket] : Double.POSITIVE_INFINITY;
+    }
+
+    // Clear the counters; done by the audio thread at the start of its next block
+    public void reset() {
+        resetRequested = true;
+    }
+}
@@ -2,27 +2,38 @@ import com.cycling74.max.*;
 import com.cycling74.msp.*;
 import java.lang.reflect.Method;
 
+// Max adapter for SamplerEngine reading the "polyphonicPlaybackBuf" buffer~.
 public class PolyphonicPlayback extends MSPObject {
     private String bufferName = "polyphonicPlaybackBuf"; // The name of the buffer
-    private long sampStart = 0;           // Start sample index
-    private long sampEnd = 1;             // End sample index
-    private long pendingStart = 0;        // Pending start sample index
-    private long pendingEnd = 1;          // Pending end sample index
-    private float phasorRate = 1.0f;      // Cycles per second
-    private float sampleRate = 44100.0f;  // Default sample rate
-    private boolean rangeChanged = false; // Flag for pending range update
-    private Voice[] voices = new Voice[6]; // Array to hold 6 voices
+    private final SampleCache cache = SampleCache.acquire(bufferName); // Shared snapshot of the buffer
+    private final SamplerEngine engine = new SamplerEngine(cache);
+    private final StatsReporter statsReporter = new StatsReporter(this, engine.getStats());
+    private final float[][] inputs = new float[0][];
+    private final float[][] outputs = new float[1][];
+    private static final double RECOVER_MS = 50.0; // Retry interval while the note queue is full
+    private MaxClock recoverClock;
+    private volatile boolean recovering = false; // Retry clock running
 
     public PolyphonicPlayback() {
         declareInlets(new int[]{SIGNAL, DataTypes.ALL, DataTypes.ALL, DataTypes.ALL}); // Inlets for signal, MIDI data, sampStart, sampEnd
         declareOutlets(new int[]{SIGNAL});                                          // Output audio signal
-        for (int i = 0; i < voices.length; i++) {
-            voices[i] = new Voice(); // Initialize all voices
-        }
+
+        // Releases the held notes whose note-offs did not fit once the audio thread drains the queue again
+        recoverClock = new MaxClock(new Executable() {
+            public void execute() {
+                if (!engine.recover()) {
+                    recoverClock.delay(RECOVER_MS);
+                    return;
+                }
+                recovering = false;
+                post("PolyphonicPlayback: note queue drained, " + engine.takeDropped() + " note events were dropped");
+            }
+        });
     }
 
     @Override
     public Method dsp(MSPSignal[] ins, MSPSignal[] outs) {
+        if (outs[0].sr > 0) engine.setSampleRate((float) outs[0].sr);
         try {
             return getClass().getDeclaredMethod("perform", MSPSignal[].class, MSPSignal[].class);
         } catch (NoSuchMethodException e) {
@@ -32,102 +43,75 @@ public class PolyphonicPlayback extends MSPObject {
     }
 
     public void perform(MSPSignal[] ins, MSPSignal[] outs) {
-        float[] outputSignal = outs[0].vec; // Output signal buffer
+        outputs[0] = outs[0].vec;
+        engine.process(inputs, outputs);
+    }
 
-        long bufferFrames = MSPBuffer.getFrames(bufferName);
-        if (bufferFrames <= 0) {
-            for (int i = 0; i < outputSignal.length; i++) outputSignal[i] = 0;
+    // MIDI data: [note, velocity], velocity 0 is a note-off
+    public void list(Atom[] args) {
+        if (getInlet() != 1) return;
+        if (args.length != 2) {
+            post("Error: Expected a list of 2 elements (note and velocity). Received: " + args.length);
             return;
         }
-
-        // Process each voice
-        for (Voice voice : voices) {
-            if (voice.isActive()) {
-                voice.process(outputSignal, bufferFrames, sampStart, sampEnd, phasorRate, sampleRate);
-            }
+        //post("Received MIDI note: " + args[0].getFloat() + ", velocity: " + args[1].getFloat());
+        if (!engine.noteEvent(args[0].getFloat(), args[1].getFloat()) && !recovering) {
+            recovering = true;
+            error("PolyphonicPlayback: note queue full (DSP off?), dropping notes until it drains");
+            recoverClock.delay(RECOVER_MS);
         }
     }
 
-    public void inlet(Object value) {
-        int inletIdx = getInlet(); // Get the index of the inlet that received the value
-
-        // Check for MIDI data (note and velocity)
-        if (inletIdx == 1 && value instanceof Object[]) {
-            Object[] midiData = (Object[]) value; // Cast the value to an Object array
-            if (midiData.length == 2) { // Expected format: [note, velocity]
-                float midiNote = ((Number) midiData[0]).floatValue();
-                float velocity = ((Number) midiData[1]).floatValue();
-                post("Received MIDI note: " + midiNote + ", velocity: " + velocity);
-
-                // Assign the note and velocity to an available voice
-                assignVoice(midiNote, velocity);
-            } else {
-                post("Error: Expected a list of 2 elements (note and velocity). Received: " + midiData.length);
-            }
-        }
-        // Check for sample start and end updates
-        else if (inletIdx == 2) {
-            pendingStart = Math.round(Math.max(0, Math.min(((Number) value).floatValue(), MSPBuffer.getFrames(bufferName) - 1)));
-            rangeChanged = true;
-        } else if (inletIdx == 3) {
-            pendingEnd = Math.round(Math.max(0, Math.min(((Number) value).floatValue(), MSPBuffer.getFrames(bufferName))));
-            rangeChanged = true;
-        }
+    // Check for sample start and end updates
+    public void inlet(float value) {
+        engine.parameter(getInlet(), value);
+    }
 
-        // Apply pending range change
-        if (rangeChanged) {
-            sampStart = Math.max(0, Math.min(pendingStart, MSPBuffer.getFrames(bufferName) - 1));
-            sampEnd = Math.max(sampStart + 1, Math.min(pendingEnd, MSPBuffer.getFrames(bufferName)));
-            rangeChanged = false;
-            post("Range updated: sampStart = " + sampStart + ", sampEnd = " + sampEnd);
-        }
+    // Set the number of voices
+    public void poly(int count) {
+        engine.setPoly(count);
     }
 
-    // Assign a voice to a MIDI note
-    private void assignVoice(float midiNote, float velocity) {
-        for (Voice voice : voices) {
-            if (!voice.isActive()) {
-                voice.activate(midiNote, velocity);
-                break;
-            }
-        }
+    // Set the MIDI note that plays the buffer at its original speed
+    public void root(float note) {
+        engine.setRoot(note);
     }
 
-    // Voice class to represent each polyphonic voice
-    private class Voice {
-        private boolean active = false;
-        private float midiNote;
-        private float velocity;
-        private float frequency;
-
-        public void activate(float midiNote, float velocity) {
-            this.active = true;
-            this.midiNote = midiNote;
-            this.velocity = velocity;
-            this.frequency = midiToFreq(midiNote); // Convert MIDI note to frequency
-            post("Voice activated: MidiNote = " + midiNote + ", Frequency = " + frequency + ", Velocity = " + velocity);
-        }
+    // Set the stealing policy: oldest or last
+    public void steal(String policy) {
+        if (!engine.setStealPolicy(policy)) error("PolyphonicPlayback: unknown steal policy " + policy);
+    }
 
-        public void deactivate() {
-            this.active = false;
-            post("Voice deactivated");
-        }
+    // Set the interpolation quality: nearest, linear, hermite or sinc
+    public void interp(String mode) {
+        if (!engine.setInterpolation(mode)) error("PolyphonicPlayback: unknown interpolation " + mode);
+    }
 
-        public boolean isActive() {
-            return active;
-        }
+    // Reload the buffer snapshot, e.g. after writing into the buffer~ without resizing it
+    public void refresh() {
+        cache.invalidate();
+    }
 
-        public void process(float[] outputSignal, long bufferFrames, long sampStart, long sampEnd, float phasorRate, float sampleRate) {
-            float phaseIncrement = phasorRate / sampleRate;
-            for (int i = 0; i < outputSignal.length; i++) {
-                // Sample processing logic
-                float sample = MSPBuffer.peek(bufferName, 0, Math.round((i / (float) outputSignal.length) * (sampEnd - sampStart)));
-                outputSignal[i] += sample * velocity; // Apply velocity scaling
-            }
-        }
+    // Output the performance counters on the info outlet
+    public void stats() {
+        statsReporter.request();
+    }
+
+    // Output them every ms milliseconds, 0 stops
+    public void statsinterval(float ms) {
+        statsReporter.interval(ms);
+    }
+
+    public void statsreset() {
+        engine.getStats().reset();
+    }
 
-        private float midiToFreq(float midiNote) {
-            return 440.0f * (float) Math.pow(2.0, (midiNote - 69) / 12.0);
+    public void notifyDeleted() {
+        statsReporter.release();
+        if (recoverClock != null) {
+            recoverClock.unset();
+            recoverClock.release();
         }
+        cache.release();
     }
 }
@@ -0,0 +1,40 @@
+// Linear ramp towards a target over a number of samples, used to smooth parameter jumps on the audio thread.
+public final class Ramp {
+    private float value;
+    private float target;
+    private float step = 0;
+    private int remaining = 0;
+
+    public Ramp(float initial) {
+        value = initial;
+        target = initial;
+    }
+
+    // Glide to the target over the given number of samples, or jump if it is 0
+    public void setTarget(float newTarget, int samples) {
+        target = newTarget;
+        if (samples <= 0) {
+            value = newTarget;
+            remaining = 0;
+        } else {
+            step = (newTarget - value) / samples;
+            remaining = samples;
+        }
+    }
+
+    // Advance one sample and return the new value
+    public float next() {
+        if (remaining > 0) {
+            value = --remaining == 0 ? target : value + step;
+        }
+        return value;
+    }
+
+    public float get() {
+        return value;
+    }
+
+    public float getTarget() {
+        return target;
+    }
+}
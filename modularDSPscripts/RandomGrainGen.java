@@ -1,32 +1,37 @@
 import com.cycling74.max.*;
 import com.cycling74.msp.*;
-import java.util.Random;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
+import java.util.Arrays;
 
+// Max adapter for GrainEngine reading the "grainer" buffer~.
+// An argument sets the number of signal outlets, e.g. [mxj~ RandomGrainGen 8] for a ring of eight speakers.
 public class RandomGrainGen extends MSPObject {
     private String bufferName = "grainer";
-    private long sampStart = 0;
-    private long sampEnd = 1;
-    private int rateMs = 100;
-    private float maxSpeed = 1.0f;
-    private float overallSpeed = 1.0f;
-    private float sampleRate = 44100.0f;
-    private float grainVolume = 1.0f; // Volume control for grains
-    private final int minGrainSize = 3500;
-    private final Random random = new Random();
-    private final ArrayList<Grain> activeGrains = new ArrayList<>();
-    private float phase = 0.0f;
+    private final SampleCache cache = SampleCache.acquire(bufferName); // Shared snapshot of the buffer
+    private final GrainEngine engine;
+    private final StatsReporter statsReporter;
+    private final float[][] inputs = new float[6][]; // Parameter signals, null when not connected
+    private final float[][] outputs;
 
     public RandomGrainGen() {
-        // Declare 6 inlets, starting with case 0 (empty)
-        declareInlets(new int[]{DataTypes.ALL, DataTypes.ALL, DataTypes.ALL, DataTypes.ALL, DataTypes.ALL, DataTypes.ALL, DataTypes.ALL});
-        declareOutlets(new int[]{SIGNAL, SIGNAL});
+        this(2);
+    }
+
+    public RandomGrainGen(int channels) {
+        engine = new GrainEngine(cache, Math.max(1, Math.min(channels, 64)));
+        statsReporter = new StatsReporter(this, engine.getStats());
+        outputs = new float[engine.getOutputCount()][];
+        // Declare 7 inlets, starting with case 0 (sampStart); all but the envelope take numbers or signals
+        declareInlets(new int[]{SIGNAL, SIGNAL, SIGNAL, SIGNAL, SIGNAL, SIGNAL, DataTypes.ALL});
+        int[] outlets = new int[outputs.length];
+        Arrays.fill(outlets, SIGNAL);
+        declareOutlets(outlets);
         //post("RandomGrainGen initialized.");
     }
 
     @Override
     public Method dsp(MSPSignal[] ins, MSPSignal[] outs) {
+        if (outs[0].sr > 0) engine.setSampleRate((float) outs[0].sr);
         try {
             return getClass().getDeclaredMethod("perform", MSPSignal[].class, MSPSignal[].class);
         } catch (NoSuchMethodException e) {
@@ -36,149 +41,89 @@ public class RandomGrainGen extends MSPObject {
     }
 
     public void perform(MSPSignal[] ins, MSPSignal[] outs) {
-        float[] outputSignalL = outs[0].vec;
-        float[] outputSignalR = outs[1].vec;
-        long bufferFrames = MSPBuffer.getFrames(bufferName);
-        if (bufferFrames <= 0) {
-            //post("Error: Buffer is empty or not found.");
-            for (int i = 0; i < outputSignalL.length; i++) {
-                outputSignalL[i] = 0;
-                outputSignalR[i] = 0;
-            }
-            return;
+        for (int k = 0; k < inputs.length; k++) {
+            inputs[k] = ins[k].cc > 0 ? ins[k].vec : null; // Unconnected inlets keep the number path
         }
-
-        if (sampEnd - sampStart < minGrainSize) {
-            sampEnd = (sampStart + minGrainSize) - Math.max(0, sampStart + minGrainSize - bufferFrames);
-            //post("Adjusted sampEnd to ensure min grain size: " + sampEnd);
+        for (int o = 0; o < outputs.length; o++) {
+            outputs[o] = outs[o].vec;
         }
+        engine.process(inputs, outputs);
+    }
 
-        float rateSamples = (rateMs / 1000.0f) * sampleRate;
-        for (int i = 0; i < outputSignalL.length; i++) {
-            phase += 1.0f / rateSamples;
-            if (phase >= 1.0f) {
-                phase -= 1.0f;
-                spawnNewGrain(bufferFrames);
-            }
-
-            outputSignalL[i] = 0;
-            outputSignalR[i] = 0;
-            for (int j = activeGrains.size() - 1; j >= 0; j--) {
-                Grain grain = activeGrains.get(j);
-                if (grain.isFinished()) {
-                    activeGrains.remove(j);
-                } else {
-                    float[] sample = grain.getNextSample();
-                    float sampleL = sample[0];
-                    float sampleR = sample[1];
-
-                    // Apply the fade factor to each grain
-                    float fadeFactor = grain.getFadeFactor();
-                    sampleL *= fadeFactor * grain.getVolumeFactor(); // Apply fade and volume to left channel
-                    sampleR *= fadeFactor * grain.getVolumeFactor(); // Apply fade and volume to right channel
-
-                    outputSignalL[i] += sampleL;
-                    outputSignalR[i] += sampleR;
-                }
-            }
-        }
+    public void inlet(float value) {
+        // Debug log to check the inlet index and the received value
+        //post("Inlet " + getInlet() + " received value: " + value);
+        engine.parameter(getInlet(), value);
     }
 
-    private void spawnNewGrain(long bufferFrames) {
-        if (sampEnd - sampStart < minGrainSize) return;
-        long grainStart = sampStart + random.nextInt((int) Math.max(1, sampEnd - sampStart - minGrainSize));
-        long grainSize = minGrainSize + random.nextInt((int) Math.max(1, sampEnd - sampStart - minGrainSize));
-        if (grainSize + grainStart > bufferFrames) grainSize -= (grainSize + grainStart - bufferFrames);
-        activeGrains.add(new Grain(grainStart, grainSize, bufferFrames, grainVolume, random.nextFloat() * maxSpeed));
-    }
-
-    private class Grain {
-        private long start;
-        private long grainlength;
-        private float currentPos;
-        private long end;
-        private float volumeFactor;  // Store the volume factor for each grain
-        private float fadeInThreshold;
-        private float fadeOutThreshold;
-        private float speed;
-
-        public Grain(long start, long length, long bufferFrames, float grainVolume, float speed) {
-            this.start = start;
-            this.grainlength = length;
-            this.currentPos = start;
-            this.end = Math.min(start + length, bufferFrames - 1);
-            this.speed = Math.max(1.0f, speed);
-
-            // Generate the random volume factor for this grain
-            this.volumeFactor = grainVolume + random.nextFloat() * (1.0f - grainVolume);
-
-            // Set the fade-in and fade-out thresholds
-            this.fadeInThreshold = start + 0.2f * grainlength;  // 10% fade-in
-            this.fadeOutThreshold = start + 0.8f * grainlength; // 10% fade-out
-        }
+    // Set the maximum number of simultaneous grains
+    public void maxgrains(int count) {
+        engine.setMaxGrains(count);
+    }
 
-        public boolean isFinished() {
-            return currentPos >= end;
+    // Envelope inlet: a shape name (trapezoid, hann, tukey, gaussian, exponential), optionally followed by the fade ratio
+    public void anything(String message, Atom[] args) {
+        if (getInlet() != 6 || !engine.setEnvelope(message, args.length > 0 ? args[0].getFloat() : -1)) {
+            error("RandomGrainGen: unknown envelope " + message);
         }
+    }
 
-        public float[] getNextSample() {
-            if (isFinished()) return new float[]{0, 0};
-            long sampleIndex = Math.round(currentPos);
-            float sampleL = MSPBuffer.peek(bufferName, 1, sampleIndex); // Left channel
-            float sampleR = MSPBuffer.peek(bufferName, 2, sampleIndex); // Right channel
-            currentPos += overallSpeed;
-            currentPos += speed;
-            return new float[]{sampleL, sampleR};
-        }
+    // Reseed the random generator: the same seed and input give the same output
+    public void seed(int seed) {
+        engine.setSeed(seed);
+    }
 
-        // Return the volume factor for this grain
-        public float getVolumeFactor() {
-            return volumeFactor;
+    // Density mode: periodic, poisson, jitter [amount] or burst [spacing] [count]
+    public void density(Atom[] args) {
+        if (args.length == 0 || !engine.setDensity(args[0].getString(), args.length > 1 ? args[1].getFloat() : -1,
+                args.length > 2 ? args[2].getInt() : -1)) {
+            error("RandomGrainGen: unknown density mode");
         }
+    }
 
-        // Return the fade factor based on the current position of the grain
-        public float getFadeFactor() {
-            if (currentPos < fadeInThreshold) {
-                // Fade-in: gradually increase from 0 to 1
-                return (currentPos - start) / (fadeInThreshold - start);
-            } else if (currentPos > fadeOutThreshold) {
-                // Fade-out: gradually decrease from 1 to 0
-                return (end - currentPos) / (end - fadeOutThreshold);
-            } else {
-                // No fade: full volume
-                return 1.0f;
-            }
-        }
+    // Random panning of new grains: spread 0..1 (0 is off), optionally the centre 0..1 of the line or ring
+    public void pan(Atom[] args) {
+        if (args.length == 0) return;
+        engine.setPan(args[0].getFloat(), args.length > 1 ? args[1].getFloat() : 0.5f);
     }
 
-    public void inlet(float value) {
-        int inletIdx = getInlet();
-        long bufferFrames = MSPBuffer.getFrames(bufferName);
-        if (bufferFrames <= 0) return;
+    // Set the interpolation quality: nearest, linear, hermite or sinc
+    public void interp(String mode) {
+        if (!engine.setInterpolation(mode)) error("RandomGrainGen: unknown interpolation " + mode);
+    }
 
-        // Debug log to check the inlet index and the received value
-        //post("Inlet " + inletIdx + " received value: " + value);
-
-        // Handle inlets properly based on their index
-        switch (inletIdx) {
-            case 0:  // Inlet 1: sampStart
-                sampStart = Math.round(Math.max(0, Math.min(value, bufferFrames - 1)));
-                break;
-            case 1:  // Inlet 2: sampEnd
-                sampEnd = Math.round(Math.max(0, Math.min(value, bufferFrames - 1)));
-                break;
-            case 2:  // Inlet 3: rateMs
-                rateMs = Math.max(1, (int) value);
-                break;
-            case 3:  // Inlet 4: speed
-                overallSpeed = Math.max(0.1f, value);
-                break;
-            case 4:  // Inlet 5: volume control for grains
-                grainVolume = Math.max(0.0f, Math.min(value, 1.0f));
-                break;
-            case 5: 
-                maxSpeed = Math.max(0.1f, value);
-                break;
-        }
+    // Snap grain starts: off (anywhere in the range), zero (nearest zero crossing) or onset (nearest onset)
+    public void snap(String mode) {
+        if (!engine.setSnap(mode)) error("RandomGrainGen: unknown snap mode " + mode);
+    }
+
+    // Glide time of speed changes in milliseconds, 0 jumps
+    public void smooth(float ms) {
+        engine.setSmoothing(ms);
+    }
+
+    // Reload the buffer snapshot, e.g. after writing into the buffer~ without resizing it
+    public void refresh() {
+        cache.invalidate();
+    }
+
+    // Output the performance counters on the info outlet
+    public void stats() {
+        statsReporter.request();
+    }
+
+    // Output them every ms milliseconds, 0 stops
+    public void statsinterval(float ms) {
+        statsReporter.interval(ms);
+    }
+
+    public void statsreset() {
+        engine.getStats().reset();
+    }
+
+    public void notifyDeleted() {
+        statsReporter.release();
+        engine.setSnap("off"); // Stop following the buffer's onsets
+        cache.release();
     }
 }
@@ -0,0 +1,131 @@
+// Real-valued FFT of a power-of-two size, computed as a half-size complex FFT plus a split pass.
+// Twiddles and the bit-reversal order are precomputed; forward() and inverse() do not allocate.
+public final class RealFFT {
+    private final int size;    // Real samples per frame
+    private final int half;    // Size of the inner complex FFT
+    private final float[] cos; // Twiddles of the inner FFT
+    private final float[] sin;
+    private final float[] splitCos; // Twiddles of the real/complex split, e^(-2*pi*i*k/size)
+    private final float[] splitSin;
+    private final int[] bitReverse;
+    private final float[] zr; // Scratch for the packed complex signal
+    private final float[] zi;
+
+    public RealFFT(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two >= 4: " + size);
+        }
+        this.size = size;
+        this.half = size / 2;
+        cos = new float[half / 2];
+        sin = new float[half / 2];
+        for (int k = 0; k < half / 2; k++) {
+            cos[k] = (float) Math.cos(2.0 * Math.PI * k / half);
+            sin[k] = (float) Math.sin(2.0 * Math.PI * k / half);
+        }
+        splitCos = new float[half + 1];
+        splitSin = new float[half + 1];
+        for (int k = 0; k <= half; k++) {
+            splitCos[k] = (float) Math.cos(2.0 * Math.PI * k / size);
+            splitSin[k] = (float) Math.sin(2.0 * Math.PI * k / size);
+        }
+        bitReverse = new int[half];
+        int bits = Integer.numberOfTrailingZeros(half);
+        for (int i = 0; i < half; i++) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        zr = new float[half];
+        zi = new float[half];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    // Number of bins produced by forward(): DC up to and including Nyquist
+    public int getBins() {
+        return half + 1;
+    }
+
+    // Spectrum of size real samples into bins 0..size/2 of re/im (unnormalized)
+    public void forward(float[] input, float[] re, float[] im) {
+        for (int k = 0; k < half; k++) {
+            zr[k] = input[2 * k];
+            zi[k] = input[2 * k + 1];
+        }
+        transform(zr, zi, false);
+
+        // Split the packed spectrum into the even and odd parts and combine them
+        for (int k = 0; k <= half; k++) {
+            int a = k == half ? 0 : k;
+            int b = k == 0 ? 0 : half - k;
+            float er = 0.5f * (zr[a] + zr[b]);
+            float ei = 0.5f * (zi[a] - zi[b]);
+            float or = 0.5f * (zi[a] + zi[b]);
+            float oi = -0.5f * (zr[a] - zr[b]);
+            float wr = splitCos[k];
+            float wi = -splitSin[k];
+            re[k] = er + wr * or - wi * oi;
+            im[k] = ei + wr * oi + wi * or;
+        }
+    }
+
+    // Real signal from bins 0..size/2, scaled so that inverse(forward(x)) == x
+    public void inverse(float[] re, float[] im, float[] output) {
+        for (int k = 0; k < half; k++) {
+            int b = half - k;
+            float er = 0.5f * (re[k] + re[b]);
+            float ei = 0.5f * (im[k] - im[b]);
+            float dr = 0.5f * (re[k] - re[b]);
+            float di = 0.5f * (im[k] + im[b]);
+            float wr = splitCos[k];
+            float wi = splitSin[k];
+            float or = dr * wr - di * wi;
+            float oi = dr * wi + di * wr;
+            zr[k] = er - oi;
+            zi[k] = ei + or;
+        }
+        transform(zr, zi, true);
+
+        float scale = 1.0f / half;
+        for (int k = 0; k < half; k++) {
+            output[2 * k] = zr[k] * scale;
+            output[2 * k + 1] = zi[k] * scale;
+        }
+    }
+
+    // In-place iterative radix-2 complex FFT of length half
+    private void transform(float[] re, float[] im, boolean inverse) {
+        for (int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            if (j > i) {
+                float t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+
+        float sign = inverse ? 1.0f : -1.0f;
+        for (int length = 2; length <= half; length <<= 1) {
+            int halfLength = length >> 1;
+            int stride = half / length;
+            for (int start = 0; start < half; start += length) {
+                for (int k = 0; k < halfLength; k++) {
+                    float wr = cos[k * stride];
+                    float wi = sign * sin[k * stride];
+                    int p = start + k;
+                    int q = p + halfLength;
+                    float tr = re[q] * wr - im[q] * wi;
+                    float ti = re[q] * wi + im[q] * wr;
+                    re[q] = re[p] - tr;
+                    im[q] = im[p] - ti;
+                    re[p] += tr;
+                    im[p] += ti;
+                }
+            }
+        }
+    }
+}
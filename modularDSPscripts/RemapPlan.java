@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+// Bin remap compiled from a transfer curve: transfer[i] is the destination bin of source bin i.
+// The plan is stored per destination bin (CSR layout), so applying it is a single gather pass.
+public final class RemapPlan {
+    private final int bins;
+    private final int[] rowStart; // Entries of destination bin d are rowStart[d] .. rowStart[d + 1] - 1
+    private final int[] source;   // Source bin of each entry
+    private final float[] weight; // Share of the source magnitude sent to the destination
+    private final int[] fill;     // Scratch for compile()
+
+    public RemapPlan(int bins) {
+        this.bins = bins;
+        rowStart = new int[bins + 1];
+        source = new int[2 * bins]; // At most two destinations per source bin
+        weight = new float[2 * bins];
+        fill = new int[bins];
+    }
+
+    public int getBins() {
+        return bins;
+    }
+
+    // Rebuild the plan; with fractional on, a target of 3.25 sends 75% to bin 3 and 25% to bin 4,
+    // otherwise targets are rounded to the nearest bin. Allocation-free.
+    public void compile(float[] transfer, boolean fractional) {
+        int count = Math.min(bins, transfer.length);
+        Arrays.fill(fill, 0);
+
+        // Count the entries of every destination bin
+        for (int i = 0; i < count; i++) {
+            float target = transfer[i];
+            if (fractional) {
+                int low = (int) Math.floor(target);
+                float frac = target - low;
+                if (low >= 0 && low < bins && frac < 1.0f) fill[low]++;
+                if (frac > 0 && low + 1 >= 0 && low + 1 < bins) fill[low + 1]++;
+            } else {
+                int index = Math.round(target);
+                if (index >= 0 && index < bins) fill[index]++;
+            }
+        }
+
+        rowStart[0] = 0;
+        for (int d = 0; d < bins; d++) {
+            rowStart[d + 1] = rowStart[d] + fill[d];
+            fill[d] = rowStart[d];
+        }
+
+        // Place the entries in source order, so later sources come last within a row
+        for (int i = 0; i < count; i++) {
+            float target = transfer[i];
+            if (fractional) {
+                int low = (int) Math.floor(target);
+                float frac = target - low;
+                if (low >= 0 && low < bins && frac < 1.0f) add(low, i, 1.0f - frac);
+                if (frac > 0 && low + 1 >= 0 && low + 1 < bins) add(low + 1, i, frac);
+            } else {
+                int index = Math.round(target);
+                if (index >= 0 && index < bins) add(index, i, 1.0f);
+            }
+        }
+    }
+
+    private void add(int destination, int sourceBin, float share) {
+        int k = fill[destination]++;
+        source[k] = sourceBin;
+        weight[k] = share;
+    }
+
+    // Gather the shifted frame. Destinations without sources keep their own phase and get no magnitude;
+    // otherwise the phase comes from the source contributing the most magnitude.
+    public void apply(float[] amplitudes, float[] phases, float[] newAmplitudes, float[] newPhases) {
+        for (int d = 0; d < bins; d++) {
+            int end = rowStart[d + 1];
+            float sum = 0;
+            float loudest = -1.0f;
+            float phase = phases[d];
+            for (int k = rowStart[d]; k < end; k++) {
+                float contribution = amplitudes[source[k]] * weight[k];
+                sum += contribution;
+                if (contribution >= loudest) {
+                    loudest = contribution;
+                    phase = phases[source[k]];
+                }
+            }
+            newAmplitudes[d] = sum;
+            newPhases[d] = phase;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import com.cycling74.max.*;
+import com.cycling74.msp.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+// Shared, per-buffer~ snapshot of every channel as a plain float[]; the Max side of SampleSource.
+// The buffer~ is compared and copied off the audio thread: a clock asks every 50 ms for a check, which runs
+// in a qelem on the low-priority thread, and a new Snapshot, interleaved copy included once an engine asked
+// for it, is published through one volatile field. Engines only read that field, once per block.
+// A check compares a few samples spread over the buffer, which catches a newly loaded file at once. Every
+// tenth check also compares a short window of every channel, sweeping the whole buffer in turn: that catches
+// any other edit eventually (about two minutes for a million frames) while peeking only 32 KB a second per
+// channel, since each peek is a copy the audio thread's JVM has to collect. Writers that know they changed the
+// buffer~ call invalidate() or send refresh to the object, which reloads at the next check.
+public final class SampleCache implements SampleSource {
+    private static final HashMap<String, SampleCache> caches = new HashMap<>();
+    private static final double CHECK_MS = 50.0;   // Interval between checks of the buffer~
+    private static final int PROBE_POINTS = 16;    // Samples spread over the first channel, compared on every check
+    private static final int SWEEP_EVERY = 10;     // Checks between two sweep windows, 500 ms
+    private static final int SWEEP_FRAMES = 4096;  // Frames of every channel compared per window, in turn
+
+    private final String bufferName;
+    private int refCount = 0;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY; // Read by the engines, replaced by the loader
+    private volatile boolean invalidated = true;         // Forces a reload on the next check
+    private volatile boolean interleave = false;         // Whether snapshots come with their interleaved copy
+    private final MaxClock clock;  // Asks for a check every CHECK_MS
+    private final MaxQelem loader; // Runs the checks and reloads on the low-priority thread
+
+    // Loader side
+    private long lastFrames = -1;
+    private int lastChannelCount = -1;
+    private int sweep = 0;      // First frame of the next window compared
+    private int checks = 0;     // Checks since the last sweep window
+    private int generation = 0; // Of the last snapshot
+
+    private SampleCache(String bufferName) {
+        this.bufferName = bufferName;
+        loader = new MaxQelem(new Executable() {
+            public void execute() {
+                check();
+            }
+        });
+        clock = new MaxClock(new Executable() {
+            public void execute() {
+                loader.set();
+                clock.delay(CHECK_MS);
+            }
+        });
+    }
+
+    // Get the shared cache for a buffer name, creating it on first use
+    public static SampleCache acquire(String bufferName) {
+        synchronized (caches) {
+            SampleCache cache = caches.get(bufferName);
+            if (cache == null) {
+                cache = new SampleCache(bufferName);
+                caches.put(bufferName, cache);
+                cache.check(); // The first snapshot is there before the object's first block
+                cache.clock.delay(CHECK_MS);
+            }
+            cache.refCount++;
+            return cache;
+        }
+    }
+
+    // Drop a reference taken with acquire(); the snapshot is freed with the last one
+    public void release() {
+        synchronized (caches) {
+            if (--refCount <= 0) {
+                caches.remove(bufferName);
+                clock.unset();
+                clock.release();
+                loader.release();
+                snapshot = Snapshot.EMPTY;
+                AnalysisService.forget(bufferName);
+            }
+        }
+    }
+
+    // Force the cache of this buffer name to reload, e.g. after writing into the buffer~
+    public static void invalidate(String bufferName) {
+        synchronized (caches) {
+            SampleCache cache = caches.get(bufferName);
+            if (cache != null) cache.invalidate();
+        }
+    }
+
+    public void invalidate() {
+        invalidated = true;
+        loader.set();
+    }
+
+    public String getName() {
+        return bufferName;
+    }
+
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    // Interleave the current snapshot here, on the control side, and every later one on the loader
+    public synchronized void requireInterleaved() {
+        interleave = true;
+        snapshot = snapshot.withInterleaved();
+    }
+
+    // Current buffer~ length, asked from Max rather than from the snapshot
+    public long getFrames() {
+        return MSPBuffer.getFrames(bufferName);
+    }
+
+    // Reload if the buffer~ no longer matches the snapshot; control side only, never from perform()
+    public synchronized void check() {
+        long frames = MSPBuffer.getFrames(bufferName);
+        int channelCount = MSPBuffer.getChannelCount(bufferName);
+        if (invalidated || frames != lastFrames || channelCount != lastChannelCount || changed(snapshot.channels)) {
+            invalidated = false;
+            reload(frames, channelCount);
+        }
+    }
+
+    // Compare the probe points, and every SWEEP_EVERY checks the next sweep window of every channel, with a snapshot
+    private boolean changed(float[][] data) {
+        int frames = SampleSource.frames(data);
+        if (frames == 0) return false;
+        for (int i = 0; i < PROBE_POINTS; i++) {
+            int index = (int) ((frames - 1L) * i / (PROBE_POINTS - 1));
+            if (differs(MSPBuffer.peek(bufferName, 1, index), data[0][index])) return true;
+        }
+        if (++checks < SWEEP_EVERY) return false;
+        checks = 0;
+        if (sweep >= frames) sweep = 0;
+        int from = sweep;
+        sweep = (int) Math.min(frames, (long) from + SWEEP_FRAMES);
+        for (int ch = 0; ch < data.length; ch++) {
+            float[] window = MSPBuffer.peek(bufferName, ch + 1, from, sweep - from);
+            float[] samples = data[ch];
+            if (window.length != sweep - from) return true; // Shrunk since the size was asked
+            for (int i = 0; i < window.length; i++) {
+                if (differs(window[i], samples[from + i])) return true;
+            }
+        }
+        return false;
+    }
+
+    // Bitwise, so a NaN in the buffer~ does not reload it on every check
+    private static boolean differs(float a, float b) {
+        return Float.floatToIntBits(a) != Float.floatToIntBits(b);
+    }
+
+    private void reload(long frames, int channelCount) {
+        lastFrames = frames;
+        lastChannelCount = channelCount;
+        sweep = 0;
+
+        channelCount = Math.min(channelCount, MAX_CHANNELS);
+        float[][] data = null;
+        if (frames > 0 && channelCount > 0) {
+            data = new float[channelCount][];
+            int length = Integer.MAX_VALUE;
+            for (int ch = 0; ch < channelCount; ch++) {
+                data[ch] = MSPBuffer.peek(bufferName, ch + 1);
+                length = Math.min(length, data[ch].length);
+            }
+            for (int ch = 0; ch < channelCount; ch++) {
+                if (data[ch].length != length) data[ch] = Arrays.copyOf(data[ch], length); // Buffer resized mid-read
+            }
+            if (length == 0) data = null;
+        }
+        Snapshot next = data == null ? Snapshot.EMPTY : new Snapshot(data, null, ++generation);
+        snapshot = interleave ? next.withInterleaved() : next; // The copies are made here, never in perform()
+        AnalysisService.update(bufferName, next); // Analyses of the buffer start from here too
+    }
+}
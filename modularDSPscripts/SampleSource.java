@@ -0,0 +1,66 @@
+// Where an engine reads its samples from: a buffer~ inside Max (SampleCache) or plain arrays offline.
+public interface SampleSource {
+    int MAX_CHANNELS = 64; // Channels of a snapshot at most, like a buffer~
+
+    // Current snapshot, replaced off the audio thread; read it once per block and hold on to it
+    Snapshot snapshot();
+
+    // Build the interleaved copy with every snapshot from now on; control side, called by engines reading frames
+    void requireInterleaved();
+
+    // Name shared by every source of the same samples, e.g. the buffer~ name; AnalysisService caches under it
+    String getName();
+
+    // Current length in frames, usable from the message thread before any block ran
+    long getFrames();
+
+    // Force a reload, e.g. after writing into the samples
+    void invalidate();
+
+    // One version of the samples: one array per channel, the channels interleaved frame by frame if an engine
+    // asked for that, and a generation bumped with every new version. Never changed once published.
+    final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(new float[0][], null, 0);
+
+        public final float[][] channels;
+        public final float[] interleaved; // null until requireInterleaved() was called
+        public final int frames;
+        public final int generation;
+
+        public Snapshot(float[][] channels, float[] interleaved, int generation) {
+            this.channels = channels;
+            this.interleaved = interleaved;
+            this.frames = frames(channels);
+            this.generation = generation;
+        }
+
+        // The same samples with their interleaved copy
+        public Snapshot withInterleaved() {
+            return interleaved != null || frames == 0 ? this : new Snapshot(channels, interleave(channels), generation);
+        }
+    }
+
+    // Number of frames in a snapshot's channels
+    static int frames(float[][] data) {
+        return data.length > 0 ? data[0].length : 0;
+    }
+
+    // Frame-by-frame copy of a snapshot, channel count as the stride
+    static float[] interleave(float[][] data) {
+        int channelCount = data.length;
+        int frames = frames(data);
+        float[] interleaved = new float[frames * channelCount];
+        for (int ch = 0; ch < channelCount; ch++) {
+            float[] samples = data[ch];
+            for (int i = 0, j = ch; i < frames; i++, j += channelCount) {
+                interleaved[j] = samples[i];
+            }
+        }
+        return interleaved;
+    }
+
+    // 1-based channel lookup, clamped to the channels present (mono buffers feed every channel)
+    static float[] channel(float[][] data, int channel) {
+        return data[Math.max(0, Math.min(channel - 1, data.length - 1))];
+    }
+}
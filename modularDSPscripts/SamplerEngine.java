@@ -0,0 +1,469 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Host-independent core of PolyphonicPlayback: a MIDI sampler looping a start/end range of a sample source,
+// pitched by resampling against a root note, with attack/release ramps and voice stealing.
+// Notes and range changes travel through a ParameterQueue; each block is rendered in segments between them,
+// so every event lands at its own sample.
+public class SamplerEngine implements BlockProcessor, ParameterSink {
+    private final SampleSource source;
+    private final PerfStats stats = new PerfStats();
+    private final ParameterQueue queue = new ParameterQueue(); // Notes and inlet values on their way to the audio thread
+    private long frameClock = 0;                               // Frames rendered so far
+    private long sampStart = 0;           // Start sample index
+    private long sampEnd = 1;             // End sample index
+    private long pendingStart = 0;        // Pending start sample index
+    private long pendingEnd = 1;          // Pending end sample index
+    private float sampleRate = 44100.0f;  // Until the host reports its own
+
+    // Voice stealing policies used when every voice is busy
+    private static final int STEAL_OLDEST = 0; // Replace the voice that started first
+    private static final int STEAL_LAST = 1;   // Replace the most recently started voice
+    private static final String[] STEAL_NAMES = {"oldest", "last"};
+
+    private static final int DEFAULT_VOICES = 16;   // Voices that can sound at the same time
+    private static final int RELEASE_SLOTS = 8;     // Extra slots for stolen voices that are still fading out
+    private static final float ATTACK_MS = 2.0f;    // Fade-in of every note
+    private static final float RELEASE_MS = 30.0f;  // Fade-out after note-off
+    private static final float STEAL_MS = 5.0f;     // Fade-out of a stolen voice
+
+    private volatile float rootNote = 60.0f; // MIDI note that plays the buffer at its original pitch
+    private volatile int interpMode = Interpolator.LINEAR; // Fractional read quality
+    private volatile int stealPolicy = STEAL_OLDEST;
+    private VoicePool voices = new VoicePool(DEFAULT_VOICES);
+    private final AtomicReference<VoicePool> pendingVoices = new AtomicReference<>(); // Resized pool waiting to be swapped in
+
+    // Queue id of note events, outside the coalesced ids so a note is never merged into another
+    private static final int NOTE_EVENT = 100;
+
+    // Control side, under the engine's lock: notes whose note-on went into the queue and whose note-off did not
+    // yet; lostOff marks the ones whose note-off found the queue full and waits for recover()
+    private float[] heldNotes = new float[16];
+    private boolean[] lostOff = new boolean[16];
+    private int heldCount = 0;
+    private int lostCount = 0;
+    private int droppedEvents = 0;
+
+    public SamplerEngine(SampleSource source) {
+        this.source = source;
+    }
+
+    public int getInputCount() {
+        return 0;
+    }
+
+    public int getOutputCount() {
+        return 1;
+    }
+
+    public void setSampleRate(float sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void process(float[][] inputs, float[][] outputs) {
+        long started = stats.begin();
+        render(inputs, outputs);
+        stats.end(started, outputs[0].length, sampleRate);
+    }
+
+    public PerfStats getStats() {
+        return stats;
+    }
+
+    private void render(float[][] inputs, float[][] outputs) {
+        float[] outputSignal = outputs[0]; // Output signal buffer
+        for (int i = 0; i < outputSignal.length; i++) outputSignal[i] = 0;
+        queue.beginBlock(frameClock, outputSignal.length, sampleRate);
+        frameClock += outputSignal.length;
+
+        // Swap in a pool resized by "poly", carrying over the voices that still fit
+        VoicePool resized = pendingVoices.getAndSet(null);
+        if (resized != null) {
+            resized.copyFrom(voices, rampStep(STEAL_MS));
+            voices = resized;
+        }
+        VoicePool pool = voices;
+
+        float[][] data = source.snapshot().channels;
+        long bufferFrames = SampleSource.frames(data);
+        if (bufferFrames <= 0) {
+            // Nothing to play: keep the range, forget queued notes
+            while (queue.poll(outputSignal.length - 1)) apply(pool, queue.id(), queue.value(), queue.extra(), 0);
+            while (queue.pollLatest()) apply(pool, queue.id(), queue.value(), queue.extra(), 0);
+            stats.miss();
+            return;
+        }
+        float[] samples = SampleSource.channel(data, 1);
+
+        // Render up to each queued event, then start or release its note or move the range
+        int from = 0;
+        while (from < outputSignal.length) {
+            while (queue.poll(from)) apply(pool, queue.id(), queue.value(), queue.extra(), bufferFrames);
+            int to = Math.max(from + 1, queue.nextOffset());
+            mix(pool, samples, bufferFrames, outputSignal, from, to);
+            from = to;
+        }
+        while (queue.pollLatest()) apply(pool, queue.id(), queue.value(), queue.extra(), bufferFrames);
+        stats.voices(pool.count);
+    }
+
+    // Audio thread: a note event, or inlet 2/3 moving the loop range
+    private void apply(VoicePool pool, int id, float value, float extra, long bufferFrames) {
+        switch (id) {
+            case NOTE_EVENT:
+                if (bufferFrames <= 0) return;
+                if (extra > 0) {
+                    noteOn(pool, value, extra, loopStart(bufferFrames));
+                } else {
+                    pool.noteOff(value, rampStep(RELEASE_MS));
+                }
+                return;
+            case 2:
+                pendingStart = Math.round(Math.max(0, value));
+                break;
+            case 3:
+                pendingEnd = Math.round(Math.max(0, value));
+                break;
+            default:
+                return;
+        }
+        if (bufferFrames <= 0) return; // Clamped once a buffer is there
+        sampStart = Math.max(0, Math.min(pendingStart, bufferFrames - 1));
+        sampEnd = Math.max(sampStart + 1, Math.min(pendingEnd, bufferFrames));
+        //post("Range updated: sampStart = " + sampStart + ", sampEnd = " + sampEnd);
+    }
+
+    private long loopStart(long bufferFrames) {
+        return Math.max(0, Math.min(sampStart, bufferFrames - 1));
+    }
+
+    // Mix every voice into output[from, to); only the used slots are mixed, idle voices cost nothing
+    private void mix(VoicePool pool, float[] samples, long bufferFrames, float[] outputSignal, int from, int to) {
+        long loopStart = loopStart(bufferFrames);
+        long loopEnd = Math.max(loopStart + 1, Math.min(sampEnd, bufferFrames));
+        double[] pos = pool.pos;
+        float[] rate = pool.rate;
+        float[] velocity = pool.velocity;
+        float[] env = pool.env;
+        float[] envStep = pool.envStep;
+        double start = loopStart;
+        double end = loopEnd;
+        double length = loopEnd - loopStart;
+        int mode = interpMode;
+        for (int j = pool.count - 1; j >= 0; j--) {
+            double p = pos[j];
+            float level = env[j];
+            float step = envStep[j];
+            float gain = velocity[j];
+            double increment = rate[j];
+
+            for (int i = from; i < to; i++) {
+                // Phase accumulator looping over the current range
+                if (p >= end || p < start) {
+                    p = start + ((p - start) % length + length) % length;
+                }
+                outputSignal[i] += Interpolator.read(samples, p, mode, increment) * level * gain;
+                p += increment;
+
+                level += step;
+                if (level >= 1.0f) {
+                    level = 1.0f;
+                    step = 0;
+                } else if (level <= 0) {
+                    break;
+                }
+            }
+
+            pos[j] = p;
+            env[j] = level;
+            envStep[j] = step;
+            if (level <= 0) pool.remove(j); // Released, swap the last voice into this slot
+        }
+    }
+
+    private void noteOn(VoicePool pool, float note, float velocity, long loopStart) {
+        float rate = (float) Math.pow(2.0, (note - rootNote) / 12.0); // Pitch by resampling
+        float gain = velocity / 127.0f;
+
+        // A repeated note fades out the voice that still holds it
+        int retrigger = pool.findHeld(note);
+        if (retrigger >= 0) {
+            pool.release(retrigger, rampStep(STEAL_MS));
+        } else if (pool.held >= pool.voices) {
+            int victim = pool.findVictim(stealPolicy);
+            if (victim >= 0) {
+                pool.release(victim, rampStep(STEAL_MS));
+                stats.stolen();
+            }
+        }
+        if (pool.count >= pool.capacity) {
+            // Every release slot is busy: cut the quietest fading voice so the new note always starts
+            pool.remove(pool.findQuietestReleasing());
+            stats.stolen();
+        }
+
+        pool.start(pool.add(), note, loopStart, rate, gain, rampStep(ATTACK_MS));
+        stats.spawned();
+    }
+
+    // Envelope increment per sample for a ramp of the given length
+    private float rampStep(float ms) {
+        return 1.0f / Math.max(1.0f, ms * 0.001f * sampleRate);
+    }
+
+    // Preallocated sampler voices, one primitive array per voice property
+    private static class VoicePool {
+        final int voices;   // Voices that may hold a note
+        final int capacity; // Storage, including the slots of voices being released
+        int count = 0;      // Used slots
+        int held = 0;       // Used slots that are not releasing
+        long nextAge = 0;
+
+        final float[] note;     // MIDI note of the voice
+        final double[] pos;     // Read position in frames
+        final float[] rate;     // Frames advanced per output sample
+        final float[] velocity; // Velocity gain, 0..1
+        final float[] env;      // Attack/release envelope level
+        final float[] envStep;  // Envelope increment, negative while releasing
+        final long[] age;       // Start order, used for stealing
+
+        VoicePool(int voices) {
+            this.voices = voices;
+            this.capacity = voices + RELEASE_SLOTS;
+            note = new float[capacity];
+            pos = new double[capacity];
+            rate = new float[capacity];
+            velocity = new float[capacity];
+            env = new float[capacity];
+            envStep = new float[capacity];
+            age = new long[capacity];
+        }
+
+        int add() {
+            held++;
+            env[count] = 0;
+            return count++;
+        }
+
+        void start(int j, float midiNote, long startFrame, float voiceRate, float gain, float attackStep) {
+            note[j] = midiNote;
+            pos[j] = startFrame;
+            rate[j] = voiceRate;
+            velocity[j] = gain;
+            envStep[j] = attackStep;
+            age[j] = nextAge++;
+        }
+
+        void release(int j, float releaseStep) {
+            if (envStep[j] >= 0) held--;
+            envStep[j] = -releaseStep;
+        }
+
+        void noteOff(float midiNote, float releaseStep) {
+            for (int j = 0; j < count; j++) {
+                if (note[j] == midiNote && envStep[j] >= 0) release(j, releaseStep);
+            }
+        }
+
+        void remove(int j) {
+            if (envStep[j] >= 0) held--;
+            int last = --count;
+            note[j] = note[last];
+            pos[j] = pos[last];
+            rate[j] = rate[last];
+            velocity[j] = velocity[last];
+            env[j] = env[last];
+            envStep[j] = envStep[last];
+            age[j] = age[last];
+        }
+
+        int findHeld(float midiNote) {
+            for (int j = 0; j < count; j++) {
+                if (note[j] == midiNote && envStep[j] >= 0) return j;
+            }
+            return -1;
+        }
+
+        // The releasing voice with the lowest level; with every slot used at least RELEASE_SLOTS are releasing
+        int findQuietestReleasing() {
+            int quietest = -1;
+            for (int j = 0; j < count; j++) {
+                if (envStep[j] < 0 && (quietest < 0 || env[j] < env[quietest])) quietest = j;
+            }
+            return quietest;
+        }
+
+        // Pick the held voice to steal, or -1 if there is none
+        int findVictim(int policy) {
+            int victim = -1;
+            for (int j = 0; j < count; j++) {
+                if (envStep[j] < 0) continue;
+                if (victim < 0
+                        || (policy == STEAL_OLDEST && age[j] < age[victim])
+                        || (policy == STEAL_LAST && age[j] > age[victim])) {
+                    victim = j;
+                }
+            }
+            return victim;
+        }
+
+        void copyFrom(VoicePool other, float releaseStep) {
+            count = Math.min(other.count, capacity);
+            held = 0;
+            nextAge = other.nextAge;
+            System.arraycopy(other.note, 0, note, 0, count);
+            System.arraycopy(other.pos, 0, pos, 0, count);
+            System.arraycopy(other.rate, 0, rate, 0, count);
+            System.arraycopy(other.velocity, 0, velocity, 0, count);
+            System.arraycopy(other.env, 0, env, 0, count);
+            System.arraycopy(other.envStep, 0, envStep, 0, count);
+            System.arraycopy(other.age, 0, age, 0, count);
+            for (int j = 0; j < count; j++) {
+                if (envStep[j] < 0) continue;
+                if (held < voices) {
+                    held++;
+                } else {
+                    envStep[j] = -releaseStep; // More held voices than the new size, release the rest
+                }
+            }
+        }
+    }
+
+    // Queue a note for the matching sample of the next block; velocity 0 is a note-off. False if the queue is full:
+    // a note-on is then dropped for good, it would only start late, while a note-off of a held note is kept and
+    // pushed by recover() once there is room again, so no voice hangs.
+    public synchronized boolean noteEvent(float note, float velocity) {
+        float clamped = Math.max(0.0f, Math.min(velocity, 127.0f));
+        // Note-offs kept back go first; while any is left the queue counts as full, so nothing overtakes them
+        if (!pushLost() || !queue.push(NOTE_EVENT, note, clamped)) {
+            if (clamped <= 0) loseNoteOff(note);
+            droppedEvents++;
+            return false;
+        }
+        if (clamped > 0) {
+            hold(note);
+        } else {
+            int i = heldIndex(note);
+            if (i >= 0) removeHeld(i);
+        }
+        return true;
+    }
+
+    // Control side: push the note-offs kept back; true once none is left and the queue takes events again
+    public synchronized boolean recover() {
+        return pushLost() && !queue.isFull();
+    }
+
+    // Control side: note events dropped since the last call
+    public synchronized int takeDropped() {
+        int dropped = droppedEvents;
+        droppedEvents = 0;
+        return dropped;
+    }
+
+    // With the lock held: push the kept note-offs in order; false if the queue filled up again
+    private boolean pushLost() {
+        for (int i = 0; i < heldCount && lostCount > 0; ) {
+            if (!lostOff[i]) {
+                i++;
+                continue;
+            }
+            if (!queue.push(NOTE_EVENT, heldNotes[i], 0)) return false;
+            lostCount--;
+            removeHeld(i); // The last note moved into this slot, look at it next
+        }
+        return true;
+    }
+
+    private void hold(float note) {
+        if (heldIndex(note) >= 0) return;
+        if (heldCount == heldNotes.length) {
+            heldNotes = Arrays.copyOf(heldNotes, heldCount * 2);
+            lostOff = Arrays.copyOf(lostOff, heldCount * 2);
+        }
+        heldNotes[heldCount] = note;
+        lostOff[heldCount++] = false;
+    }
+
+    // A note-off that did not fit; only a note whose note-on went through needs it
+    private void loseNoteOff(float note) {
+        int i = heldIndex(note);
+        if (i >= 0 && !lostOff[i]) {
+            lostOff[i] = true;
+            lostCount++;
+        }
+    }
+
+    private int heldIndex(float note) {
+        for (int i = 0; i < heldCount; i++) {
+            if (heldNotes[i] == note) return i;
+        }
+        return -1;
+    }
+
+    // Swap the last held note into slot i
+    private void removeHeld(int i) {
+        heldCount--;
+        heldNotes[i] = heldNotes[heldCount];
+        lostOff[i] = lostOff[heldCount];
+    }
+
+    // Inlets 2 and 3: sample start and end, applied on the audio thread at their sample
+    public void parameter(int inletIdx, float value) {
+        if (inletIdx == 2 || inletIdx == 3) queue.push(inletIdx, value);
+    }
+
+    // Number of voices; the pool is allocated here, never in process()
+    public void setPoly(int count) {
+        pendingVoices.set(new VoicePool(Math.max(1, Math.min(count, 128))));
+    }
+
+    // MIDI note that plays the buffer at its original speed
+    public void setRoot(float note) {
+        rootNote = note;
+    }
+
+    // Stealing policy: oldest or last
+    public boolean setStealPolicy(String policy) {
+        for (int i = 0; i < STEAL_NAMES.length; i++) {
+            if (STEAL_NAMES[i].equals(policy)) {
+                stealPolicy = i;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Interpolation quality: nearest, linear, hermite or sinc
+    public boolean setInterpolation(String mode) {
+        int parsed = Interpolator.parse(mode);
+        if (parsed < 0) return false;
+        interpMode = parsed;
+        return true;
+    }
+
+    // "note <note> <velocity>", "poly <n>", "root <note>", "steal <policy>", "interp <mode>", "refresh"
+    public boolean message(String name, String[] args) {
+        switch (name) {
+            case "note":
+                return args.length == 2 && noteEvent(Float.parseFloat(args[0]), Float.parseFloat(args[1]));
+            case "poly":
+                if (args.length == 0) return false;
+                setPoly(Integer.parseInt(args[0]));
+                return true;
+            case "root":
+                if (args.length == 0) return false;
+                setRoot(Float.parseFloat(args[0]));
+                return true;
+            case "steal":
+                return args.length > 0 && setStealPolicy(args[0]);
+            case "interp":
+                return args.length > 0 && setInterpolation(args[0]);
+            case "refresh":
+                source.invalidate();
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+
+// Host-independent core of MinimalPlayback: loops a phasor over a start/end range of a sample source,
+// with a fade envelope on every cycle. Inlet values travel through a ParameterQueue and take effect at their sample;
+// range changes are applied when the phase wraps, rate changes glide over the smoothing time.
+// Rate, start and end can also be driven by signal inputs: a constant block is applied like an inlet value,
+// a moving one is read per sample (the rate without smoothing, start and end when the phase wraps).
+// In file mode the engine plays a StreamedFile from disk instead of the sample source.
+public class ScannerEngine implements BlockProcessor, ParameterSink {
+    private final SampleSource source;
+    private volatile StreamedFile file = null; // Played instead of the source while set
+    private final PerfStats stats = new PerfStats();
+    private final ParameterQueue queue = new ParameterQueue(); // Inlet values on their way to the audio thread
+    private long frameClock = 0;                               // Frames rendered so far
+    private final Modulation modulation = new Modulation(3);    // Signal inputs: cycles/sec, start, end
+    private long sampStart = 0;          // Start sample index
+    private long sampEnd = 1;            // End sample index
+    private long pendingStart = 0;       // Pending start sample index
+    private long pendingEnd = 1;         // Pending end sample index
+    private final Ramp phasorRate = new Ramp(1.0f); // Cycles per second, smoothed
+    private volatile float smoothMs = 20.0f;         // Glide time of rate changes
+    private float currentPhase = 0.0f;   // Internal phasor phase
+    private float previousPhase = 0.0f;  // Previous phase value
+    private float sampleRate = 44100.0f; // Until the host reports its own
+    private boolean rangeChanged = false; // Flag for pending range update
+    private volatile int interpMode = Interpolator.LINEAR; // Fractional read quality
+    private int envelopeShape = EnvelopeTable.TRAPEZOID;                                // Fade shape of each cycle
+    private float envelopeRatio = 0.1f;                                                 // Fade-in/out as a fraction of the cycle
+    private volatile float[] envelope = EnvelopeTable.get(envelopeShape, envelopeRatio); // Shared table for the shape
+
+    public ScannerEngine(SampleSource source) {
+        this.source = source;
+    }
+
+    // Rate, start and end; null or missing when not connected
+    public int getInputCount() {
+        return 3;
+    }
+
+    public int getOutputCount() {
+        return 1;
+    }
+
+    public void setSampleRate(float sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void process(float[][] inputs, float[][] outputs) {
+        long started = stats.begin();
+        render(inputs, outputs);
+        stats.end(started, outputs[0].length, sampleRate);
+    }
+
+    public PerfStats getStats() {
+        return stats;
+    }
+
+    private void render(float[][] inputs, float[][] outputs) {
+        float[] outputSignal = outputs[0]; // Output signal buffer
+        queue.beginBlock(frameClock, outputSignal.length, sampleRate);
+        frameClock += outputSignal.length;
+
+        StreamedFile streamed = file;
+        float[] samples = null;
+        long bufferFrames;
+        if (streamed != null) {
+            bufferFrames = streamed.frames;
+        } else {
+            float[][] data = source.snapshot().channels;
+            bufferFrames = SampleSource.frames(data);
+            if (bufferFrames > 0) samples = SampleSource.channel(data, 1);
+        }
+        if (bufferFrames <= 0) {
+            //post("Error: Buffer is empty or not found.");
+            for (int i = 0; i < outputSignal.length; i++) outputSignal[i] = 0;
+            applyChanges(outputSignal.length - 1, 0);
+            stats.miss();
+            stats.voices(0);
+            return;
+        }
+        float[] rateMod = modulation(inputs, 0, bufferFrames);
+        float[] startMod = modulation(inputs, 1, bufferFrames);
+        float[] endMod = modulation(inputs, 2, bufferFrames);
+
+        // Keep the current range inside the snapshot if the buffer shrank
+        if (sampEnd > bufferFrames) {
+            sampStart = Math.min(sampStart, bufferFrames - 1);
+            sampEnd = bufferFrames;
+        }
+
+        // Detect start of a new cycle using a phase delta
+        float samplePeriod = 1.0f / sampleRate;
+        int mode = interpMode;
+        float[] fade = envelope;
+        int nextChange = queue.nextOffset();
+        if (streamed != null) streamed.beginBlock();
+        for (int i = 0; i < outputSignal.length; i++) {
+            if (i == nextChange) nextChange = applyChanges(i, bufferFrames);
+            float rate = rateMod != null ? Math.max(0.0f, rateMod[i]) : phasorRate.next();
+            currentPhase += rate * samplePeriod;
+
+            if (currentPhase >= 1.0f) {
+                currentPhase -= 1.0f;
+            }
+
+            if (currentPhase < previousPhase && (startMod != null || endMod != null)) {
+                // Sample and hold the moving range inputs at the wrap
+                if (startMod != null) apply(2, startMod[i], bufferFrames);
+                if (endMod != null) apply(3, endMod[i], bufferFrames);
+            }
+
+            if (currentPhase < previousPhase && rangeChanged) {
+                // Phase has wrapped, apply pending range
+                sampStart = Math.max(0, Math.min(pendingStart, bufferFrames - 1));
+                sampEnd = Math.max(sampStart + 1, Math.min(pendingEnd, bufferFrames));
+                rangeChanged = false;
+                //post("Range updated: sampStart = " + sampStart + ", sampEnd = " + sampEnd);
+            }
+
+            previousPhase = currentPhase;
+
+            if (sampEnd <= sampStart) {
+                //post("Error: Invalid phasorRate or range, outputting silence.");
+                outputSignal[i] = 0;
+                continue;
+            }
+
+            long rangeLength = sampEnd - sampStart;
+            double position = sampStart + (double) currentPhase * rangeLength;
+            position = Math.max(sampStart, Math.min(position, sampEnd - 1));
+
+            double speed = rate * samplePeriod * rangeLength; // Frames the scan moves per sample
+            float sample = samples != null ? Interpolator.read(samples, position, mode, speed) : streamed.read(0, position, mode, speed);
+
+            // Apply fades from the envelope table
+            outputSignal[i] = sample * EnvelopeTable.read(fade, currentPhase);
+        }
+        while (queue.pollLatest()) apply(queue.id(), queue.value(), bufferFrames);
+        if (rateMod != null) {
+            phasorRate.setTarget(Math.max(0.0f, rateMod[rateMod.length - 1]), 0); // Continue from here if it stops moving
+        }
+        if (streamed != null) {
+            // Tell the loader what to read ahead: this range from the current position on, and the pending range
+            long length = Math.max(1, sampEnd - sampStart);
+            long position = sampStart + (long) (currentPhase * length);
+            long jump = rangeChanged ? Math.max(0, Math.min(pendingStart, bufferFrames - 1)) : -1;
+            if (streamed.endBlock(position, sampStart, sampEnd, phasorRate.get() * (double) length, jump)) stats.miss();
+        }
+        stats.voices(sampEnd > sampStart ? 1 : 0);
+    }
+
+    // Signal input k if it moves this block, else null; a new constant value is applied like inlet k + 1
+    private float[] modulation(float[][] inputs, int k, long bufferFrames) {
+        switch (modulation.poll(inputs, k)) {
+            case Modulation.CHANGED:
+                if (k != 0 || inputs[k][0] > 0) apply(k + 1, inputs[k][0], bufferFrames);
+                return null;
+            case Modulation.AUDIO:
+                return inputs[k];
+            default:
+                return null;
+        }
+    }
+
+    // Apply the queued changes due at this offset; returns the offset of the next one
+    private int applyChanges(int offset, long bufferFrames) {
+        while (queue.poll(offset)) apply(queue.id(), queue.value(), bufferFrames);
+        return queue.nextOffset();
+    }
+
+    // Audio thread: one inlet value, clamped to the current snapshot if there is one
+    private void apply(int inlet, float value, long bufferFrames) {
+        long last = bufferFrames > 0 ? bufferFrames - 1 : Long.MAX_VALUE;
+        switch (inlet) {
+            case 1: // Second inlet: phasorRate, glides to the new rate
+                phasorRate.setTarget(value, (int) (smoothMs * 0.001f * sampleRate));
+                //post("Phasor rate updated to: " + value + " cycles/sec");
+                break;
+
+            case 2: // Third inlet: sampStart
+                pendingStart = Math.round(Math.max(0, Math.min(value, last)));
+                rangeChanged = true; // Mark range as pending
+                //post("Pending start updated to: " + pendingStart);
+                break;
+
+            case 3: // Fourth inlet: sampEnd
+                pendingEnd = Math.round(Math.max(0, Math.min(value, last)));
+                rangeChanged = true; // Mark range as pending
+                //post("Pending end updated to: " + pendingEnd);
+                break;
+
+            default:
+                //post("Warning: Unhandled inlet index: " + inlet);
+        }
+    }
+
+    // Inlets 1..4: cycles/sec, start, end, envelope shape index
+    public void parameter(int inlet, float value) {
+        if (inlet == 4) {
+            setEnvelope((int) value, envelopeRatio); // A table swap, safe from any thread
+            return;
+        }
+        if (inlet == 1 && value <= 0) {
+            //post("Warning: Received invalid phasorRate (" + value + "), ignoring.");
+            return;
+        }
+        if (inlet >= 1 && inlet <= 3) queue.push(inlet, value);
+    }
+
+    // Play a file from disk instead of the sample source, or the source again with null.
+    // The previous file is returned so the caller can close it.
+    public StreamedFile setFile(StreamedFile streamed) {
+        StreamedFile previous = file;
+        file = streamed;
+        return previous;
+    }
+
+    // Glide time of rate changes in milliseconds, 0 jumps
+    public void setSmoothing(float ms) {
+        smoothMs = Math.max(0.0f, Math.min(ms, 1000.0f));
+    }
+
+    // "interp <mode>", "envelope <shape> [ratio]", "smooth <ms>", "file [path] [cache MB]", "refresh"
+    public boolean message(String name, String[] args) {
+        switch (name) {
+            case "file": {
+                StreamedFile streamed = null;
+                if (args.length > 0) {
+                    long cacheBytes = args.length > 1 ? (long) (Double.parseDouble(args[1]) * (1 << 20)) : StreamedFile.DEFAULT_CACHE_BYTES;
+                    try {
+                        streamed = StreamedFile.open(Paths.get(args[0]), cacheBytes);
+                    } catch (IOException e) {
+                        return false;
+                    }
+                }
+                StreamedFile previous = setFile(streamed);
+                if (previous != null) previous.close();
+                return true;
+            }
+            case "smooth":
+                if (args.length == 0) return false;
+                setSmoothing(Float.parseFloat(args[0]));
+                return true;
+            case "interp":
+                return args.length > 0 && setInterpolation(args[0]);
+            case "envelope":
+                return args.length > 0 && setEnvelope(args[0], args.length > 1 ? Float.parseFloat(args[1]) : -1);
+            case "refresh":
+                source.invalidate();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Envelope by name; a negative ratio keeps the current one
+    public boolean setEnvelope(String shapeName, float ratio) {
+        int shape = EnvelopeTable.parse(shapeName);
+        if (shape < 0) return false;
+        setEnvelope(shape, ratio < 0 ? envelopeRatio : ratio);
+        return true;
+    }
+
+    // Look up the shared table, built on first use of this shape and ratio
+    public void setEnvelope(int shape, float ratio) {
+        envelopeShape = Math.max(0, Math.min(shape, EnvelopeTable.shapeCount() - 1));
+        envelopeRatio = Math.max(0.0f, Math.min(ratio, 0.5f));
+        envelope = EnvelopeTable.get(envelopeShape, envelopeRatio);
+    }
+
+    // Interpolation quality: nearest, linear, hermite or sinc
+    public boolean setInterpolation(String mode) {
+        int parsed = Interpolator.parse(mode);
+        if (parsed < 0) return false;
+        interpMode = parsed;
+        return true;
+    }
+}
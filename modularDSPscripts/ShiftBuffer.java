@@ -1,78 +1,124 @@
 import com.cycling74.max.*;
 import com.cycling74.msp.*;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 
 public class ShiftBuffer extends MSPObject {
 
     private static final int BUFFER_SIZE = 1024;
-    private float[] lastBufferState = new float[BUFFER_SIZE];
     private MaxClock clock;
-    private float frequency = 440.0f;  // Default sine wave frequency
-    private float phase = 0.0f;
-    private static final float SAMPLE_RATE = 44100.0f;  // Standard sample rate
+    private MaxQelem shiftQelem;
+    private double pollMs = 10.0;                      // Fallback polling interval, 0 when disabled
+    private final float[] lastAmplitudes = new float[BUFFER_SIZE]; // Frame at the last poll
+    private final float[] newAmplitudes = new float[BUFFER_SIZE]; // Reused output frames
+    private final float[] newPhases = new float[BUFFER_SIZE];
+    private final RemapPlan plan = new RemapPlan(BUFFER_SIZE); // Transfer curve compiled to a gather plan
+    private float[] lastTransfer = new float[0];       // Curve the plan was compiled from
+    private volatile boolean transferDirty = true;      // Recompile the plan before the next shift
+    private volatile boolean transferNotified = false;  // Patch sends "transfer" when it edits the curve
+    private volatile boolean fractional = true;         // Split fractional targets between two bins
+    private final SineEngine sine = new SineEngine(); // Test tone on the signal outlet
+    private final StatsReporter statsReporter = new StatsReporter(this, sine.getStats());
+    private final float[][] inputs = new float[0][];
+    private final float[][] outputs = new float[1][];
 
     public ShiftBuffer() {
         declareInlets(new int[]{ SIGNAL, DataTypes.ALL });  // Inlet 1: Signal, Inlet 2: Frequency Control
         declareOutlets(new int[]{ SIGNAL });  // Outlet for the sine wave
 
+        // Shifts run on the low-priority thread; setting the qelem again before it runs coalesces the requests
+        shiftQelem = new MaxQelem(new Executable() {
+            public void execute() {
+                shiftBuffer("amplitudes", "transfervalues", "newamplitudes");
+            }
+        });
         startMonitoring();
     }
 
+    // Polling fallback for patches that do not send "dirty"
     private void startMonitoring() {
         clock = new MaxClock(new Executable() {
             public void execute() {
-                detectChangesAndShift("amplitudes", "transfervalues", "newamplitudes");
-                clock.delay(10);
+                if (pollMs <= 0) return;
+                detectChanges("amplitudes");
+                clock.delay(pollMs);
             }
         });
-        clock.delay(10);
+        clock.delay(pollMs);
     }
 
-    private void detectChangesAndShift(String bufferName, String transferName, String newBufferName) {
+    // Compare every bin of the amplitudes with the last poll, read in one peek, so sparse spectra are not missed
+    private void detectChanges(String bufferName) {
         float[] amplitudes = MSPBuffer.peek(bufferName, 1);
-
+        int bins = Math.min(amplitudes.length, BUFFER_SIZE);
         boolean hasChanged = false;
-        for (int i = 0; i < BUFFER_SIZE; i++) {
-            if (amplitudes[i] != lastBufferState[i]) {
+        for (int i = 0; i < bins; i++) {
+            if (amplitudes[i] != lastAmplitudes[i]) {
                 hasChanged = true;
                 break;
             }
         }
+        if (hasChanged) System.arraycopy(amplitudes, 0, lastAmplitudes, 0, bins);
 
         if (hasChanged) {
-            shiftBuffer(bufferName, transferName, newBufferName);
-            System.arraycopy(amplitudes, 0, lastBufferState, 0, BUFFER_SIZE);
+            shiftQelem.set();
         }
     }
 
-    public void shiftBuffer(String bufferName, String transferName, String newBufferName) {
-        float[] amplitudes = MSPBuffer.peek(bufferName, 1);
-        float[] phases = MSPBuffer.peek(bufferName, 2);
-        float[] transfervalues = MSPBuffer.peek(transferName, 1);
-        float[] newAmplitudes = new float[BUFFER_SIZE];
-        float[] newPhases = new float[BUFFER_SIZE];
-
-        for (int i = 0; i < BUFFER_SIZE; i++) {
-            newAmplitudes[i] = 0;
-            newPhases[i] = phases[i]; 
+    // Sent by the pfft~ side after it wrote a new frame; switches off the polling fallback
+    public void dirty() {
+        if (pollMs > 0) {
+            pollMs = 0;
+            clock.unset();
         }
+        shiftQelem.set();
+    }
+
+    // Polling interval in ms for the fallback change detection, 0 to disable it
+    public void poll(float ms) {
+        pollMs = Math.max(0, ms);
+        clock.unset();
+        if (pollMs > 0) clock.delay(pollMs);
+    }
 
-        for (int i = 0; i < BUFFER_SIZE; i++) {
-            int shiftedIndex = Math.round(transfervalues[i]);
+    // Sent after the transfer curve was edited; the plan is recompiled before the next shift
+    public void transfer() {
+        transferNotified = true;
+        transferDirty = true;
+        shiftQelem.set();
+    }
+
+    // 1: fractional targets are split between the two nearest bins, 0: targets are rounded
+    public void fractional(int on) {
+        fractional = on != 0;
+        transferDirty = true;
+        shiftQelem.set();
+    }
 
-            if (shiftedIndex >= 0 && shiftedIndex < BUFFER_SIZE) {
-                newAmplitudes[shiftedIndex] += amplitudes[i]; 
-                newPhases[shiftedIndex] = phases[i]; 
+    public void shiftBuffer(String bufferName, String transferName, String newBufferName) {
+        float[] amplitudes = MSPBuffer.peek(bufferName, 1);
+        float[] phases = MSPBuffer.peek(bufferName, 2);
+        if (amplitudes.length < BUFFER_SIZE || phases.length < BUFFER_SIZE) return; // pfft~ buffers not ready
+
+        // Without "transfer" notifications the curve is compared on every shift, as before
+        if (transferDirty || !transferNotified) {
+            float[] transfervalues = MSPBuffer.peek(transferName, 1);
+            if (transferDirty || !Arrays.equals(transfervalues, lastTransfer)) {
+                transferDirty = false;
+                plan.compile(transfervalues, fractional);
+                lastTransfer = transfervalues;
             }
         }
 
-        MaxSystem.deferLow(() -> {
-            MSPBuffer.poke(newBufferName, 1, newAmplitudes);
-            MSPBuffer.poke(newBufferName, 2, newPhases);
-        });
+        plan.apply(amplitudes, phases, newAmplitudes, newPhases);
+
+        // Already on the low-priority thread, so the result is written straight away
+        MSPBuffer.poke(newBufferName, 1, newAmplitudes);
+        MSPBuffer.poke(newBufferName, 2, newPhases);
     }
 
     public Method dsp(MSPSignal[] in, MSPSignal[] out) {
+        if (out[0].sr > 0) sine.setSampleRate((float) out[0].sr);
         try {
             return getClass().getDeclaredMethod("perform", MSPSignal[].class, MSPSignal[].class);
         } catch (NoSuchMethodException e) {
@@ -83,26 +129,42 @@ public class ShiftBuffer extends MSPObject {
 
     // Generate a sine wave based on input frequency
     public void perform(MSPSignal[] in, MSPSignal[] out) {
-        float[] outputSignal = out[0].vec;
-        float phaseIncrement = (float) (2.0 * Math.PI * frequency / SAMPLE_RATE);
-
-        for (int i = 0; i < outputSignal.length; i++) {
-            outputSignal[i] = (float) Math.sin(phase);
-            phase += phaseIncrement;
-            if (phase > (float) (2.0 * Math.PI)) {
-                phase -= (float) (2.0 * Math.PI);
-            }
-        }
+        outputs[0] = out[0].vec;
+        sine.process(inputs, outputs);
     }
 
     // Receive frequency from inlet
     public void inlet(float value) {
-        frequency = Math.max(1.0f, Math.min(value, 20000.0f));  // Clamp between 1 Hz and 20 kHz
+        sine.parameter(getInlet(), value);
+    }
+
+    // Glide time of frequency changes in milliseconds, 0 jumps
+    public void smooth(float ms) {
+        sine.setSmoothing(ms);
+    }
+
+    // Output the performance counters on the info outlet
+    public void stats() {
+        statsReporter.request();
+    }
+
+    // Output them every ms milliseconds, 0 stops
+    public void statsinterval(float ms) {
+        statsReporter.interval(ms);
+    }
+
+    public void statsreset() {
+        sine.getStats().reset();
     }
 
     public void notifyDeleted() {
+        statsReporter.release();
         if (clock != null) {
             clock.unset();
+            clock.release();
+        }
+        if (shiftQelem != null) {
+            shiftQelem.release();
         }
     }
 }
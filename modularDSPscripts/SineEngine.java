@@ -0,0 +1,75 @@
+// Host-independent core of the ShiftBuffer test tone: a sine oscillator with a frequency parameter.
+// Frequency changes travel through a ParameterQueue and glide from their sample on.
+public class SineEngine implements BlockProcessor, ParameterSink {
+    private final Ramp frequency = new Ramp(440.0f); // Default sine wave frequency, smoothed
+    private final ParameterQueue queue = new ParameterQueue();
+    private long frameClock = 0;
+    private volatile float smoothMs = 20.0f; // Glide time of frequency changes
+    private float phase = 0.0f;
+    private float sampleRate = 44100.0f; // Until the host reports its own
+    private final PerfStats stats = new PerfStats();
+
+    public int getInputCount() {
+        return 0;
+    }
+
+    public int getOutputCount() {
+        return 1;
+    }
+
+    public void setSampleRate(float sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void process(float[][] inputs, float[][] outputs) {
+        long started = stats.begin();
+        render(outputs[0]);
+        stats.end(started, outputs[0].length, sampleRate);
+    }
+
+    public PerfStats getStats() {
+        return stats;
+    }
+
+    // Generate a sine wave based on input frequency
+    private void render(float[] outputSignal) {
+        queue.beginBlock(frameClock, outputSignal.length, sampleRate);
+        frameClock += outputSignal.length;
+        float radiansPerHz = (float) (2.0 * Math.PI / sampleRate);
+
+        int nextChange = queue.nextOffset();
+        for (int i = 0; i < outputSignal.length; i++) {
+            if (i == nextChange) {
+                while (queue.poll(i)) apply(queue.value());
+                nextChange = queue.nextOffset();
+            }
+            outputSignal[i] = (float) Math.sin(phase);
+            phase += frequency.next() * radiansPerHz;
+            if (phase > (float) (2.0 * Math.PI)) {
+                phase -= (float) (2.0 * Math.PI);
+            }
+        }
+        while (queue.pollLatest()) apply(queue.value());
+    }
+
+    private void apply(float value) {
+        frequency.setTarget(value, (int) (smoothMs * 0.001f * sampleRate));
+    }
+
+    // Any inlet sets the frequency
+    public void parameter(int inlet, float value) {
+        queue.push(0, Math.max(1.0f, Math.min(value, 20000.0f)));  // Clamp between 1 Hz and 20 kHz
+    }
+
+    // Glide time of frequency changes in milliseconds, 0 jumps
+    public void setSmoothing(float ms) {
+        smoothMs = Math.max(0.0f, Math.min(ms, 1000.0f));
+    }
+
+    // "smooth <ms>"
+    public boolean message(String name, String[] args) {
+        if (!name.equals("smooth") || args.length == 0) return false;
+        setSmoothing(Float.parseFloat(args[0]));
+        return true;
+    }
+}
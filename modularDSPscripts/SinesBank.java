@@ -0,0 +1,87 @@
+import com.cycling74.max.*;
+import com.cycling74.msp.*;
+import java.lang.reflect.Method;
+
+// Max adapter for AdditiveEngine: resynthesizes the peaks of SinesFilter in one object.
+// A list on the left inlet is read as bin amplitudes, the way the peaks outlet of maximums.js sends them;
+// "pairs f1 a1 f2 a2 ..." gives the frequencies directly. The right inlet sets the output gain.
+public class SinesBank extends MSPObject {
+    private final AdditiveEngine engine = new AdditiveEngine();
+    private final StatsReporter statsReporter = new StatsReporter(this, engine.getStats());
+    private final float[][] inputs = new float[0][];
+    private final float[][] outputs = new float[1][];
+
+    public SinesBank() {
+        declareInlets(new int[]{DataTypes.ALL, DataTypes.ALL}); // Peak lists and messages, Gain
+        declareOutlets(new int[]{SIGNAL});                       // Sum of the partials
+    }
+
+    @Override
+    public Method dsp(MSPSignal[] ins, MSPSignal[] outs) {
+        if (outs[0].sr > 0) engine.setSampleRate((float) outs[0].sr);
+        try {
+            return getClass().getDeclaredMethod("perform", MSPSignal[].class, MSPSignal[].class);
+        } catch (NoSuchMethodException e) {
+            //post("Error: Could not find perform method.");
+            return null;
+        }
+    }
+
+    public void perform(MSPSignal[] ins, MSPSignal[] outs) {
+        outputs[0] = outs[0].vec;
+        engine.process(inputs, outputs);
+    }
+
+    public void inlet(float value) {
+        engine.parameter(getInlet(), value);
+    }
+
+    // Bin amplitudes, zeros are not peaks
+    public void list(Atom[] args) {
+        if (getInlet() == 0) engine.setBins(Atom.toFloat(args));
+    }
+
+    // Frequency/amplitude pairs
+    public void pairs(Atom[] args) {
+        engine.setPairs(Atom.toFloat(args));
+    }
+
+    // Frequencies of the first and last bin of a list, the last defaults to Nyquist
+    public void binrange(Atom[] args) {
+        if (args.length == 0) return;
+        engine.setBinRange(args[0].getFloat(), args.length > 1 ? args[1].getFloat() : -1);
+    }
+
+    // Number of partial slots, up to 4096
+    public void maxpartials(int count) {
+        engine.setMaxPartials(count);
+    }
+
+    // Glide time of partial amplitudes and gain changes in milliseconds
+    public void smooth(float ms) {
+        engine.setSmoothing(ms);
+    }
+
+    // Partials quieter than this many dB below full scale are culled
+    public void threshold(float db) {
+        engine.setThreshold(db);
+    }
+
+    // Output the performance counters on the info outlet
+    public void stats() {
+        statsReporter.request();
+    }
+
+    // Output them every ms milliseconds, 0 stops
+    public void statsinterval(float ms) {
+        statsReporter.interval(ms);
+    }
+
+    public void statsreset() {
+        engine.getStats().reset();
+    }
+
+    public void notifyDeleted() {
+        statsReporter.release();
+    }
+}
@@ -0,0 +1,370 @@
+import com.cycling74.max.*;
+import com.cycling74.msp.*;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Spectral recorder/player replacing the jit.matrix recorder of the Freezer device.
+// Frames are stored as 16-bit log magnitude and 16-bit phase delta per bin in ring stores sized
+// from the FFT size and the duration, with several snapshot slots. Playback is phase-vocoder style:
+// magnitudes are interpolated between the two frames around a fractional position, phases accumulate.
+public class SpectralFreezer extends MSPObject {
+    private static final long MAX_STORE_BYTES = 1L << 30; // All snapshot slots together, 1 GB
+    private int fftSize = 2048;
+    private int overlap = 4;
+    private float seconds = 10.0f;      // Length of each snapshot
+    private int slots = 2;              // Number of snapshots
+    private boolean offHeap = false;    // Keep the stores outside the Java heap
+    private float sampleRate = 44100.0f;
+
+    private Engine engine = null;                   // Used by perform()
+    private final AtomicReference<Engine> pendingEngine = new AtomicReference<>(); // Rebuilt engine waiting to be swapped in
+    private volatile int recordSlot = -1;           // Slot being recorded, -1 when frozen
+    private volatile boolean recordRestart = false; // Clear the record slot before the next frame
+    private volatile int playSlot = 0;              // Slot played back
+    private volatile float position = 0.0f;         // Playback position 0..1 within the snapshot
+    private final PerfStats perfStats = new PerfStats();
+    private final StatsReporter statsReporter = new StatsReporter(this, perfStats);
+
+    public SpectralFreezer() {
+        declareInlets(new int[]{SIGNAL, DataTypes.ALL});  // Audio input, Playback position 0..1
+        declareOutlets(new int[]{SIGNAL});                // Frozen audio
+    }
+
+    @Override
+    public Method dsp(MSPSignal[] ins, MSPSignal[] outs) {
+        if (ins[0].sr > 0 && ins[0].sr != sampleRate) {
+            sampleRate = (float) ins[0].sr;
+            rebuild(); // Durations depend on the sample rate
+        } else if (engine == null && pendingEngine.get() == null) {
+            rebuild();
+        }
+        try {
+            return getClass().getDeclaredMethod("perform", MSPSignal[].class, MSPSignal[].class);
+        } catch (NoSuchMethodException e) {
+            //post("Error: Could not find perform method.");
+            return null;
+        }
+    }
+
+    public void perform(MSPSignal[] ins, MSPSignal[] outs) {
+        long started = perfStats.begin();
+        Engine rebuilt = pendingEngine.getAndSet(null); // Never loses an engine built while this block takes one
+        if (rebuilt != null) engine = rebuilt;
+        if (engine == null) {
+            Arrays.fill(outs[0].vec, 0.0f);
+        } else {
+            engine.process(ins[0].vec, outs[0].vec);
+        }
+        perfStats.end(started, outs[0].vec.length, sampleRate);
+    }
+
+    // Playback position within the snapshot, 0..1
+    public void inlet(float value) {
+        if (getInlet() == 1) position = Math.max(0.0f, Math.min(value, 1.0f));
+    }
+
+    // Start recording into a slot, replacing its previous content
+    public void record(int slot) {
+        if (slot < 0 || slot >= slots) {
+            error("SpectralFreezer: no slot " + slot);
+            return;
+        }
+        recordSlot = slot;
+        recordRestart = true;
+    }
+
+    // Freeze: stop recording, the slot keeps the last frames it received
+    public void stop() {
+        recordSlot = -1;
+    }
+
+    // Choose the snapshot that is played back
+    public void play(int slot) {
+        playSlot = Math.max(0, Math.min(slot, slots - 1));
+    }
+
+    // Each setting below rebuilds the engine; one that would not fit is refused and the old one kept
+    public void seconds(float length) {
+        float previous = seconds;
+        seconds = Math.max(0.1f, Math.min(length, 600.0f));
+        if (!rebuild()) seconds = previous;
+    }
+
+    public void slots(int count) {
+        int previous = slots;
+        slots = Math.max(1, Math.min(count, 64));
+        if (!rebuild()) slots = previous;
+    }
+
+    public void fftsize(int size) {
+        int previous = fftSize;
+        fftSize = Integer.highestOneBit(Math.max(256, Math.min(size, 16384)));
+        if (!rebuild()) fftSize = previous;
+    }
+
+    public void overlap(int factor) {
+        int previous = overlap;
+        overlap = Integer.highestOneBit(Math.max(2, Math.min(factor, 16)));
+        if (!rebuild()) overlap = previous;
+    }
+
+    // 1: allocate the stores as direct (off-heap) buffers
+    public void offheap(int on) {
+        boolean previous = offHeap;
+        offHeap = on != 0;
+        if (!rebuild()) offHeap = previous;
+    }
+
+    // Output the performance counters on the info outlet
+    public void stats() {
+        statsReporter.request();
+    }
+
+    // Output them every ms milliseconds, 0 stops
+    public void statsinterval(float ms) {
+        statsReporter.interval(ms);
+    }
+
+    public void statsreset() {
+        perfStats.reset();
+    }
+
+    public void notifyDeleted() {
+        statsReporter.release();
+    }
+
+    // Allocate a new engine on the message thread; recorded snapshots are discarded. False, with an error, if
+    // the stores would go over MAX_STORE_BYTES or do not fit in memory: the current engine keeps playing then.
+    private boolean rebuild() {
+        int hop = fftSize / overlap;
+        long frames = Math.max(2, (long) Math.ceil(seconds * sampleRate / hop));
+        long bytes = SpectralStore.bytes(fftSize / 2 + 1, frames) * slots;
+        if (bytes > MAX_STORE_BYTES) {
+            error("SpectralFreezer: " + (bytes >> 20) + " MB of snapshots, over the " + (MAX_STORE_BYTES >> 20)
+                    + " MB limit; lower seconds, slots, overlap or fftsize");
+            return false;
+        }
+        try {
+            pendingEngine.set(new Engine(fftSize, overlap, slots, (int) frames, offHeap));
+            return true;
+        } catch (OutOfMemoryError e) {
+            error("SpectralFreezer: not enough memory for " + (bytes >> 20) + " MB of snapshots");
+            return false;
+        }
+    }
+
+    // Compact frame store: two 16-bit codes per bin, written as a ring
+    private static class SpectralStore {
+        final int bins;
+        final int capacity;       // Frames that fit
+        final ShortBuffer codes;  // [frame][bin][magnitude code, phase code]
+        int written = 0;          // Frames recorded, up to capacity
+        int writePos = 0;         // Next frame to overwrite
+
+        SpectralStore(int bins, int capacity, boolean offHeap) {
+            this.bins = bins;
+            this.capacity = capacity;
+            int size = (int) bytes(bins, capacity); // Checked against MAX_STORE_BYTES by rebuild()
+            codes = (offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size)).asShortBuffer();
+        }
+
+        // Bytes of a store: two 16-bit codes per bin and frame
+        static long bytes(int bins, long frames) {
+            return frames * bins * 2 * 2;
+        }
+
+        void clear() {
+            written = 0;
+            writePos = 0;
+        }
+
+        void write(float[] magnitudes, float[] deltas) {
+            int base = writePos * bins * 2;
+            for (int k = 0; k < bins; k++) {
+                codes.put(base + 2 * k, encodeMagnitude(magnitudes[k]));
+                codes.put(base + 2 * k + 1, encodePhase(deltas[k]));
+            }
+            writePos = (writePos + 1) % capacity;
+            if (written < capacity) written++;
+        }
+
+        // Physical frame of the logical frame index, 0 being the oldest frame
+        int frame(int index) {
+            return written < capacity ? index : (writePos + index) % capacity;
+        }
+
+        float magnitude(int frame, int bin) {
+            return MAGNITUDES[codes.get((frame * bins + bin) * 2) & 0xFFFF];
+        }
+
+        float phase(int frame, int bin) {
+            return codes.get((frame * bins + bin) * 2 + 1) * PHASE_STEP;
+        }
+    }
+
+    // Magnitudes are stored in dB, 0.005 dB steps from -160 dB; code 0 is silence
+    private static final float DB_FLOOR = -160.0f;
+    private static final float DB_STEP = 0.005f;
+    private static final float[] MAGNITUDES = buildMagnitudeTable();
+    private static final float PHASE_STEP = (float) (Math.PI / 32768.0);
+
+    private static float[] buildMagnitudeTable() {
+        float[] table = new float[65536];
+        for (int code = 1; code < table.length; code++) {
+            table[code] = (float) Math.pow(10.0, (DB_FLOOR + code * DB_STEP) / 20.0);
+        }
+        return table;
+    }
+
+    private static short encodeMagnitude(float magnitude) {
+        if (magnitude <= 0) return 0;
+        float db = 20.0f * (float) Math.log10(magnitude);
+        int code = Math.round((db - DB_FLOOR) / DB_STEP);
+        return (short) Math.max(1, Math.min(code, 65535));
+    }
+
+    private static short encodePhase(float phase) {
+        return (short) Math.max(-32768, Math.min(Math.round(phase / PHASE_STEP), 32767));
+    }
+
+    // Streaming analysis/resynthesis with preallocated frames and the snapshot stores
+    private class Engine {
+        final int size;
+        final int hop;
+        final int fifoStart;
+        final int bins;
+        final RealFFT fft;
+        final float[] analysisWindow;
+        final float[] synthesisWindow; // Includes the overlap-add normalization
+        final float[] inFifo;
+        final float[] outFifo;
+        final float[] accumulator;
+        final float[] frame;
+        final float[] re;
+        final float[] im;
+        final float[] magnitudes;
+        final float[] deltas;
+        final float[] lastPhases;   // Analysis phases of the previous frame
+        final float[] phaseAccum;   // Resynthesis phases
+        final SpectralStore[] stores;
+        int rover;
+
+        Engine(int size, int overlap, int slotCount, int frames, boolean offHeap) {
+            this.size = size;
+            this.hop = size / overlap;
+            this.fifoStart = size - hop;
+            this.bins = size / 2 + 1;
+            fft = new RealFFT(size);
+            analysisWindow = new float[size];
+            synthesisWindow = new float[size];
+            inFifo = new float[size];
+            outFifo = new float[hop];
+            accumulator = new float[size];
+            frame = new float[size];
+            re = new float[bins];
+            im = new float[bins];
+            magnitudes = new float[bins];
+            deltas = new float[bins];
+            lastPhases = new float[bins];
+            phaseAccum = new float[bins];
+            stores = new SpectralStore[slotCount];
+            for (int s = 0; s < slotCount; s++) {
+                stores[s] = new SpectralStore(bins, Math.max(2, frames), offHeap);
+            }
+            rover = fifoStart;
+
+            // Periodic Hann on both sides, normalized so the squared windows sum to one across overlaps
+            for (int n = 0; n < size; n++) {
+                analysisWindow[n] = (float) (0.5 - 0.5 * Math.cos(2.0 * Math.PI * n / size));
+            }
+            for (int n = 0; n < size; n++) {
+                double sum = 0;
+                for (int k = n % hop; k < size; k += hop) {
+                    sum += analysisWindow[k] * analysisWindow[k];
+                }
+                synthesisWindow[n] = (float) (analysisWindow[n] / Math.max(sum, 1e-6));
+            }
+        }
+
+        void process(float[] input, float[] output) {
+            for (int i = 0; i < input.length; i++) {
+                inFifo[rover] = input[i];
+                output[i] = outFifo[rover - fifoStart];
+                rover++;
+
+                if (rover >= size) {
+                    rover = fifoStart;
+                    processFrame();
+                }
+            }
+        }
+
+        private void processFrame() {
+            int slot = recordSlot;
+            if (slot >= 0 && slot < stores.length) {
+                if (recordRestart) {
+                    recordRestart = false;
+                    stores[slot].clear();
+                }
+                analyse(stores[slot]);
+            }
+
+            int play = playSlot;
+            SpectralStore store = play < stores.length ? stores[play] : null;
+            if (store != null && store.written >= 2) {
+                synthesize(store);
+                for (int n = 0; n < size; n++) {
+                    accumulator[n] += frame[n] * synthesisWindow[n];
+                }
+            }
+            System.arraycopy(accumulator, 0, outFifo, 0, hop);
+
+            // Advance by one hop
+            System.arraycopy(accumulator, hop, accumulator, 0, size - hop);
+            Arrays.fill(accumulator, size - hop, size, 0.0f);
+            System.arraycopy(inFifo, hop, inFifo, 0, fifoStart);
+        }
+
+        // Magnitudes and wrapped phase differences of the current input frame
+        private void analyse(SpectralStore store) {
+            for (int n = 0; n < size; n++) {
+                frame[n] = inFifo[n] * analysisWindow[n];
+            }
+            fft.forward(frame, re, im);
+            for (int k = 0; k < bins; k++) {
+                float phase = (float) Math.atan2(im[k], re[k]);
+                float delta = phase - lastPhases[k];
+                lastPhases[k] = phase;
+                if (delta > Math.PI) delta -= (float) (2.0 * Math.PI);
+                else if (delta < -Math.PI) delta += (float) (2.0 * Math.PI);
+                magnitudes[k] = (float) Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+                deltas[k] = delta;
+            }
+            store.write(magnitudes, deltas);
+        }
+
+        // Frame at the fractional playback position, phases advanced by the stored deltas
+        private void synthesize(SpectralStore store) {
+            float framePos = position * (store.written - 1);
+            int index = Math.min((int) framePos, store.written - 2);
+            float frac = framePos - index;
+            int a = store.frame(index);
+            int b = store.frame(index + 1);
+            int nearest = frac < 0.5f ? a : b;
+
+            for (int k = 0; k < bins; k++) {
+                float magnitude = store.magnitude(a, k) + frac * (store.magnitude(b, k) - store.magnitude(a, k));
+                float phase = phaseAccum[k] + store.phase(nearest, k);
+                if (phase > Math.PI) phase -= (float) (2.0 * Math.PI); // Keep the accumulator small
+                else if (phase < -Math.PI) phase += (float) (2.0 * Math.PI);
+                phaseAccum[k] = phase;
+                re[k] = magnitude * (float) Math.cos(phase);
+                im[k] = magnitude * (float) Math.sin(phase);
+            }
+            fft.inverse(re, im, frame);
+        }
+    }
+}
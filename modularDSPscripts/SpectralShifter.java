@@ -0,0 +1,221 @@
+import com.cycling74.max.*;
+import com.cycling74.msp.*;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+// Self-contained STFT version of the TransferShifter chain (pfft~ -> buffer~ -> ShiftBuffer -> buffer~).
+// Frames are analysed, remapped through the "transfervalues" curve and resynthesized on the audio thread,
+// with a fixed latency of exactly fftsize samples whatever the signal vector size.
+public class SpectralShifter extends MSPObject {
+    private String transferName = "transfervalues"; // Buffer holding the bin transfer curve
+    private int fftSize = 2048;
+    private int overlap = 4;
+    private boolean fractional = true;                   // Split fractional targets between two bins
+
+    private Stft stft = new Stft(fftSize, overlap);      // Frames used by perform()
+    private volatile Stft pendingStft = null;            // Resized engine waiting to be swapped in
+    private volatile RemapPlan plan = null;              // Compiled transfer curve, null until loaded
+    private float sampleRate = 44100.0f;
+    private final PerfStats perfStats = new PerfStats();
+    private final StatsReporter statsReporter = new StatsReporter(this, perfStats);
+
+    public SpectralShifter() {
+        declareInlets(new int[]{SIGNAL});  // Audio input
+        declareOutlets(new int[]{SIGNAL}); // Shifted audio
+        loadTransfer();
+    }
+
+    @Override
+    public Method dsp(MSPSignal[] ins, MSPSignal[] outs) {
+        loadTransfer(); // Pick up a curve that was written before DSP started
+        if (ins[0].sr > 0) sampleRate = (float) ins[0].sr;
+        try {
+            return getClass().getDeclaredMethod("perform", MSPSignal[].class, MSPSignal[].class);
+        } catch (NoSuchMethodException e) {
+            //post("Error: Could not find perform method.");
+            return null;
+        }
+    }
+
+    public void perform(MSPSignal[] ins, MSPSignal[] outs) {
+        long started = perfStats.begin();
+        Stft resized = pendingStft;
+        if (resized != null) {
+            stft = resized;
+            pendingStft = null;
+        }
+        stft.process(ins[0].vec, outs[0].vec, plan);
+        perfStats.end(started, outs[0].vec.length, sampleRate);
+    }
+
+    // Recompile the plan after the transfer curve was edited
+    public void transfer() {
+        loadTransfer();
+    }
+
+    // 1: fractional targets are split between the two nearest bins, 0: targets are rounded
+    public void fractional(int on) {
+        fractional = on != 0;
+        loadTransfer();
+    }
+
+    // FFT size (power of two) and overlap factor; the new frames are allocated here, never in perform()
+    public void fftsize(int size) {
+        int n = Integer.highestOneBit(Math.max(64, Math.min(size, 65536)));
+        resize(n, overlap);
+    }
+
+    public void overlap(int factor) {
+        int o = Integer.highestOneBit(Math.max(2, Math.min(factor, 16)));
+        resize(fftSize, o);
+    }
+
+    // Report the latency in samples on the info outlet
+    public void latency() {
+        outlet(getInfoIdx(), "latency", new Atom[]{Atom.newAtom(fftSize)});
+    }
+
+    // Output the performance counters on the info outlet
+    public void stats() {
+        statsReporter.request();
+    }
+
+    // Output them every ms milliseconds, 0 stops
+    public void statsinterval(float ms) {
+        statsReporter.interval(ms);
+    }
+
+    public void statsreset() {
+        perfStats.reset();
+    }
+
+    public void notifyDeleted() {
+        statsReporter.release();
+    }
+
+    private void resize(int size, int factor) {
+        fftSize = size;
+        overlap = factor;
+        pendingStft = new Stft(size, factor);
+        loadTransfer();
+    }
+
+    // Compile the transfer curve for the current FFT size and publish it to perform()
+    private void loadTransfer() {
+        int bins = fftSize / 2;
+        float[] curve = MSPBuffer.peek(transferName, 1);
+        float[] targets = new float[bins];
+        if (curve.length == 0) {
+            for (int i = 0; i < bins; i++) targets[i] = i; // No curve yet, pass the spectrum through
+        } else {
+            // The curve maps curve.length bins; rescale it to the bins of this FFT size
+            float scale = bins / (float) curve.length;
+            for (int i = 0; i < bins; i++) {
+                int index = Math.min((int) (i / scale), curve.length - 1);
+                targets[i] = curve[index] * scale;
+            }
+        }
+        RemapPlan compiled = new RemapPlan(bins);
+        compiled.compile(targets, fractional);
+        plan = compiled;
+    }
+
+    // Streaming STFT state: input FIFO, overlap-add accumulator and frame scratch, all preallocated
+    private static class Stft {
+        final int size;
+        final int hop;
+        final int fifoStart; // Input samples kept from the previous frame
+        final RealFFT fft;
+        final float[] analysisWindow;
+        final float[] synthesisWindow; // Includes the overlap-add normalization
+        final float[] inFifo;
+        final float[] outFifo;
+        final float[] accumulator;
+        final float[] frame;
+        final float[] re;
+        final float[] im;
+        final float[] amplitudes;
+        final float[] phases;
+        final float[] newAmplitudes;
+        final float[] newPhases;
+        int rover;
+
+        Stft(int size, int overlap) {
+            this.size = size;
+            this.hop = size / overlap;
+            this.fifoStart = size - hop;
+            fft = new RealFFT(size);
+            int bins = size / 2 + 1;
+            analysisWindow = new float[size];
+            synthesisWindow = new float[size];
+            inFifo = new float[size];
+            outFifo = new float[hop];
+            accumulator = new float[size];
+            frame = new float[size];
+            re = new float[bins];
+            im = new float[bins];
+            amplitudes = new float[bins];
+            phases = new float[bins];
+            newAmplitudes = new float[bins];
+            newPhases = new float[bins];
+            rover = fifoStart;
+
+            // Periodic Hann on both sides, normalized so the squared windows sum to one across overlaps
+            for (int n = 0; n < size; n++) {
+                analysisWindow[n] = (float) (0.5 - 0.5 * Math.cos(2.0 * Math.PI * n / size));
+            }
+            for (int n = 0; n < size; n++) {
+                double sum = 0;
+                for (int k = n % hop; k < size; k += hop) {
+                    sum += analysisWindow[k] * analysisWindow[k];
+                }
+                synthesisWindow[n] = (float) (analysisWindow[n] / Math.max(sum, 1e-6));
+            }
+        }
+
+        void process(float[] input, float[] output, RemapPlan plan) {
+            for (int i = 0; i < input.length; i++) {
+                inFifo[rover] = input[i];
+                output[i] = outFifo[rover - fifoStart];
+                rover++;
+
+                if (rover >= size) {
+                    rover = fifoStart;
+                    processFrame(plan);
+                }
+            }
+        }
+
+        private void processFrame(RemapPlan plan) {
+            for (int n = 0; n < size; n++) {
+                frame[n] = inFifo[n] * analysisWindow[n];
+            }
+            fft.forward(frame, re, im);
+
+            int bins = size / 2;
+            if (plan != null && plan.getBins() == bins) {
+                for (int k = 0; k < bins; k++) {
+                    amplitudes[k] = (float) Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+                    phases[k] = (float) Math.atan2(im[k], re[k]);
+                }
+                plan.apply(amplitudes, phases, newAmplitudes, newPhases);
+                for (int k = 0; k < bins; k++) {
+                    re[k] = newAmplitudes[k] * (float) Math.cos(newPhases[k]);
+                    im[k] = newAmplitudes[k] * (float) Math.sin(newPhases[k]);
+                }
+                // The Nyquist bin is outside the curve and passes through unchanged
+            }
+            fft.inverse(re, im, frame);
+
+            for (int n = 0; n < size; n++) {
+                accumulator[n] += frame[n] * synthesisWindow[n];
+            }
+            System.arraycopy(accumulator, 0, outFifo, 0, hop);
+
+            // Advance by one hop
+            System.arraycopy(accumulator, hop, accumulator, 0, size - hop);
+            Arrays.fill(accumulator, size - hop, size, 0.0f);
+            System.arraycopy(inFifo, hop, inFifo, 0, fifoStart);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import com.cycling74.max.*;
+
+// Publishes the PerfStats of an mxj~ object on its info outlet, on request or periodically.
+// Output always happens from the low-priority thread through a qelem; the audio thread is never involved.
+//   load <average %> <peak %>      block duration relative to the block deadline
+//   histogram <n> ...              blocks under 6.25, 12.5, 25, 50, 75, 100 % of the deadline, then overruns
+//   overruns, blocks, voices <current> <peak>, spawned, stolen, dropped, misses
+public final class StatsReporter {
+    private final MaxObject owner;
+    private final PerfStats stats;
+    private final MaxQelem qelem;
+    private final MaxClock clock;
+    private volatile double intervalMs = 0; // Periodic output, 0 when off
+
+    public StatsReporter(MaxObject owner, PerfStats stats) {
+        this.owner = owner;
+        this.stats = stats;
+        qelem = new MaxQelem(new Executable() {
+            public void execute() {
+                report();
+            }
+        });
+        clock = new MaxClock(new Executable() {
+            public void execute() {
+                qelem.set();
+                double ms = intervalMs;
+                if (ms > 0) clock.delay(ms);
+            }
+        });
+    }
+
+    // Output the counters once
+    public void request() {
+        qelem.set();
+    }
+
+    // Output the counters every ms milliseconds, 0 stops
+    public void interval(float ms) {
+        intervalMs = ms <= 0 ? 0 : Math.max(ms, 20.0f);
+        if (intervalMs > 0) {
+            clock.delay(0);
+        } else {
+            clock.unset();
+        }
+    }
+
+    private void report() {
+        int info = owner.getInfoIdx();
+        Atom[] histogram = new Atom[PerfStats.BUCKETS];
+        for (int b = 0; b < PerfStats.BUCKETS; b++) {
+            histogram[b] = Atom.newAtom((int) stats.get(PerfStats.HISTOGRAM + b));
+        }
+        owner.outlet(info, "load", new Atom[]{Atom.newAtom(100.0f * (float) stats.averageLoad()), Atom.newAtom(100.0f * (float) stats.peakLoad())});
+        owner.outlet(info, "histogram", histogram);
+        owner.outlet(info, "overruns", new Atom[]{histogram[PerfStats.BUCKETS - 1]});
+        owner.outlet(info, "blocks", new Atom[]{Atom.newAtom((int) stats.get(PerfStats.BLOCKS))});
+        owner.outlet(info, "voices", new Atom[]{Atom.newAtom((int) stats.get(PerfStats.VOICES)), Atom.newAtom((int) stats.get(PerfStats.PEAK_VOICES))});
+        owner.outlet(info, "spawned", new Atom[]{Atom.newAtom((int) stats.get(PerfStats.SPAWNED))});
+        owner.outlet(info, "stolen", new Atom[]{Atom.newAtom((int) stats.get(PerfStats.STOLEN))});
+        owner.outlet(info, "dropped", new Atom[]{Atom.newAtom((int) stats.get(PerfStats.DROPPED))});
+        owner.outlet(info, "misses", new Atom[]{Atom.newAtom((int) stats.get(PerfStats.MISSES))});
+    }
+
+    public void release() {
+        intervalMs = 0;
+        clock.release();
+        qelem.release();
+    }
+}
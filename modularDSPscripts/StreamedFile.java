@@ -0,0 +1,424 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Long WAV/AIFF file played straight from disk. The sample data is memory-mapped, never read as a whole;
+// a loader thread decodes fixed-size pages around the current read position into a bounded page cache,
+// so memory use depends on the cache size, not on the file length, and opening a file costs only its header.
+// The audio thread never blocks: a page that is not resident reads as silence and wakes the loader.
+// Pages are recycled only after the audio thread finished the block it was in when the page was unmapped.
+public final class StreamedFile implements Closeable {
+    public static final int PAGE_SHIFT = 14;
+    public static final int PAGE_FRAMES = 1 << PAGE_SHIFT; // Frames per page, about 0.37 s at 44.1 kHz
+    private static final int MARGIN = 32;                   // Frames of the neighbouring pages on each side, covers the sinc taps
+    private static final int PAGE_LENGTH = PAGE_FRAMES + 2 * MARGIN;
+    private static final long REGION_BYTES = 1L << 30;      // Mapped at most this much (plus a page) at a time
+    private static final double READ_AHEAD_SECONDS = 2.0;   // Playback time decoded ahead of the read position
+    private static final long LOADER_NANOS = 5_000_000L;    // Loader wake-up interval when no page is missing
+    public static final long DEFAULT_CACHE_BYTES = 32L << 20;
+
+    public final int channelCount;
+    public final float sampleRate;
+    public final long frames;
+    private final String name;
+
+    // Sample layout of the data chunk
+    private final int bytes;
+    private final boolean isFloat;
+    private final boolean unsigned8; // WAV stores 8-bit samples unsigned, AIFF signed
+    private final int frameBytes;
+    private final FileChannel file;
+    private final MappedByteBuffer[] regions; // Region k starts at frame k * regionFrames
+    private final long regionFrames;
+
+    // Page cache: slots written by the loader, looked up by the audio thread through pageSlot
+    private final float[][][] slotData;        // [slot][channel][PAGE_LENGTH]
+    private final int[] slotPage;              // Loader: page held by the slot, -1 if free
+    private final long[] slotUsed;             // Loader: last pass that wanted the slot's page
+    private final AtomicIntegerArray pageSlot; // Slot of each page, -1 if not resident
+    private final int[] wanted;                // Loader: pages of the current pass, nearest first
+    private final int[] victims;               // Loader: slots to refill in the current pass
+    private long pass = 0;
+
+    // Published by the audio thread: block counter (odd while inside a block) and where it reads
+    private volatile long epoch = 0;
+    private volatile long readPosition = 0;
+    private volatile long windowStart = 0;
+    private volatile long windowEnd = 0;
+    private volatile double framesPerSecond = 0;
+    private volatile long jumpPosition = -1; // Where reading will jump to next (a pending range), -1 if nowhere
+    private boolean missed = false; // Audio thread only
+
+    private final Thread loader;
+    private volatile boolean closed = false;
+
+    private StreamedFile(Path path, FileChannel file, Layout layout, long cacheBytes) throws IOException {
+        this.name = path.getFileName().toString();
+        this.file = file;
+        this.channelCount = layout.channels;
+        this.sampleRate = layout.sampleRate;
+        this.bytes = layout.bits / 8;
+        this.isFloat = layout.isFloat;
+        this.unsigned8 = layout.unsigned8;
+        this.frameBytes = bytes * channelCount;
+        long available = (file.size() - layout.dataOffset) / frameBytes;
+        this.frames = Math.max(0, Math.min(layout.dataBytes / frameBytes, available));
+        if (frames / PAGE_FRAMES >= Integer.MAX_VALUE) throw new IOException(name + ": file too long");
+
+        // Overlapping read-only mappings, so that every page lies inside one region
+        regionFrames = REGION_BYTES / frameBytes;
+        int regionCount = (int) Math.max(1, (frames + regionFrames - 1) / regionFrames);
+        regions = new MappedByteBuffer[regionCount];
+        for (int k = 0; k < regionCount; k++) {
+            long offset = layout.dataOffset + k * regionFrames * frameBytes;
+            long length = Math.min((regionFrames + PAGE_LENGTH) * frameBytes, layout.dataOffset + frames * frameBytes - offset);
+            regions[k] = file.map(FileChannel.MapMode.READ_ONLY, offset, Math.max(0, length));
+            regions[k].order(layout.bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        }
+
+        int pages = (int) ((frames + PAGE_FRAMES - 1) >>> PAGE_SHIFT);
+        int slots = (int) Math.max(4, Math.min(cacheBytes / ((long) channelCount * PAGE_LENGTH * 4), Math.max(4, pages)));
+        slotData = new float[slots][channelCount][PAGE_LENGTH];
+        slotPage = new int[slots];
+        slotUsed = new long[slots];
+        Arrays.fill(slotPage, -1);
+        pageSlot = new AtomicIntegerArray(Math.max(1, pages));
+        for (int p = 0; p < pages; p++) pageSlot.set(p, -1);
+        wanted = new int[slots];
+        victims = new int[slots];
+        windowEnd = frames;
+
+        loader = new Thread(this::load, "StreamedFile " + name);
+        loader.setDaemon(true);
+        loader.setPriority(Thread.NORM_PRIORITY + 1);
+        loader.start();
+    }
+
+    // Open a WAV or AIFF/AIFC file; only the header is read here, decoding starts on the loader thread
+    public static StreamedFile open(Path path, long cacheBytes) throws IOException {
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new StreamedFile(path, file, Layout.parse(file, path), cacheBytes);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Bytes held by the page cache
+    public long getCacheBytes() {
+        return (long) slotData.length * channelCount * PAGE_LENGTH * 4;
+    }
+
+    // Audio thread: call before the first read() of a block
+    public void beginBlock() {
+        epoch++; // Odd: pages mapped now stay valid until endBlock()
+    }
+
+    // Audio thread: interpolated read of a 0-based channel at a fractional frame, moving speed frames per sample;
+    // silence if the page is not loaded
+    public float read(int channel, double position, int mode, double speed) {
+        double clamped = Math.max(0.0, Math.min(position, frames - 1));
+        int page = (int) ((long) clamped >>> PAGE_SHIFT);
+        int slot = pageSlot.get(page);
+        if (slot < 0) {
+            missed = true;
+            return 0.0f;
+        }
+        float[] data = slotData[slot][Math.min(channel, channelCount - 1)];
+        return Interpolator.read(data, clamped - ((long) page << PAGE_SHIFT) + MARGIN, mode, speed);
+    }
+
+    // Audio thread: end the block and tell the loader where reading goes on: [start, end) is the range it loops in,
+    // speed how many frames it moves per second and jump where it will continue after a jump, or -1.
+    // True if a read missed during the block.
+    public boolean endBlock(long position, long start, long end, double speed, long jump) {
+        readPosition = position;
+        windowStart = start;
+        windowEnd = end;
+        framesPerSecond = speed;
+        jumpPosition = jump;
+        epoch++;
+        boolean blockMissed = missed;
+        if (blockMissed) {
+            missed = false;
+            LockSupport.unpark(loader);
+        }
+        return blockMissed;
+    }
+
+    // Stop the loader; blocks still running keep reading the pages already decoded
+    public void close() {
+        closed = true;
+        LockSupport.unpark(loader);
+        try {
+            file.close();
+        } catch (IOException e) {
+            // Mappings stay readable after the channel is closed
+        }
+    }
+
+    private void load() {
+        while (!closed) {
+            try {
+                fill();
+            } catch (RuntimeException e) {
+                // A file truncated while mapped; keep serving what is resident
+            }
+            LockSupport.parkNanos(this, LOADER_NANOS);
+        }
+    }
+
+    // One loader pass: decode the pages ahead of the read position that are missing, evicting the least recently wanted
+    private void fill() {
+        pass++;
+        long start = Math.max(0, Math.min(windowStart, frames - 1));
+        long end = Math.max(start + 1, Math.min(windowEnd, frames));
+        long position = Math.max(start, Math.min(readPosition, end - 1));
+        long span = end - start;
+        long ahead = (long) Math.max(framesPerSecond * READ_AHEAD_SECONDS, 2.0 * PAGE_FRAMES);
+        ahead = Math.min(Math.min(ahead, span), (long) (wanted.length - 3) * PAGE_FRAMES);
+
+        // Pages from the read position forward, wrapping at the end of the range, then the one behind it
+        // and the first two at the jump target
+        int count = 0;
+        int behind = (int) (Math.max(0, position - MARGIN) >>> PAGE_SHIFT);
+        long walked = 0;
+        long f = position;
+        int last = -1;
+        while (walked <= ahead && count < wanted.length - 3) {
+            int page = (int) (f >>> PAGE_SHIFT);
+            if (page != last) wanted[count++] = page;
+            last = page;
+            long next = Math.min((long) (page + 1) << PAGE_SHIFT, end);
+            walked += next - f;
+            f = next >= end ? start : next;
+        }
+        if (behind != wanted[0]) wanted[count++] = behind;
+        long jump = jumpPosition;
+        if (jump >= 0 && jump < frames) {
+            int page = (int) (jump >>> PAGE_SHIFT);
+            wanted[count++] = page;
+            if ((long) (page + 1) << PAGE_SHIFT < frames) wanted[count++] = page + 1;
+        }
+
+        // Keep what is resident, pick a slot for each missing page
+        for (int i = 0; i < count; i++) {
+            int slot = pageSlot.get(wanted[i]);
+            if (slot >= 0) slotUsed[slot] = pass;
+        }
+        int loads = 0;
+        for (int i = 0; i < count; i++) {
+            if (pageSlot.get(wanted[i]) >= 0 || isQueued(wanted, i)) continue;
+            int slot = leastRecentlyUsed();
+            if (slot < 0) break; // Every slot is wanted in this pass
+            if (slotPage[slot] >= 0) pageSlot.set(slotPage[slot], -1);
+            slotPage[slot] = -1;
+            slotUsed[slot] = pass;
+            victims[loads] = slot;
+            wanted[loads++] = wanted[i]; // Compacts the pages to load to the front, in order
+        }
+        if (loads == 0) return;
+
+        waitForAudio();
+        for (int i = 0; i < loads && !closed; i++) {
+            decode(wanted[i], slotData[victims[i]]);
+            slotPage[victims[i]] = wanted[i];
+            pageSlot.set(wanted[i], victims[i]); // Publishes the decoded samples
+        }
+    }
+
+    // True if the page at index i already appeared earlier in the list (a short range wraps onto itself)
+    private static boolean isQueued(int[] pages, int i) {
+        for (int j = 0; j < i; j++) {
+            if (pages[j] == pages[i]) return true;
+        }
+        return false;
+    }
+
+    private int leastRecentlyUsed() {
+        int best = -1;
+        for (int s = 0; s < slotPage.length; s++) {
+            if (slotUsed[s] == pass) continue;
+            if (slotPage[s] < 0) return s;
+            if (best < 0 || slotUsed[s] < slotUsed[best]) best = s;
+        }
+        return best;
+    }
+
+    // Wait until the audio thread is outside the block it may have looked up the unmapped pages in
+    private void waitForAudio() {
+        long e = epoch;
+        if ((e & 1) == 0) return;
+        long deadline = System.nanoTime() + 1_000_000_000L; // A stalled audio thread reads nothing anyway
+        while (epoch == e && !closed && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(100_000L);
+        }
+    }
+
+    // Decode a page and its margins, frames outside the file repeat the first/last frame
+    private void decode(int page, float[][] target) {
+        long first = ((long) page << PAGE_SHIFT) - MARGIN;
+        long firstFrame = Math.max(0, Math.min(first, frames - 1));
+        int k = (int) (firstFrame / regionFrames);
+        ByteBuffer region = regions[k];
+        long base = (long) k * regionFrames;
+        for (int i = 0; i < PAGE_LENGTH; i++) {
+            long frame = Math.max(0, Math.min(first + i, frames - 1));
+            int p = (int) ((frame - base) * frameBytes);
+            for (int ch = 0; ch < channelCount; ch++) {
+                target[ch][i] = sample(region, p + ch * bytes);
+            }
+        }
+    }
+
+    private float sample(ByteBuffer data, int p) {
+        if (isFloat) return bytes == 4 ? data.getFloat(p) : (float) data.getDouble(p);
+        switch (bytes) {
+            case 1:
+                return unsigned8 ? ((data.get(p) & 0xFF) - 128) / 128.0f : data.get(p) / 128.0f;
+            case 2:
+                return data.getShort(p) / 32768.0f;
+            case 3: {
+                boolean big = data.order() == ByteOrder.BIG_ENDIAN;
+                int hi = data.get(big ? p : p + 2);
+                int mid = data.get(p + 1) & 0xFF;
+                int lo = data.get(big ? p + 2 : p) & 0xFF;
+                return ((hi << 16) | (mid << 8) | lo) / 8388608.0f;
+            }
+            default:
+                return data.getInt(p) / 2147483648.0f;
+        }
+    }
+
+    // Format and position of the sample data, from a WAV or AIFF/AIFC header
+    private static final class Layout {
+        int channels;
+        float sampleRate;
+        int bits;
+        boolean isFloat;
+        boolean bigEndian;
+        boolean unsigned8;
+        long dataOffset = -1;
+        long dataBytes;
+
+        static Layout parse(FileChannel file, Path path) throws IOException {
+            ByteBuffer head = readAt(file, 0, 12);
+            int id = head.order(ByteOrder.BIG_ENDIAN).getInt(0);
+            int form = head.getInt(8);
+            Layout layout;
+            if (id == 0x52494646 && form == 0x57415645) {        // "RIFF" "WAVE"
+                layout = parseWave(file, path);
+            } else if (id == 0x464F524D && (form == 0x41494646 || form == 0x41494643)) { // "FORM" "AIFF"/"AIFC"
+                layout = parseAiff(file, path);
+            } else {
+                throw new IOException(path + ": not a WAV or AIFF file");
+            }
+            int bytes = layout.bits / 8;
+            boolean supported = layout.isFloat ? (bytes == 4 || bytes == 8) : (bytes >= 1 && bytes <= 4 && layout.bits % 8 == 0);
+            if (!supported || layout.channels <= 0 || layout.dataOffset < 0) {
+                throw new IOException(path + ": unsupported sample format (" + layout.bits + " bits)");
+            }
+            return layout;
+        }
+
+        private static Layout parseWave(FileChannel file, Path path) throws IOException {
+            Layout layout = new Layout();
+            layout.unsigned8 = true;
+            int format = -1;
+            long pos = 12;
+            while (pos + 8 <= file.size()) {
+                ByteBuffer chunk = readAt(file, pos, 8).order(ByteOrder.LITTLE_ENDIAN);
+                int id = chunk.getInt(0);
+                long size = chunk.getInt(4) & 0xFFFFFFFFL;
+                long body = pos + 8;
+                if (id == 0x20746D66) { // "fmt "
+                    ByteBuffer fmt = readAt(file, body, (int) Math.min(size, 40)).order(ByteOrder.LITTLE_ENDIAN);
+                    format = fmt.getShort(0) & 0xFFFF;
+                    layout.channels = fmt.getShort(2) & 0xFFFF;
+                    layout.sampleRate = fmt.getInt(4);
+                    layout.bits = fmt.getShort(14) & 0xFFFF;
+                    if (format == 0xFFFE && size >= 26) format = fmt.getShort(24) & 0xFFFF; // Extensible: sub-format
+                } else if (id == 0x61746164) { // "data"
+                    if (format != 1 && format != 3) throw new IOException(path + ": unsupported WAV format " + format);
+                    layout.isFloat = format == 3;
+                    layout.dataOffset = body;
+                    layout.dataBytes = Math.min(size, file.size() - body); // Streamed files may leave the size unset
+                    return layout;
+                }
+                pos = body + size + (size & 1);
+            }
+            throw new IOException(path + ": no data chunk");
+        }
+
+        private static Layout parseAiff(FileChannel file, Path path) throws IOException {
+            Layout layout = new Layout();
+            layout.bigEndian = true;
+            boolean common = false;
+            long pos = 12;
+            while (pos + 8 <= file.size()) {
+                ByteBuffer chunk = readAt(file, pos, 8);
+                int id = chunk.getInt(0);
+                long size = chunk.getInt(4) & 0xFFFFFFFFL;
+                long body = pos + 8;
+                if (id == 0x434F4D4D) { // "COMM"
+                    ByteBuffer comm = readAt(file, body, (int) Math.min(size, 22));
+                    layout.channels = comm.getShort(0) & 0xFFFF;
+                    layout.bits = ((comm.getShort(6) & 0xFFFF) + 7) / 8 * 8;
+                    layout.sampleRate = (float) extended(comm, 8);
+                    if (size >= 22) {
+                        int compression = comm.getInt(18);
+                        if (compression == 0x736F7774) {                                   // "sowt": little-endian PCM
+                            layout.bigEndian = false;
+                        } else if (compression == 0x666C3332 || compression == 0x464C3332) { // "fl32"/"FL32"
+                            layout.isFloat = true;
+                            layout.bits = 32;
+                        } else if (compression == 0x666C3634 || compression == 0x464C3634) { // "fl64"/"FL64"
+                            layout.isFloat = true;
+                            layout.bits = 64;
+                        } else if (compression != 0x4E4F4E45) {                            // "NONE"
+                            throw new IOException(path + ": compressed AIFC is not supported");
+                        }
+                    }
+                    common = true;
+                } else if (id == 0x53534E44) { // "SSND": offset and block size, then the samples
+                    long offset = readAt(file, body, 4).getInt(0) & 0xFFFFFFFFL;
+                    layout.dataOffset = body + 8 + offset;
+                    layout.dataBytes = Math.min(size - 8 - offset, file.size() - layout.dataOffset);
+                }
+                if (common && layout.dataOffset >= 0) return layout;
+                pos = body + size + (size & 1);
+            }
+            throw new IOException(path + ": no COMM or SSND chunk");
+        }
+
+        // 80-bit IEEE extended float, the AIFF sample rate
+        private static double extended(ByteBuffer b, int p) {
+            int exponent = ((b.get(p) & 0x7F) << 8) | (b.get(p + 1) & 0xFF);
+            long mantissa = b.getLong(p + 2);
+            double value = (mantissa >>> 11) * Math.pow(2.0, exponent - 16383 - 52);
+            return (b.get(p) & 0x80) != 0 ? -value : value;
+        }
+
+        private static ByteBuffer readAt(FileChannel file, long pos, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining() && file.read(buffer, pos + buffer.position()) >= 0) {
+                // Read until full or end of file
+            }
+            buffer.clear();
+            return buffer;
+        }
+    }
+}
@@ -1,30 +1,42 @@
 import com.cycling74.max.*;
 import com.cycling74.msp.*;
-import java.util.Random;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
+import java.util.Arrays;
 
+// Max adapter for TriggerEngine reading the "trigger" buffer~.
+// An argument sets the number of signal outlets, e.g. [mxj~ Trigger 8] for a ring of eight speakers.
 public class Trigger extends MSPObject {
     private String bufferName = "trigger"; // Buffer name should be "trigger"
-    private float rateMs = 1000; // in milliseconds (trigger interval)
-    private float maxSpeed = 1.0f; // max speed for playback
-    private float volumeControl = 1.0f; // volume level, incoming lower limit for random volume range
-    private float sampleRate = 44100.0f; // Sample rate for the audio
-    private final Random random = new Random();
-    private final ArrayList<TriggeredAudio> activeTriggers = new ArrayList<>();
-    private float phase = 0.0f;
-
-    // Limit the number of triggers that can be active at the same time
-    private static final int MAX_ACTIVE_TRIGGERS = 10;
+    private final SampleCache cache = SampleCache.acquire(bufferName); // Shared snapshot of the buffer
+    private final TriggerEngine engine;
+    private final StatsReporter statsReporter;
+    private final float[][] inputs = new float[0][];
+    private final float[][] outputs;
+    private final MaxQelem infoQelem;
 
     public Trigger() {
+        this(2); // Stereo output
+    }
+
+    public Trigger(int channels) {
+        engine = new TriggerEngine(cache, Math.max(1, Math.min(channels, 64)));
+        statsReporter = new StatsReporter(this, engine.getStats());
+        outputs = new float[engine.getOutputCount()][];
         declareInlets(new int[]{DataTypes.ALL, DataTypes.ALL, DataTypes.ALL, DataTypes.ALL}); // Declare 4 inlets
-        declareOutlets(new int[]{SIGNAL, SIGNAL}); // Declare outlets for stereo output
+        int[] outlets = new int[outputs.length];
+        Arrays.fill(outlets, SIGNAL);
+        declareOutlets(outlets); // One signal outlet per output channel
+        infoQelem = new MaxQelem(new Executable() {
+            public void execute() {
+                info();
+            }
+        });
         post("Trigger initialized.");
     }
 
     @Override
     public Method dsp(MSPSignal[] ins, MSPSignal[] outs) {
+        if (outs[0].sr > 0) engine.setSampleRate((float) outs[0].sr);
         // Return the method that will be called to process the DSP
         try {
             return getClass().getDeclaredMethod("perform", MSPSignal[].class, MSPSignal[].class);
@@ -35,128 +47,98 @@ public class Trigger extends MSPObject {
     }
 
     public void perform(MSPSignal[] ins, MSPSignal[] outs) {
-        float[] outputSignalL = outs[0].vec;
-        float[] outputSignalR = outs[1].vec;
-        long bufferFrames = MSPBuffer.getFrames(bufferName);
-
-        // Ensure buffer is properly loaded before triggering audio
-        if (bufferFrames <= 0) {
-            //post("Error: Buffer is empty or not found during DSP processing.");
-            for (int i = 0; i < outputSignalL.length; i++) {
-                outputSignalL[i] = 0;
-                outputSignalR[i] = 0;
-            }
-            return;
+        long eventsBefore = engine.getStolenCount() + engine.getDroppedCount();
+        for (int o = 0; o < outputs.length; o++) {
+            outputs[o] = outs[o].vec;
         }
+        engine.process(inputs, outputs);
 
-        // Set the sampEnd to the buffer's end
-        long sampEnd = bufferFrames;
-
-        // Triggering at a fixed rate
-        float rateSamples = (rateMs / 1000.0f) * sampleRate; // Default rateMs = 1000ms (1 second)
-        //post("Trigger rate in samples: " + rateSamples);
-
-        for (int i = 0; i < outputSignalL.length; i++) {
-            phase += 1.0f / rateSamples;
-
-            // Only spawn a new trigger if the rate allows it, and ensure that we don't spawn too many
-            if (phase >= 1.0f && activeTriggers.size() < MAX_ACTIVE_TRIGGERS) { // Limit the number of active triggers
-                phase -= 1.0f;
-                spawnNewTrigger(bufferFrames); // Trigger new event at specified rate
-            }
-
-            outputSignalL[i] = 0;
-            outputSignalR[i] = 0;
-
-            for (int j = activeTriggers.size() - 1; j >= 0; j--) {
-                TriggeredAudio trigger = activeTriggers.get(j);
-                if (trigger.isFinished()) {
-                    activeTriggers.remove(j); // Remove finished triggers
-                    //post("Trigger " + j + " finished and removed.");
-                } else {
-                    float[] sample = trigger.getNextSample();
-                    outputSignalL[i] += sample[0];
-                    outputSignalR[i] += sample[1];
-                }
-            }
+        if (engine.getStolenCount() + engine.getDroppedCount() != eventsBefore) {
+            infoQelem.set(); // Report the new counts from the low-priority thread
         }
     }
 
-    private void spawnNewTrigger(long bufferFrames) {
-        // Ensure we don't create too many triggers at once
-        if (activeTriggers.size() >= MAX_ACTIVE_TRIGGERS) return;
+    public void inlet(float value) {
+        // Debug log to check the inlet index and the received value
+        //post("Inlet " + getInlet() + " received value: " + value);
+        engine.parameter(getInlet(), value);
+    }
 
-        // Spawning a new trigger event with random speed and randomized volume
-        TriggeredAudio trigger = new TriggeredAudio(bufferFrames, random.nextFloat() * maxSpeed, volumeControl);
-        activeTriggers.add(trigger);
+    // Set the number of voices
+    public void voices(int count) {
+        engine.setVoices(count);
     }
 
-    private class TriggeredAudio {
-        private long start;
-        private long end;
-        private float speed;
-        private float randomizedVolume; // Volume is randomized for each trigger
-        private long currentPos;
+    // Set the stealing policy: none, oldest, quietest or nearest (to the end of the buffer)
+    public void steal(String policy) {
+        if (!engine.setStealPolicy(policy)) error("Trigger: unknown steal policy " + policy);
+    }
 
-        public TriggeredAudio(long bufferFrames, float speed, float volumeControl) {
-            this.start = 0; // Play from the start of the buffer
-            this.end = bufferFrames;
-            this.speed = Math.max(1.0f, speed); // Ensure speed is never lower than 1.0
+    // Output the stolen and dropped event counts on the info outlet
+    public void info() {
+        outlet(getInfoIdx(), "stolen", new Atom[]{Atom.newAtom((int) engine.getStolenCount())});
+        outlet(getInfoIdx(), "dropped", new Atom[]{Atom.newAtom((int) engine.getDroppedCount())});
+    }
 
-            // Randomize volume between 1.0 and the incoming volume (volumeControl is the lower limit)
-            this.randomizedVolume = 1.0f + random.nextFloat() * (volumeControl - 1.0f); // Random volume between 1.0 and volumeControl
+    // Envelope inlet: a shape name (trapezoid, hann, tukey, gaussian, exponential), optionally followed by the fade ratio
+    public void anything(String message, Atom[] args) {
+        if (getInlet() != 3 || !engine.setEnvelope(message, args.length > 0 ? args[0].getFloat() : -1)) {
+            error("Trigger: unknown envelope " + message);
+        }
+    }
 
-            this.currentPos = start;
+    // Reseed the random generator: the same seed and input give the same output
+    public void seed(int seed) {
+        engine.setSeed(seed);
+    }
 
-            // Debugging: Check trigger initialization
-            //post("New trigger created. Start: " + start + ", End: " + end + ", Speed: " + this.speed + ", Randomized Volume: " + this.randomizedVolume);
+    // Density mode: periodic, poisson, jitter [amount] or burst [spacing] [count]
+    public void density(Atom[] args) {
+        if (args.length == 0 || !engine.setDensity(args[0].getString(), args.length > 1 ? args[1].getFloat() : -1,
+                args.length > 2 ? args[2].getInt() : -1)) {
+            error("Trigger: unknown density mode");
         }
+    }
 
-        public boolean isFinished() {
-            return currentPos >= end; // Trigger finishes when currentPos exceeds buffer end
-        }
+    // Random panning of new events: spread 0..1 (0 is off), optionally the centre 0..1 of the line or ring
+    public void pan(Atom[] args) {
+        if (args.length == 0) return;
+        engine.setPan(args[0].getFloat(), args.length > 1 ? args[1].getFloat() : 0.5f);
+    }
 
-        public float[] getNextSample() {
-            // Ensure we are not accessing out of bounds
-            if (currentPos >= end) return new float[]{0, 0};
+    // Set the interpolation quality: nearest, linear, hermite or sinc
+    public void interp(String mode) {
+        if (!engine.setInterpolation(mode)) error("Trigger: unknown interpolation " + mode);
+    }
 
-            long sampleIndex = Math.min(Math.round(currentPos), end - 1); // Safely limit the sample index within bounds
-            float sampleL = MSPBuffer.peek(bufferName, 1, sampleIndex); // Left channel
-            float sampleR = MSPBuffer.peek(bufferName, 2, sampleIndex); // Right channel
+    // Snap event starts: off (start of the buffer), zero (first zero crossing) or onset (a random onset)
+    public void snap(String mode) {
+        if (!engine.setSnap(mode)) error("Trigger: unknown snap mode " + mode);
+    }
 
-            // Apply the randomized volume directly to the sample
-            //post("Sample at index " + sampleIndex + ": Randomized Volume = " + randomizedVolume);
+    // Reload the buffer snapshot, e.g. after writing into the buffer~ without resizing it
+    public void refresh() {
+        cache.invalidate();
+    }
 
-            // Increment currentPos with speed (ensure it doesn't exceed end)
-            currentPos += speed;
+    // Output the performance counters on the info outlet
+    public void stats() {
+        statsReporter.request();
+    }
 
-            // Return the sample values with randomized volume applied
-            return new float[]{sampleL * randomizedVolume, sampleR * randomizedVolume};
-        }
+    // Output them every ms milliseconds, 0 stops
+    public void statsinterval(float ms) {
+        statsReporter.interval(ms);
     }
 
-    // Handling incoming values for rate, speed, and volume from the inlets
-    public void inlet(float value) {
-        int inletIdx = getInlet();
-        long bufferFrames = MSPBuffer.getFrames(bufferName);
-        if (bufferFrames <= 0) return;
+    public void statsreset() {
+        engine.getStats().reset();
+    }
 
-        // Debug log to check the inlet index and the received value
-        //post("Inlet " + inletIdx + " received value: " + value);
-
-        // Handle inlets properly based on their index
-        switch (inletIdx) {
-            case 0:  // Trigger rate in milliseconds
-                rateMs = Math.max(1, value); // Adjust rateMs, ensure it's never below 1ms
-                break;
-            case 1:  // Maximum playback speed
-                maxSpeed = Math.max(1.0f, value); // Ensure maxSpeed is never less than 1.0
-                break;
-            case 2:  // Volume control for grains
-                volumeControl = Math.max(0.0f, Math.min(1.0f, value)); // Ensure volume is between 0 and 1
-                break;
-            case 3:  // Empty case (you can keep it unused)
-                break;
-        }
+    public void notifyDeleted() {
+        statsReporter.release();
+        infoQelem.release();
+        engine.setSnap("off"); // Stop following the buffer's onsets
+        cache.release();
     }
 }
@@ -0,0 +1,518 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+// Host-independent core of Trigger: plays the whole sample source at a rate and density mode from its
+// GrainScheduler with a random speed and volume, stealing voices according to a policy when every voice is busy.
+// Voices are mixed onto N outputs (stereo by default), each reading one interleaved frame per sample and panned
+// by gains fixed when it starts. A seed makes the events reproducible. Events can start at the first zero crossing
+// or at a random onset of an OnsetIndex of the buffer instead of at its first frame.
+// Inlet values travel through a ParameterQueue and take effect at their sample.
+public class TriggerEngine implements BlockProcessor, ParameterSink {
+    private final SampleSource source;
+    private final int channels;                 // Outputs
+    private final Panner panner = new Panner(); // Placement of new voices on the outputs
+    private final float[] mix;                  // One accumulator per output
+    private final int[] channelOf;              // Source channel played by each output
+    private final float[] frame = new float[SampleSource.MAX_CHANNELS]; // Interpolated source frame
+    private final ParameterQueue queue = new ParameterQueue(); // Inlet values on their way to the audio thread
+    private long frameClock = 0;                               // Frames rendered so far
+    private float rateMs = 1000; // in milliseconds (trigger interval)
+    private float maxSpeed = 1.0f; // max speed for playback
+    private float volumeControl = 1.0f; // volume level, incoming lower limit for random volume range
+    private float sampleRate = 44100.0f; // Until the host reports its own
+    private Xoshiro random = new Xoshiro(Xoshiro.randomSeed()); // Used by process() only
+    private final AtomicReference<Xoshiro> pendingRandom = new AtomicReference<>(); // Reseeded generator waiting to be swapped in
+    private final GrainScheduler scheduler = new GrainScheduler();
+    private volatile int interpMode = Interpolator.LINEAR; // Fractional read quality
+    private int envelopeShape = EnvelopeTable.TRAPEZOID;                                // Fade shape of each event
+    private float envelopeRatio = 0.0f;                                                 // No fades until the envelope inlet sets one
+    private static final float DEFAULT_RATIO = 0.1f; // Fades of a shape chosen without a ratio, as in ScannerEngine
+    private volatile float[] envelope = EnvelopeTable.get(envelopeShape, envelopeRatio); // Shared table for the shape
+    private volatile int snapMode = OnsetIndex.OFF;                       // Where events start
+    private final AnalysisService.Slot<OnsetIndex> onsets = new AnalysisService.Slot<>("onsets", OnsetIndex::build);
+
+    // Stealing policies used when every voice is busy
+    private static final int STEAL_NONE = 0;     // Drop the new event
+    private static final int STEAL_OLDEST = 1;   // Replace the voice that started first
+    private static final int STEAL_QUIETEST = 2; // Replace the voice with the lowest volume
+    private static final int STEAL_NEAREST = 3;  // Replace the voice closest to its end
+    private static final String[] STEAL_NAMES = {"none", "oldest", "quietest", "nearest"};
+
+    private static final int DEFAULT_VOICES = 10;   // Voices that can be active at the same time
+    private static final int RELEASE_SLOTS = 8;     // Extra slots for stolen voices that are still fading out
+    private static final float RELEASE_MS = 5.0f;   // Fade-out time of a stolen voice
+
+    private VoicePool voices;
+    private final AtomicReference<VoicePool> pendingVoices = new AtomicReference<>(); // Resized pool waiting to be swapped in
+    private volatile int stealPolicy = STEAL_OLDEST;
+
+    private final PerfStats stats = new PerfStats(); // Timing, voice and event counters
+
+    public TriggerEngine(SampleSource source) {
+        this(source, 2);
+    }
+
+    public TriggerEngine(SampleSource source, int channels) {
+        this.source = source;
+        source.requireInterleaved();
+        this.channels = Math.max(1, channels);
+        mix = new float[this.channels];
+        channelOf = new int[this.channels];
+        voices = new VoicePool(DEFAULT_VOICES, this.channels);
+    }
+
+    public int getInputCount() {
+        return 0;
+    }
+
+    public int getOutputCount() {
+        return channels;
+    }
+
+    public void setSampleRate(float sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void process(float[][] inputs, float[][] outputs) {
+        long started = stats.begin();
+        render(inputs, outputs);
+        stats.end(started, outputs[0].length, sampleRate);
+    }
+
+    public PerfStats getStats() {
+        return stats;
+    }
+
+    private void render(float[][] inputs, float[][] outputs) {
+        int frames = outputs[0].length;
+        queue.beginBlock(frameClock, frames, sampleRate);
+        frameClock += frames;
+
+        // Swap in a pool resized by "voices", carrying over the voices that still fit
+        VoicePool resized = pendingVoices.getAndSet(null);
+        if (resized != null) {
+            resized.copyFrom(voices, releaseStep());
+            voices = resized;
+        }
+        Xoshiro reseeded = pendingRandom.getAndSet(null);
+        if (reseeded != null) {
+            random = reseeded;
+            scheduler.reset();
+        }
+
+        SampleSource.Snapshot snapshot = source.snapshot();
+        float[][] data = snapshot.channels;
+        float[] samples = snapshot.interleaved; // Made with the snapshot, off the audio thread
+        long bufferFrames = samples != null ? snapshot.frames : 0;
+
+        // Ensure buffer is properly loaded before triggering audio
+        if (bufferFrames <= 0) {
+            //post("Error: Buffer is empty or not found during DSP processing.");
+            for (float[] out : outputs) {
+                for (int i = 0; i < frames; i++) out[i] = 0;
+            }
+            applyChanges(frames - 1);
+            stats.miss();
+            return;
+        }
+
+        // Output o plays source channel o, wrapping around when the buffer has fewer channels; while panning,
+        // every output plays the mono sum, collapsed into channel 0 of the frame
+        int stride = data.length;
+        int frameCount = (int) bufferFrames;
+        boolean downmix = stride > 1 && panner.isPanning(channels);
+        float downmixScale = 1.0f / stride;
+        for (int o = 0; o < channels; o++) channelOf[o] = downmix ? 0 : o % stride;
+
+        int snap = snapMode;
+        OnsetIndex index = snap != OnsetIndex.OFF ? onsets.get(snapshot) : null; // Events start at 0 until it is built
+
+        VoicePool pool = voices;
+        double[] pos = pool.pos;
+        double[] start = pool.start;
+        float[] speed = pool.speed;
+        float[] volume = pool.volume;
+        double[] end = pool.end;
+        double[] envScale = pool.envScale;
+        float[] gain = pool.gain;
+        float[] releaseStep = pool.releaseStep;
+        float[] pan = pool.pan;
+        int outputCount = channels;
+        float[] sums = mix;
+        float[] read = frame;
+        int[] sourceChannel = channelOf;
+        boolean stereo = outputCount == 2;
+        int left = sourceChannel[0];
+        int right = stereo ? sourceChannel[1] : 0;
+        int mode = interpMode;
+        float[] fade = envelope;
+
+        // Onsets are scheduled ahead for each segment between queued changes
+        int nextChange = queue.nextOffset();
+        int segmentEnd = 0;
+        int onsetCount = 0;
+        int onsetIndex = 0;
+        int nextOnset = -1;
+        for (int i = 0; i < frames; i++) {
+            if (i == segmentEnd) {
+                if (i == nextChange) nextChange = applyChanges(i);
+                float rateSamples = (rateMs / 1000.0f) * sampleRate; // Default rateMs = 1000ms (1 second)
+                //post("Trigger rate in samples: " + rateSamples);
+                onsetCount = scheduler.schedule(i, nextChange, 1.0 / rateSamples, random);
+                onsetIndex = 0;
+                nextOnset = onsetCount > 0 ? scheduler.onset(0) : -1;
+                segmentEnd = scheduler.end();
+            }
+
+            if (i == nextOnset) {
+                nextOnset = ++onsetIndex < onsetCount ? scheduler.onset(onsetIndex) : -1;
+                spawnNewTrigger(pool, bufferFrames, index, snap); // Trigger new event at specified rate
+            }
+
+            float mixL = 0; // Stereo sums stay in locals, other layouts in the accumulator array
+            float mixR = 0;
+            for (int j = pool.count - 1; j >= 0; j--) {
+                if (pos[j] >= end[j] || gain[j] <= 0) {
+                    pool.remove(j); // Finished or fully released, swap the last voice into this slot
+                    continue;
+                }
+
+                float level = EnvelopeTable.read(fade, (pos[j] - start[j]) * envScale[j]) * volume[j] * gain[j];
+                Interpolator.readFrame(samples, stride, frameCount, pos[j], mode, speed[j], read); // Every channel in one pass
+                if (downmix) {
+                    float sum = read[0];
+                    for (int c = 1; c < stride; c++) sum += read[c];
+                    read[0] = sum * downmixScale;
+                }
+                int g = j * outputCount;
+                if (stereo) {
+                    mixL += read[left] * level * pan[g];
+                    mixR += read[right] * level * pan[g + 1];
+                } else {
+                    for (int o = 0; o < outputCount; o++) {
+                        sums[o] += read[sourceChannel[o]] * level * pan[g + o];
+                    }
+                }
+
+                pos[j] += speed[j];
+                gain[j] -= releaseStep[j]; // Only non-zero for stolen voices
+            }
+            if (stereo) {
+                outputs[0][i] = mixL;
+                outputs[1][i] = mixR;
+            } else {
+                for (int o = 0; o < outputCount; o++) {
+                    outputs[o][i] = sums[o];
+                    sums[o] = 0;
+                }
+            }
+        }
+        while (queue.pollLatest()) apply(queue.id(), queue.value());
+        stats.voices(pool.count);
+    }
+
+    // Apply the queued changes due at this offset; returns the offset of the next one
+    private int applyChanges(int offset) {
+        while (queue.poll(offset)) apply(queue.id(), queue.value());
+        return queue.nextOffset();
+    }
+
+    // Audio thread: one inlet value
+    private void apply(int inletIdx, float value) {
+        switch (inletIdx) {
+            case 0:  // Trigger rate in milliseconds
+                rateMs = Math.max(1, value); // Adjust rateMs, ensure it's never below 1ms
+                break;
+            case 1:  // Maximum playback speed
+                maxSpeed = Math.max(1.0f, value); // Ensure maxSpeed is never less than 1.0
+                break;
+            case 2:  // Volume control for grains
+                volumeControl = Math.max(0.0f, Math.min(1.0f, value)); // Ensure volume is between 0 and 1
+                break;
+        }
+    }
+
+    private void spawnNewTrigger(VoicePool pool, long bufferFrames, OnsetIndex index, int snap) {
+        if (pool.active >= pool.voices) {
+            int victim = stealPolicy == STEAL_NONE ? -1 : pool.findVictim(stealPolicy);
+            if (victim < 0 || pool.count >= pool.capacity) {
+                stats.dropped(); // Nothing to steal or no slot left for the release tail
+                return;
+            }
+            pool.release(victim, releaseStep());
+            stats.stolen();
+        }
+
+        // Spawning a new trigger event with random speed and randomized volume
+        float speed = Math.max(1.0f, random.nextFloat() * maxSpeed); // Ensure speed is never lower than 1.0
+
+        // Randomize volume between 1.0 and the incoming volume (volumeControl is the lower limit)
+        float randomizedVolume = 1.0f + random.nextFloat() * (volumeControl - 1.0f);
+
+        // First frame: the start of the buffer, its first zero crossing or a random onset
+        long first = 0;
+        if (index != null && snap == OnsetIndex.ONSET && index.onsetCount() > 0) {
+            first = index.onset(random.nextInt(index.onsetCount()));
+        } else if (index != null) {
+            first = index.snap(0, 0, bufferFrames - 1, OnsetIndex.ZERO);
+        }
+
+        pool.add(first, bufferFrames, speed, randomizedVolume);
+        panner.place(random, pool.pan, (pool.count - 1) * pool.outputs, pool.outputs);
+        stats.spawned();
+    }
+
+    // Gain decrement per sample for a click-free release of a stolen voice
+    private float releaseStep() {
+        return 1.0f / Math.max(1.0f, RELEASE_MS * 0.001f * sampleRate);
+    }
+
+    // Preallocated trigger voices, one primitive array per voice property
+    private static class VoicePool {
+        final int voices;   // Voices that may play at full level
+        final int capacity; // Storage, including the slots of voices being released
+        final int outputs;
+        int count = 0;      // Used slots
+        int active = 0;     // Used slots that are not releasing
+        long nextAge = 0;
+
+        final double[] pos;        // Current read position in frames
+        final double[] start;      // First frame of the voice
+        final float[] speed;       // Playback speed
+        final float[] volume;      // Randomized volume
+        final double[] end;        // Frame where the voice finishes
+        final double[] envScale;   // Converts the position to envelope phase
+        final float[] gain;        // Release gain, 1.0 while playing
+        final float[] releaseStep; // Gain decrement per sample, 0 while playing
+        final long[] age;          // Spawn order, used by the oldest policy
+        final float[] pan;         // Panning gain per output, outputs consecutive floats per voice
+
+        VoicePool(int voices, int outputs) {
+            this.voices = voices;
+            this.capacity = voices + RELEASE_SLOTS;
+            this.outputs = outputs;
+            pan = new float[capacity * outputs];
+            pos = new double[capacity];
+            start = new double[capacity];
+            speed = new float[capacity];
+            volume = new float[capacity];
+            end = new double[capacity];
+            envScale = new double[capacity];
+            gain = new float[capacity];
+            releaseStep = new float[capacity];
+            age = new long[capacity];
+        }
+
+        void add(long first, long bufferFrames, float voiceSpeed, float voiceVolume) {
+            int j = count++;
+            active++;
+            pos[j] = first;
+            start[j] = first;
+            speed[j] = voiceSpeed;
+            volume[j] = voiceVolume;
+            end[j] = bufferFrames;
+            envScale[j] = 1.0 / (bufferFrames - first);
+            gain[j] = 1.0f;
+            releaseStep[j] = 0;
+            age[j] = nextAge++;
+        }
+
+        void release(int j, float step) {
+            releaseStep[j] = step;
+            active--;
+        }
+
+        void remove(int j) {
+            if (releaseStep[j] == 0) active--;
+            int last = --count;
+            pos[j] = pos[last];
+            start[j] = start[last];
+            speed[j] = speed[last];
+            volume[j] = volume[last];
+            end[j] = end[last];
+            envScale[j] = envScale[last];
+            gain[j] = gain[last];
+            releaseStep[j] = releaseStep[last];
+            age[j] = age[last];
+            System.arraycopy(pan, last * outputs, pan, j * outputs, outputs);
+        }
+
+        // Pick the playing (not releasing) voice to steal, or -1 if there is none
+        int findVictim(int policy) {
+            int victim = -1;
+            double best = Double.MAX_VALUE;
+            for (int j = 0; j < count; j++) {
+                if (releaseStep[j] != 0) continue;
+                double score;
+                switch (policy) {
+                    case STEAL_QUIETEST:
+                        score = volume[j];
+                        break;
+                    case STEAL_NEAREST:
+                        score = (end[j] - pos[j]) / speed[j]; // Samples left to play
+                        break;
+                    default:
+                        score = age[j];
+                        break;
+                }
+                if (score < best) {
+                    best = score;
+                    victim = j;
+                }
+            }
+            return victim;
+        }
+
+        void copyFrom(VoicePool other, float step) {
+            count = Math.min(other.count, capacity);
+            active = 0;
+            nextAge = other.nextAge;
+            System.arraycopy(other.pos, 0, pos, 0, count);
+            System.arraycopy(other.start, 0, start, 0, count);
+            System.arraycopy(other.speed, 0, speed, 0, count);
+            System.arraycopy(other.volume, 0, volume, 0, count);
+            System.arraycopy(other.end, 0, end, 0, count);
+            System.arraycopy(other.envScale, 0, envScale, 0, count);
+            System.arraycopy(other.gain, 0, gain, 0, count);
+            System.arraycopy(other.releaseStep, 0, releaseStep, 0, count);
+            System.arraycopy(other.age, 0, age, 0, count);
+            System.arraycopy(other.pan, 0, pan, 0, count * outputs);
+            for (int j = 0; j < count; j++) {
+                if (releaseStep[j] != 0) continue;
+                if (active < voices) {
+                    active++;
+                } else {
+                    releaseStep[j] = step; // More playing voices than the new size, release the rest
+                }
+            }
+        }
+    }
+
+    // Handling incoming values for rate, speed, volume and the envelope shape index from the inlets
+    public void parameter(int inletIdx, float value) {
+        if (inletIdx == 3) { // Envelope shape index, a table swap safe from any thread
+            setEnvelope((int) value, shapeRatio());
+            return;
+        }
+        if (inletIdx >= 0 && inletIdx <= 2) queue.push(inletIdx, value);
+    }
+
+    // Restart the random sequence and the schedule from a seed: the same seed and input give the same events
+    public void setSeed(long seed) {
+        pendingRandom.set(new Xoshiro(seed));
+    }
+
+    // Density mode by name (periodic, poisson, jitter, burst); negative amount or count keep the current ones
+    public boolean setDensity(String mode, float amount, int count) {
+        int parsed = GrainScheduler.parse(mode);
+        if (parsed < 0) return false;
+        scheduler.setMode(parsed, amount, count);
+        return true;
+    }
+
+    // Number of voices; the pool is allocated here, never in process()
+    public void setVoices(int count) {
+        pendingVoices.set(new VoicePool(Math.max(1, Math.min(count, 256)), channels));
+    }
+
+    // Random placement of new voices: spread 0..1 of the line or ring around centre 0..1, spread 0 is off
+    public void setPan(float spread, float centre) {
+        panner.set(spread, centre);
+    }
+
+    // Event starts: off (first frame), zero (first zero crossing) or onset (a random onset)
+    public boolean setSnap(String mode) {
+        int parsed = OnsetIndex.parse(mode);
+        if (parsed < 0) return false;
+        // The index is built in the background for the current snapshot and every later one, only while snapping
+        if (parsed == OnsetIndex.OFF) {
+            onsets.detach();
+        } else {
+            onsets.attach(source);
+        }
+        snapMode = parsed;
+        return true;
+    }
+
+    // Stealing policy: none, oldest, quietest or nearest (to the end of the buffer)
+    public boolean setStealPolicy(String policy) {
+        for (int i = 0; i < STEAL_NAMES.length; i++) {
+            if (STEAL_NAMES[i].equals(policy)) {
+                stealPolicy = i;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getStolenCount() {
+        return stats.get(PerfStats.STOLEN);
+    }
+
+    public long getDroppedCount() {
+        return stats.get(PerfStats.DROPPED);
+    }
+
+    // "voices <n>", "steal <policy>", "interp <mode>", "envelope <shape> [ratio]", "seed <n>",
+    // "density <mode> [amount] [count]", "pan <spread> [centre]", "snap <off|zero|onset>", "refresh"
+    public boolean message(String name, String[] args) {
+        switch (name) {
+            case "snap":
+                return args.length > 0 && setSnap(args[0]);
+            case "pan":
+                if (args.length == 0) return false;
+                setPan(Float.parseFloat(args[0]), args.length > 1 ? Float.parseFloat(args[1]) : 0.5f);
+                return true;
+            case "seed":
+                if (args.length == 0) return false;
+                setSeed(Long.parseLong(args[0]));
+                return true;
+            case "density":
+                return args.length > 0 && setDensity(args[0], args.length > 1 ? Float.parseFloat(args[1]) : -1,
+                        args.length > 2 ? Integer.parseInt(args[2]) : -1);
+            case "voices":
+                if (args.length == 0) return false;
+                setVoices(Integer.parseInt(args[0]));
+                return true;
+            case "steal":
+                return args.length > 0 && setStealPolicy(args[0]);
+            case "interp":
+                return args.length > 0 && setInterpolation(args[0]);
+            case "envelope":
+                return args.length > 0 && setEnvelope(args[0], args.length > 1 ? Float.parseFloat(args[1]) : -1);
+            case "refresh":
+                source.invalidate();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Envelope by name; a negative ratio keeps the current one, or takes the default one if there were no fades
+    public boolean setEnvelope(String shapeName, float ratio) {
+        int shape = EnvelopeTable.parse(shapeName);
+        if (shape < 0) return false;
+        setEnvelope(shape, ratio < 0 ? shapeRatio() : ratio);
+        return true;
+    }
+
+    // Ratio for a shape chosen without one: the current one, or the default while there are no fades yet,
+    // since with ratio 0 every shape but hann is flat and gaussian is near silent
+    private float shapeRatio() {
+        return envelopeRatio > 0 ? envelopeRatio : DEFAULT_RATIO;
+    }
+
+    // Look up the shared table, built on first use of this shape and ratio
+    public void setEnvelope(int shape, float ratio) {
+        envelopeShape = Math.max(0, Math.min(shape, EnvelopeTable.shapeCount() - 1));
+        envelopeRatio = Math.max(0.0f, Math.min(ratio, 0.5f));
+        envelope = EnvelopeTable.get(envelopeShape, envelopeRatio);
+    }
+
+    // Interpolation quality: nearest, linear, hermite or sinc
+    public boolean setInterpolation(String mode) {
+        int parsed = Interpolator.parse(mode);
+        if (parsed < 0) return false;
+        interpMode = parsed;
+        return true;
+    }
+}
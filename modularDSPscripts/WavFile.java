@@ -0,0 +1,151 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Minimal RIFF/WAVE reader and streaming writer on NIO channels, for rendering outside of Max.
+// Reads 8/16/24/32-bit PCM and 32/64-bit float; writes 32-bit float.
+public final class WavFile {
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    public final float[][] channels; // One array per channel
+    public final int sampleRate;
+
+    private WavFile(float[][] channels, int sampleRate) {
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+    }
+
+    public int frames() {
+        return SampleSource.frames(channels);
+    }
+
+    public static WavFile read(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer data = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.remaining() < 12 || data.getInt(0) != 0x46464952 || data.getInt(8) != 0x45564157) {
+                throw new IOException(path + ": not a RIFF/WAVE file");
+            }
+
+            int format = -1;
+            int channelCount = 0;
+            int sampleRate = 0;
+            int bits = 0;
+            int pos = 12;
+            while (pos + 8 <= data.limit()) {
+                int id = data.getInt(pos);
+                int size = data.getInt(pos + 4);
+                int body = pos + 8;
+                if (id == 0x20746D66) { // "fmt "
+                    format = data.getShort(body) & 0xFFFF;
+                    channelCount = data.getShort(body + 2) & 0xFFFF;
+                    sampleRate = data.getInt(body + 4);
+                    bits = data.getShort(body + 14) & 0xFFFF;
+                    if (format == FORMAT_EXTENSIBLE && size >= 26) format = data.getShort(body + 24) & 0xFFFF;
+                } else if (id == 0x61746164) { // "data"
+                    if (format < 0) throw new IOException(path + ": data chunk before fmt chunk");
+                    int length = Math.min(size < 0 ? Integer.MAX_VALUE : size, data.limit() - body);
+                    return new WavFile(decode(data, body, length, format, channelCount, bits, path), sampleRate);
+                }
+                pos = body + size + (size & 1); // Chunks are padded to an even size
+            }
+            throw new IOException(path + ": no data chunk");
+        }
+    }
+
+    private static float[][] decode(ByteBuffer data, int offset, int length, int format, int channelCount, int bits, Path path)
+            throws IOException {
+        int bytes = bits / 8;
+        boolean supported = (format == FORMAT_PCM && bytes >= 1 && bytes <= 4) || (format == FORMAT_FLOAT && (bytes == 4 || bytes == 8));
+        if (!supported || channelCount <= 0) {
+            throw new IOException(path + ": unsupported format " + format + " with " + bits + " bits");
+        }
+        int frameBytes = bytes * channelCount;
+        int frames = length / frameBytes;
+        float[][] channels = new float[channelCount][frames];
+        for (int i = 0; i < frames; i++) {
+            int frame = offset + i * frameBytes;
+            for (int ch = 0; ch < channelCount; ch++) {
+                int p = frame + ch * bytes;
+                float value;
+                if (format == FORMAT_FLOAT) {
+                    value = bytes == 4 ? data.getFloat(p) : (float) data.getDouble(p);
+                } else {
+                    switch (bytes) {
+                        case 1:
+                            value = ((data.get(p) & 0xFF) - 128) / 128.0f; // 8-bit is unsigned
+                            break;
+                        case 2:
+                            value = data.getShort(p) / 32768.0f;
+                            break;
+                        case 3:
+                            value = (((data.get(p + 2) << 16) | ((data.get(p + 1) & 0xFF) << 8) | (data.get(p) & 0xFF))) / 8388608.0f;
+                            break;
+                        default:
+                            value = data.getInt(p) / 2147483648.0f;
+                            break;
+                    }
+                }
+                channels[ch][i] = value;
+            }
+        }
+        return channels;
+    }
+
+    // Streaming 32-bit float writer; the header sizes are patched on close()
+    public static final class Writer implements Closeable {
+        private static final int HEADER_BYTES = 44;
+
+        private final FileChannel file;
+        private final int channelCount;
+        private final ByteBuffer block;
+        private long dataBytes = 0;
+
+        public Writer(Path path, int channelCount, int sampleRate, int maxFrames) throws IOException {
+            this.channelCount = channelCount;
+            file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            block = ByteBuffer.allocateDirect(Math.max(HEADER_BYTES, maxFrames * channelCount * 4)).order(ByteOrder.LITTLE_ENDIAN);
+
+            block.putInt(0x46464952).putInt(0).putInt(0x45564157);              // "RIFF", size, "WAVE"
+            block.putInt(0x20746D66).putInt(16).putShort((short) FORMAT_FLOAT); // "fmt ", chunk size, format
+            block.putShort((short) channelCount).putInt(sampleRate);
+            block.putInt(sampleRate * channelCount * 4).putShort((short) (channelCount * 4)).putShort((short) 32);
+            block.putInt(0x61746164).putInt(0);                                  // "data", size
+            block.flip();
+            while (block.hasRemaining()) file.write(block);
+        }
+
+        // Interleave and append the first frames of each channel array
+        public void write(float[][] channels, int frames) throws IOException {
+            block.clear();
+            for (int i = 0; i < frames; i++) {
+                for (int ch = 0; ch < channelCount; ch++) {
+                    block.putFloat(channels[ch][i]);
+                }
+            }
+            block.flip();
+            dataBytes += block.remaining();
+            while (block.hasRemaining()) file.write(block);
+        }
+
+        public void close() throws IOException {
+            try {
+                ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                size.putInt(0, (int) Math.min(HEADER_BYTES - 8 + dataBytes, 0xFFFFFFFFL));
+                file.write(size, 4);
+                size.putInt(0, (int) Math.min(dataBytes, 0xFFFFFFFFL));
+                size.rewind();
+                file.write(size, 40);
+            } finally {
+                file.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+import java.util.function.BooleanSupplier;
+
+// Min, max and sum of squares of one channel at power-of-two block sizes from 64 frames up, so that a range
+// of any length reduces to a few blocks per display point: O(log n) each, plus at most two partial base
+// blocks read raw. Built incrementally with extend(); the part not built yet is read raw, so queries are
+// exact at every stage. 16 bytes per base block of 64 frames at level 0 (min, max, double sum of squares),
+// about as much again over the levels above: about 32 bytes per 64 frames, an eighth of the float samples.
+// The AnalysisService builds it in the background; scan() gives the same answers without one until then.
+public final class WaveformPyramid {
+    public static final int MIN = 0;
+    public static final int MAX = 1;
+    public static final int RMS = 2;
+    public static final int PEAK = 3; // The extreme with the larger magnitude, sign kept
+
+    private static final int BASE_SHIFT = 6; // Frames per base block: 64
+    private static final int BASE = 1 << BASE_SHIFT;
+    private static final int SLICE = 16384; // Base blocks built between cancellation checks, about 1M frames
+
+    private final float[] samples; // Channel the pyramid describes
+    private final float[][] min; // [level][block], block size BASE << level
+    private final float[][] max;
+    private final double[][] squares;
+    private int builtBlocks = 0; // Base blocks built so far; every complete parent of them is built too
+
+    public WaveformPyramid(float[] samples) {
+        this.samples = samples;
+        int levels = 1;
+        for (int blocks = samples.length >> BASE_SHIFT; blocks > 1; blocks >>= 1) levels++;
+        min = new float[levels][];
+        max = new float[levels][];
+        squares = new double[levels][];
+        for (int l = 0; l < levels; l++) {
+            int blocks = samples.length >> (BASE_SHIFT + l);
+            min[l] = new float[blocks];
+            max[l] = new float[blocks];
+            squares[l] = new double[blocks];
+        }
+    }
+
+    public boolean isComplete() {
+        return builtBlocks == min[0].length;
+    }
+
+    // Build up to this many more base blocks; returns true once the pyramid is complete
+    public boolean extend(int blocks) {
+        int last = (int) Math.min(min[0].length, (long) builtBlocks + blocks);
+        for (int b = builtBlocks; b < last; b++) {
+            float lo = Float.MAX_VALUE;
+            float hi = -Float.MAX_VALUE;
+            double sum = 0;
+            for (int i = b << BASE_SHIFT, end = i + BASE; i < end; i++) {
+                float x = samples[i];
+                if (x < lo) lo = x;
+                if (x > hi) hi = x;
+                sum += x * x;
+            }
+            min[0][b] = lo;
+            max[0][b] = hi;
+            squares[0][b] = sum;
+
+            // A right child completes its parent, and so on up
+            int j = b;
+            for (int l = 1; l < min.length && (j & 1) == 1 && (j >> 1) < min[l].length; l++) {
+                int parent = j >> 1;
+                min[l][parent] = Math.min(min[l - 1][j - 1], min[l - 1][j]);
+                max[l][parent] = Math.max(max[l - 1][j - 1], max[l - 1][j]);
+                squares[l][parent] = squares[l - 1][j - 1] + squares[l - 1][j];
+                j = parent;
+            }
+        }
+        builtBlocks = last;
+        return isComplete();
+    }
+
+    // Everything at once
+    public static WaveformPyramid build(float[] samples) {
+        WaveformPyramid pyramid = new WaveformPyramid(samples);
+        pyramid.extend(Integer.MAX_VALUE);
+        return pyramid;
+    }
+
+    // Pyramid of the first channel of a snapshot, in slices; null once cancelled
+    public static WaveformPyramid build(float[][] data, BooleanSupplier cancelled) {
+        WaveformPyramid pyramid = new WaveformPyramid(SampleSource.channel(data, 1));
+        while (!pyramid.extend(SLICE)) {
+            if (cancelled.getAsBoolean()) return null;
+        }
+        return pyramid;
+    }
+
+    // One value of frames from..to inclusive: MIN, MAX, RMS or PEAK
+    public float query(long from, long to, int kind) {
+        int a = (int) Math.max(0, Math.min(from, samples.length - 1));
+        int b = (int) Math.max(a, Math.min(to, samples.length - 1)) + 1; // Exclusive
+        float lo = Float.MAX_VALUE;
+        float hi = -Float.MAX_VALUE;
+        double sum = 0;
+
+        // Whole base blocks inside the built part go through the pyramid, the rest is read raw
+        int first = (a + BASE - 1) >> BASE_SHIFT;
+        int end = Math.min(b >> BASE_SHIFT, builtBlocks);
+        if (first >= end) {
+            first = end = 0;
+        }
+        int rawEnd = first < end ? first << BASE_SHIFT : b;
+        for (int i = a; i < rawEnd; i++) {
+            float x = samples[i];
+            if (x < lo) lo = x;
+            if (x > hi) hi = x;
+            sum += x * x;
+        }
+        if (first < end) {
+            for (int i = end << BASE_SHIFT; i < b; i++) {
+                float x = samples[i];
+                if (x < lo) lo = x;
+                if (x > hi) hi = x;
+                sum += x * x;
+            }
+            // Bottom-up cover of the blocks first..end, at most two per level
+            for (int l = 0; first < end; l++, first >>= 1, end >>= 1) {
+                if ((first & 1) == 1) {
+                    lo = Math.min(lo, min[l][first]);
+                    hi = Math.max(hi, max[l][first]);
+                    sum += squares[l][first];
+                    first++;
+                }
+                if ((end & 1) == 1) {
+                    end--;
+                    lo = Math.min(lo, min[l][end]);
+                    hi = Math.max(hi, max[l][end]);
+                    sum += squares[l][end];
+                }
+            }
+        }
+
+        return result(lo, hi, sum, b - a, kind);
+    }
+
+    // One value of frames from..to inclusive, read from the samples
+    private static float raw(float[] samples, long from, long to, int kind) {
+        int a = (int) Math.max(0, Math.min(from, samples.length - 1));
+        int b = (int) Math.max(a, Math.min(to, samples.length - 1)) + 1;
+        float lo = Float.MAX_VALUE;
+        float hi = -Float.MAX_VALUE;
+        double sum = 0;
+        for (int i = a; i < b; i++) {
+            float x = samples[i];
+            if (x < lo) lo = x;
+            if (x > hi) hi = x;
+            sum += x * x;
+        }
+        return result(lo, hi, sum, b - a, kind);
+    }
+
+    private static float result(float lo, float hi, double sum, int frames, int kind) {
+        switch (kind) {
+            case MIN:
+                return lo;
+            case MAX:
+                return hi;
+            case RMS:
+                return (float) Math.sqrt(sum / frames);
+            default:
+                return -lo > hi ? lo : hi;
+        }
+    }
+
+    // points values over frames start..end inclusive, each point covering its share of the range.
+    // Once a point spans many base blocks its inner boundaries are moved to the nearest block boundary:
+    // the points still tile the range, so no peak is lost, and no point reads raw samples in cache-missing
+    // runs at both ends, which makes a zoomed-out query cost about the same as a zoomed-in one.
+    public void query(long start, long end, int kind, float[] out, int points) {
+        summarize(this, samples, start, end, kind, out, points);
+    }
+
+    // The same points read from the samples alone, for while no pyramid is built
+    public static void scan(float[] samples, long start, long end, int kind, float[] out, int points) {
+        summarize(null, samples, start, end, kind, out, points);
+    }
+
+    private static void summarize(WaveformPyramid pyramid, float[] samples, long start, long end, int kind, float[] out, int points) {
+        double span = (end - start + 1) / (double) points;
+        boolean coarse = span >= 64 * BASE;
+        long from = start;
+        for (int i = 0; i < points; i++) {
+            long next = i == points - 1 ? end + 1 : start + (long) Math.floor((i + 1) * span);
+            if (coarse && i < points - 1) next = (next + BASE / 2) & -BASE;
+            long to = Math.max(from, next - 1);
+            out[i] = pyramid != null ? pyramid.query(from, to, kind) : raw(samples, from, to, kind);
+            from = Math.max(from + 1, next);
+        }
+    }
+}
@@ -25,13 +25,13 @@ set "DEST=%MAX_BASE%\classes"
 set "CP=%MAX_BASE%\lib\max.jar"
 if not exist "%DEST%" mkdir "%DEST%"
 
-:: 3) Compile ALL .java in this script’s dir
+:: 3) Compile ALL .java in this script’s dir in one pass (engines share helper classes)
 pushd "%~dp0"
 echo Compiling → "%DEST%"
 for %%f in (*.java) do (
   echo   ↳ %%~nxf
-  javac -d "%DEST%" -cp "%CP%" "%%f"
 )
+javac -d "%DEST%" -cp "%CP%" *.java
 popd
 
 echo.
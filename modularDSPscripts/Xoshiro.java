@@ -0,0 +1,67 @@
+// xoshiro256** generator: one per engine instance, no locking, no allocation after construction.
+// The same seed gives the same sequence on every platform, so seeded renders are reproducible.
+public final class Xoshiro {
+    private long s0;
+    private long s1;
+    private long s2;
+    private long s3;
+
+    public Xoshiro(long seed) {
+        // Expand the seed with SplitMix64 so that close seeds give unrelated states
+        long x = seed;
+        s0 = splitMix(x += 0x9E3779B97F4A7C15L);
+        s1 = splitMix(x += 0x9E3779B97F4A7C15L);
+        s2 = splitMix(x += 0x9E3779B97F4A7C15L);
+        s3 = splitMix(x + 0x9E3779B97F4A7C15L);
+    }
+
+    // A seed that differs between instances and runs, for engines nobody seeded
+    public static long randomSeed() {
+        return System.nanoTime() ^ (long) System.identityHashCode(new Object()) << 32;
+    }
+
+    private static long splitMix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public long nextLong() {
+        long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return result;
+    }
+
+    // Uniform in [0, 1)
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    // Uniform in [0, 1)
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    // Uniform in [0, bound), bound > 0; multiply-shift with rejection, no division in the common case
+    public int nextInt(int bound) {
+        long m = (nextLong() >>> 32) * bound;
+        if ((m & 0xFFFFFFFFL) < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+            while ((m & 0xFFFFFFFFL) < threshold) {
+                m = (nextLong() >>> 32) * bound;
+            }
+        }
+        return (int) (m >>> 32);
+    }
+
+    // Exponentially distributed with mean 1, the gap between events of a Poisson process
+    public double nextExponential() {
+        return -Math.log(1.0 - nextDouble());
+    }
+}
@@ -0,0 +1,56 @@
+package modulardsp.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// SinesBank resynthesizing a 1024-bin peak list like the one maximums.js sends, with this many peaks
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdditiveBenchmark {
+    @Param({"64", "256", "1024", "2048"})
+    public int vectorSize;
+
+    @Param({"64", "512"})
+    public int partials;
+
+    private Harness harness;
+
+    @Setup
+    public void setup() throws Throwable {
+        float[] bins = new float[1024];
+        for (int p = 0; p < partials; p++) bins[1 + p * (bins.length - 2) / partials] = 0.5f / partials;
+
+        harness = new Harness("SinesBank", 0, 1, vectorSize);
+        harness.list(0, bins);
+        harness.start();
+        harness.warm(Harness.SAMPLES_PER_OP * 4);
+    }
+
+    @TearDown
+    public void tearDown() throws ReflectiveOperationException {
+        harness.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Harness.SAMPLES_PER_OP)
+    public float[] perform() throws Throwable {
+        return harness.render();
+    }
+}
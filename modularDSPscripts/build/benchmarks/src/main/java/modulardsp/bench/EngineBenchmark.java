@@ -0,0 +1,31 @@
+package modulardsp.bench;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Shared settings: average time in ns per output sample, across vector sizes and buffer lengths.
+// Buffers of several minutes need a larger heap, the snapshot holds a second copy of the samples.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g"})
+public abstract class EngineBenchmark {
+    @Param({"64", "256", "1024", "2048"})
+    public int vectorSize;
+
+    @Param({"1", "180"})
+    public double bufferSeconds;
+
+    Harness harness;
+}
@@ -0,0 +1,55 @@
+package modulardsp.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// CurveFilter running a 2048-tap kernel, the length of ProcFilter's pfft~, at each partition size:
+// the latency/CPU trade-off of the partitioned convolution
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+    @Param({"64", "256", "1024", "2048"})
+    public int vectorSize;
+
+    @Param({"64", "256", "1024"})
+    public int partition;
+
+    private Harness harness;
+
+    @Setup
+    public void setup() throws Throwable {
+        harness = new Harness("CurveFilter", 1, 1, vectorSize);
+        harness.fillInput(0, 1);
+        harness.message("partition", partition);
+        harness.start();
+        harness.warm(Harness.SAMPLES_PER_OP * 4);
+    }
+
+    @TearDown
+    public void tearDown() throws ReflectiveOperationException {
+        harness.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Harness.SAMPLES_PER_OP)
+    public float[] perform() throws Throwable {
+        return harness.render();
+    }
+}
@@ -0,0 +1,148 @@
+package modulardsp.bench;
+
+import com.cycling74.max.Atom;
+import com.cycling74.msp.MSPBuffer;
+import com.cycling74.msp.MSPObject;
+import com.cycling74.msp.MSPSignal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Random;
+
+// Drives an mxj~ object the way Max does: dsp() once, then the returned perform method once per block.
+// The scripts live in the default package, which named packages cannot import, so everything goes through reflection.
+final class Harness {
+    static final float SAMPLE_RATE = 44100.0f;
+    static final int SAMPLES_PER_OP = 4096; // Each benchmark op renders this many samples, so scores are per sample
+
+    private final MSPObject object;
+    private final MSPSignal[] ins;
+    private final MSPSignal[] outs;
+    private final int blocks;
+    private MethodHandle perform;
+
+    Harness(String className, int signalInlets, int signalOutlets, int vectorSize) throws ReflectiveOperationException {
+        this((MSPObject) Class.forName(className).getDeclaredConstructor().newInstance(), signalInlets, signalOutlets, vectorSize);
+    }
+
+    // With an argument typed into the object box, e.g. [mxj~ RandomGrainGen 8]
+    Harness(String className, int argument, int signalInlets, int signalOutlets, int vectorSize) throws ReflectiveOperationException {
+        this((MSPObject) Class.forName(className).getDeclaredConstructor(int.class).newInstance(argument),
+                signalInlets, signalOutlets, vectorSize);
+    }
+
+    private Harness(MSPObject object, int signalInlets, int signalOutlets, int vectorSize) {
+        this.object = object;
+        ins = signals(signalInlets, vectorSize, (short) 0); // Inlets count as patched once they get content
+        outs = signals(signalOutlets, vectorSize, (short) 1);
+        blocks = SAMPLES_PER_OP / vectorSize;
+    }
+
+    private static MSPSignal[] signals(int count, int vectorSize, short connections) {
+        MSPSignal[] signals = new MSPSignal[count];
+        for (int i = 0; i < count; i++) {
+            signals[i] = new MSPSignal(new float[vectorSize], SAMPLE_RATE, vectorSize, connections);
+        }
+        return signals;
+    }
+
+    // Fill a buffer~ with a few seconds (or minutes) of stereo noise
+    static void loadBuffer(String name, int channels, double seconds) {
+        int frames = (int) (seconds * SAMPLE_RATE);
+        MSPBuffer.setFrames(name, channels, frames);
+        Random random = new Random(1);
+        float[] samples = new float[frames];
+        for (int ch = 1; ch <= channels; ch++) {
+            for (int i = 0; i < frames; i++) samples[i] = random.nextFloat() * 2.0f - 1.0f;
+            MSPBuffer.poke(name, ch, samples);
+        }
+    }
+
+    // Signal inlet content, repeated every block
+    void fillInput(int inlet, long seed) {
+        Random random = new Random(seed);
+        float[] vec = ins[inlet].vec;
+        for (int i = 0; i < vec.length; i++) vec[i] = random.nextFloat() * 2.0f - 1.0f;
+        ins[inlet].cc = 1;
+    }
+
+    // A sig~ into the inlet
+    void constantInput(int inlet, float value) {
+        Arrays.fill(ins[inlet].vec, value);
+        ins[inlet].cc = 1;
+    }
+
+    // A ramp from low to high over each block, like an LFO at audio rate
+    void rampInput(int inlet, float low, float high) {
+        float[] vec = ins[inlet].vec;
+        for (int i = 0; i < vec.length; i++) vec[i] = low + (high - low) * i / vec.length;
+        ins[inlet].cc = 1;
+    }
+
+    // Number on an inlet, dispatched to inlet(float)
+    void inlet(int inlet, float value) throws ReflectiveOperationException {
+        object.setInlet(inlet);
+        object.getClass().getMethod("inlet", float.class).invoke(object, value);
+    }
+
+    // Message with one int, float or symbol argument, dispatched by name like Max does
+    void message(String name, Object arg) throws ReflectiveOperationException {
+        object.setInlet(0);
+        for (Method m : object.getClass().getMethods()) {
+            if (!m.getName().equals(name) || m.getParameterCount() != 1) continue;
+            Class<?> type = m.getParameterTypes()[0];
+            if (type == int.class && arg instanceof Number) {
+                m.invoke(object, ((Number) arg).intValue());
+                return;
+            } else if (type == float.class && arg instanceof Number) {
+                m.invoke(object, ((Number) arg).floatValue());
+                return;
+            } else if (type == String.class && arg instanceof String) {
+                m.invoke(object, arg);
+                return;
+            } else if (type == Atom[].class && arg instanceof Number) {
+                m.invoke(object, (Object) new Atom[]{Atom.newAtom(((Number) arg).floatValue())}); // Methods taking a list
+                return;
+            }
+        }
+        throw new NoSuchMethodException(object.getClass().getName() + "." + name + "(" + arg + ")");
+    }
+
+    void list(int inlet, float... values) throws ReflectiveOperationException {
+        object.setInlet(inlet);
+        object.getClass().getMethod("list", Atom[].class).invoke(object, (Object) Atom.newAtom(values));
+    }
+
+    // Start DSP: the equivalent of switching the audio on in Max
+    void start() throws ReflectiveOperationException {
+        Method method = object.dsp(ins, outs);
+        method.setAccessible(true);
+        perform = MethodHandles.lookup().unreflect(method)
+                .asType(MethodType.methodType(void.class, MSPObject.class, MSPSignal[].class, MSPSignal[].class));
+    }
+
+    // Render SAMPLES_PER_OP samples; returns the last output vector for the blackhole
+    float[] render() throws Throwable {
+        for (int b = 0; b < blocks; b++) {
+            perform.invokeExact(object, ins, outs);
+        }
+        return outs[0].vec;
+    }
+
+    // Render without measuring, e.g. to let voices and grains build up before the measurement
+    void warm(int samples) throws Throwable {
+        for (int i = 0; i < samples; i += SAMPLES_PER_OP) render();
+    }
+
+    // Free the object like deleting it from the patcher does
+    void stop() throws ReflectiveOperationException {
+        try {
+            object.getClass().getMethod("notifyDeleted").invoke(object);
+        } catch (NoSuchMethodException e) {
+            // Nothing to release, the protected default is used
+        }
+    }
+}
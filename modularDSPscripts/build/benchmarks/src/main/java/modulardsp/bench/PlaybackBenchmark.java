@@ -0,0 +1,39 @@
+package modulardsp.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+// MinimalPlayback: one looping read head over the buffer
+public class PlaybackBenchmark extends EngineBenchmark {
+    @Param({"linear", "sinc"})
+    public String interp;
+
+    @Param({"none", "constant", "audio"}) // How the rate inlet is driven: a number, a sig~, a moving signal
+    public String modulation;
+
+    @Setup
+    public void setup() throws Throwable {
+        Harness.loadBuffer("aud", 1, bufferSeconds);
+        harness = new Harness("MinimalPlayback", 4, 1, vectorSize);
+        harness.inlet(1, 0.5f);                                           // Cycles/sec
+        if (modulation.equals("constant")) harness.constantInput(1, 0.5f);
+        if (modulation.equals("audio")) harness.rampInput(1, 0.4f, 0.6f);
+        harness.inlet(3, (float) (bufferSeconds * Harness.SAMPLE_RATE)); // End of the range
+        harness.message("interp", interp);
+        harness.start();
+    }
+
+    @TearDown
+    public void tearDown() throws ReflectiveOperationException {
+        harness.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Harness.SAMPLES_PER_OP)
+    public float[] perform() throws Throwable {
+        return harness.render();
+    }
+}
@@ -0,0 +1,47 @@
+package modulardsp.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Runs the suite with the GC profiler and summarizes it per configuration:
+// ns per output sample, share of the real-time budget at 44.1 kHz, and bytes allocated per signal vector.
+// Takes the usual JMH options, e.g. "java -jar benchmarks.jar Grain -p vectorSize=64".
+public final class Report {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        double budget = 1e9 / Harness.SAMPLE_RATE; // ns available per sample in real time
+        System.out.println();
+        System.out.printf("%-24s %-48s %12s %8s %14s%n", "benchmark", "parameters", "ns/sample", "budget", "bytes/vector");
+        for (RunResult run : results) {
+            String name = run.getParams().getBenchmark();
+            name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+            List<String> params = new ArrayList<>();
+            for (String key : run.getParams().getParamsKeys()) {
+                params.add(key + "=" + run.getParams().getParam(key));
+            }
+            double nsPerSample = run.getPrimaryResult().getScore();
+            Result<?> alloc = run.getSecondaryResults().get("gc.alloc.rate.norm"); // Bytes per op, i.e. per sample
+            String vectorSize = run.getParams().getParam("vectorSize");
+            String bytes = alloc == null || vectorSize == null ? "-"
+                    : String.format("%.1f", alloc.getScore() * Integer.parseInt(vectorSize));
+            System.out.printf("%-24s %-48s %12.2f %7.2f%% %14s%n",
+                    name, String.join(" ", params), nsPerSample, 100.0 * nsPerSample / budget, bytes);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package modulardsp.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+// PolyphonicPlayback holding one note per voice (poly is capped at 128, so is the number of MIDI notes)
+public class SamplerBenchmark extends EngineBenchmark {
+    @Param({"1", "16", "64", "256"})
+    public int voices;
+
+    @Setup
+    public void setup() throws Throwable {
+        Harness.loadBuffer("polyphonicPlaybackBuf", 1, bufferSeconds);
+        harness = new Harness("PolyphonicPlayback", 1, 1, vectorSize);
+        harness.message("poly", voices);
+        harness.inlet(3, (float) (bufferSeconds * Harness.SAMPLE_RATE)); // End of the loop
+        harness.start();
+        harness.render(); // Pick up the new pool before the notes arrive
+        for (int note = 0; note < Math.min(voices, 128); note++) {
+            harness.list(1, note, 100);
+            if (note % 128 == 127) harness.render(); // Drain the note queue
+        }
+        harness.render();
+    }
+
+    @TearDown
+    public void tearDown() throws ReflectiveOperationException {
+        harness.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Harness.SAMPLES_PER_OP)
+    public float[] perform() throws Throwable {
+        return harness.render();
+    }
+}
@@ -0,0 +1,64 @@
+package modulardsp.bench;
+
+import com.cycling74.msp.MSPBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Objects processing their signal input rather than a buffer: SpectralShifter, SpectralFreezer and the ShiftBuffer tone
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpectralBenchmark {
+    @Param({"64", "256", "1024", "2048"})
+    public int vectorSize;
+
+    @Param({"SpectralShifter", "SpectralFreezer", "ShiftBuffer"})
+    public String object;
+
+    private Harness harness;
+
+    @Setup
+    public void setup() throws Throwable {
+        // Transfer curve moving every bin down by a fifth
+        float[] curve = new float[1024];
+        for (int i = 0; i < curve.length; i++) curve[i] = i / 1.5f;
+        MSPBuffer.setFrames("transfervalues", 1, curve.length);
+        MSPBuffer.poke("transfervalues", 1, curve);
+
+        harness = new Harness(object, 1, 1, vectorSize);
+        harness.fillInput(0, 1);
+        if (object.equals("SpectralFreezer")) {
+            harness.message("record", 0); // Records and plays back the same slot, the most work per frame
+            harness.message("play", 0);
+        }
+        harness.start();
+        harness.warm(Harness.SAMPLES_PER_OP * 4);
+    }
+
+    @TearDown
+    public void tearDown() throws ReflectiveOperationException {
+        harness.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Harness.SAMPLES_PER_OP)
+    public float[] perform() throws Throwable {
+        return harness.render();
+    }
+}
@@ -0,0 +1,38 @@
+package modulardsp.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+// Trigger with every voice busy: an event every millisecond, the oldest voice is stolen
+public class TriggerBenchmark extends EngineBenchmark {
+    @Param({"1", "16", "64", "256"})
+    public int voices;
+
+    @Param({"2", "8"})
+    public int channels; // Signal outlets, grains panned on a ring when more than two
+
+    @Setup
+    public void setup() throws Throwable {
+        Harness.loadBuffer("trigger", 2, bufferSeconds);
+        harness = new Harness("Trigger", channels, 0, channels, vectorSize);
+        if (channels > 2) harness.message("pan", 1.0f);
+        harness.message("voices", voices);
+        harness.inlet(0, 1); // Rate in ms
+        harness.start();
+        harness.warm(voices * 64);
+    }
+
+    @TearDown
+    public void tearDown() throws ReflectiveOperationException {
+        harness.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Harness.SAMPLES_PER_OP)
+    public float[] perform() throws Throwable {
+        return harness.render();
+    }
+}
@@ -0,0 +1,85 @@
+package com.cycling74.max;
+
+// Stand-in for the mxj Atom: an immutable int, float or symbol.
+public class Atom {
+    public static final Atom[] emptyArray = new Atom[0];
+
+    private final Object value;
+
+    private Atom(Object value) {
+        this.value = value;
+    }
+
+    public static Atom newAtom(int value) {
+        return new Atom(value);
+    }
+
+    public static Atom newAtom(long value) {
+        return new Atom((int) value);
+    }
+
+    public static Atom newAtom(float value) {
+        return new Atom(value);
+    }
+
+    public static Atom newAtom(double value) {
+        return new Atom((float) value);
+    }
+
+    public static Atom newAtom(String value) {
+        return new Atom(value);
+    }
+
+    public static Atom[] newAtom(int[] values) {
+        Atom[] atoms = new Atom[values.length];
+        for (int i = 0; i < values.length; i++) atoms[i] = newAtom(values[i]);
+        return atoms;
+    }
+
+    public static Atom[] newAtom(float[] values) {
+        Atom[] atoms = new Atom[values.length];
+        for (int i = 0; i < values.length; i++) atoms[i] = newAtom(values[i]);
+        return atoms;
+    }
+
+    public boolean isInt() {
+        return value instanceof Integer;
+    }
+
+    public boolean isFloat() {
+        return value instanceof Float;
+    }
+
+    public boolean isString() {
+        return value instanceof String;
+    }
+
+    public int getInt() {
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+
+    public float getFloat() {
+        return value instanceof Number ? ((Number) value).floatValue() : 0;
+    }
+
+    public String getString() {
+        return String.valueOf(value);
+    }
+
+    public static int[] toInt(Atom[] atoms) {
+        int[] values = new int[atoms.length];
+        for (int i = 0; i < atoms.length; i++) values[i] = atoms[i].getInt();
+        return values;
+    }
+
+    public static float[] toFloat(Atom[] atoms) {
+        float[] values = new float[atoms.length];
+        for (int i = 0; i < atoms.length; i++) values[i] = atoms[i].getFloat();
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return getString();
+    }
+}
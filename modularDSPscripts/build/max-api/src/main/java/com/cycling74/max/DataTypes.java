@@ -0,0 +1,10 @@
+package com.cycling74.max;
+
+// Stand-in for the mxj inlet/outlet type constants.
+public class DataTypes {
+    public static final int ALL = 0;
+    public static final int INT = 1;
+    public static final int FLOAT = 2;
+    public static final int LIST = 3;
+    public static final int MESSAGE = 4;
+}
@@ -0,0 +1,5 @@
+package com.cycling74.max;
+
+public interface Executable {
+    void execute();
+}
@@ -0,0 +1,36 @@
+package com.cycling74.max;
+
+// Stand-in clock. There is no Max scheduler outside of Max, so nothing ever fires on its own;
+// call tick() to run a pending execution on the calling thread.
+public class MaxClock {
+    private final Executable executable;
+    private boolean pending = false;
+
+    public MaxClock(Executable executable) {
+        this.executable = executable;
+    }
+
+    public void delay(double ms) {
+        pending = true;
+    }
+
+    public void unset() {
+        pending = false;
+    }
+
+    public void release() {
+        pending = false;
+    }
+
+    public static double getTime() {
+        return System.nanoTime() / 1e6;
+    }
+
+    // Stand-in only: run the execution scheduled with delay(), if any
+    public void tick() {
+        if (pending) {
+            pending = false;
+            executable.execute();
+        }
+    }
+}
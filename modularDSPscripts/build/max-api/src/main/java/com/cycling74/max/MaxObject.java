@@ -0,0 +1,84 @@
+package com.cycling74.max;
+
+// Stand-in for the mxj MaxObject, enough to compile and drive the scripts outside of Max.
+// Outlets discard what they receive; post() and error() print to the console.
+public class MaxObject {
+    private int[] inlets = new int[0];
+    private int[] outlets = new int[0];
+    private int inlet = 0;
+
+    protected void declareInlets(int[] types) {
+        inlets = types.clone();
+    }
+
+    protected void declareOutlets(int[] types) {
+        outlets = types.clone();
+    }
+
+    protected void declareIO(int inletCount, int outletCount) {
+        inlets = new int[inletCount];
+        outlets = new int[outletCount];
+    }
+
+    public int getNumInlets() {
+        return inlets.length;
+    }
+
+    public int getNumOutlets() {
+        return outlets.length;
+    }
+
+    // Index of the inlet the current message arrived on
+    public int getInlet() {
+        return inlet;
+    }
+
+    // Stand-in only: the inlet reported by getInlet() for the messages that follow
+    public void setInlet(int index) {
+        inlet = index;
+    }
+
+    // The info outlet follows the declared outlets
+    public int getInfoIdx() {
+        return outlets.length;
+    }
+
+    public boolean outlet(int index, int value) {
+        return true;
+    }
+
+    public boolean outlet(int index, float value) {
+        return true;
+    }
+
+    public boolean outlet(int index, float[] values) {
+        return true;
+    }
+
+    public boolean outlet(int index, Atom value) {
+        return true;
+    }
+
+    public boolean outlet(int index, Atom[] values) {
+        return true;
+    }
+
+    public boolean outlet(int index, String message, Atom[] args) {
+        return true;
+    }
+
+    public boolean outletBang(int index) {
+        return true;
+    }
+
+    public static void post(String message) {
+        System.out.println(message);
+    }
+
+    public static void error(String message) {
+        System.err.println(message);
+    }
+
+    protected void notifyDeleted() {
+    }
+}
@@ -0,0 +1,31 @@
+package com.cycling74.max;
+
+// Stand-in qelem. Like MaxClock nothing runs by itself; tick() runs a pending execution.
+public class MaxQelem {
+    private final Executable executable;
+    private volatile boolean pending = false;
+
+    public MaxQelem(Executable executable) {
+        this.executable = executable;
+    }
+
+    public void set() {
+        pending = true;
+    }
+
+    public void unset() {
+        pending = false;
+    }
+
+    public void release() {
+        pending = false;
+    }
+
+    // Stand-in only: run the execution requested with set(), if any
+    public void tick() {
+        if (pending) {
+            pending = false;
+            executable.execute();
+        }
+    }
+}
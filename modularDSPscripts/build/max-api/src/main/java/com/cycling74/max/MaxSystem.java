@@ -0,0 +1,30 @@
+package com.cycling74.max;
+
+// Stand-in system calls; deferred executions run immediately on the calling thread.
+public class MaxSystem {
+    public static void post(String message) {
+        System.out.println(message);
+    }
+
+    public static void error(String message) {
+        System.err.println(message);
+    }
+
+    // Absolute path of a file found by name, or null; the stand-in only checks the name as given
+    public static String locateFile(String filename) {
+        return new java.io.File(filename).exists() ? new java.io.File(filename).getAbsolutePath() : null;
+    }
+
+    // Max paths ("Volume:/dir/file") are already native paths here
+    public static String maxPathToNativePath(String maxpath) {
+        return maxpath;
+    }
+
+    public static void defer(Executable executable) {
+        executable.execute();
+    }
+
+    public static void deferLow(Executable executable) {
+        executable.execute();
+    }
+}
@@ -0,0 +1,72 @@
+package com.cycling74.msp;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Stand-in buffer~ access backed by an in-memory store; create buffers with setFrames().
+// Channels are 1-based like in Max, peeks return copies.
+public class MSPBuffer {
+    private static final ConcurrentHashMap<String, float[][]> buffers = new ConcurrentHashMap<>();
+    private static final float[] EMPTY = new float[0];
+
+    // Create or resize a buffer, keeping the samples that fit
+    public static void setFrames(String name, int channels, long frames) {
+        float[][] old = buffers.get(name);
+        float[][] data = new float[channels][];
+        for (int ch = 0; ch < channels; ch++) {
+            data[ch] = old != null && ch < old.length ? Arrays.copyOf(old[ch], (int) frames) : new float[(int) frames];
+        }
+        buffers.put(name, data);
+    }
+
+    // Stand-in only: forget a buffer
+    public static void remove(String name) {
+        buffers.remove(name);
+    }
+
+    public static long getFrames(String name) {
+        float[][] data = buffers.get(name);
+        return data == null || data.length == 0 ? 0 : data[0].length;
+    }
+
+    public static int getChannelCount(String name) {
+        float[][] data = buffers.get(name);
+        return data == null ? 0 : data.length;
+    }
+
+    public static float[] peek(String name, int channel) {
+        float[] samples = channel(name, channel);
+        return samples == null ? EMPTY : samples.clone();
+    }
+
+    public static float peek(String name, int channel, long frame) {
+        float[] samples = channel(name, channel);
+        return samples == null || frame < 0 || frame >= samples.length ? 0 : samples[(int) frame];
+    }
+
+    public static float[] peek(String name, int channel, long start, long length) {
+        float[] samples = channel(name, channel);
+        if (samples == null || start < 0 || start >= samples.length) return EMPTY;
+        return Arrays.copyOfRange(samples, (int) start, (int) Math.min(start + length, samples.length));
+    }
+
+    public static void poke(String name, int channel, float[] values) {
+        poke(name, channel, 0, values);
+    }
+
+    public static void poke(String name, int channel, long frame, float value) {
+        float[] samples = channel(name, channel);
+        if (samples != null && frame >= 0 && frame < samples.length) samples[(int) frame] = value;
+    }
+
+    public static void poke(String name, int channel, long frame, float[] values) {
+        float[] samples = channel(name, channel);
+        if (samples == null || frame < 0 || frame >= samples.length) return;
+        System.arraycopy(values, 0, samples, (int) frame, (int) Math.min(values.length, samples.length - frame));
+    }
+
+    private static float[] channel(String name, int channel) {
+        float[][] data = buffers.get(name);
+        return data == null || channel < 1 || channel > data.length ? null : data[channel - 1];
+    }
+}
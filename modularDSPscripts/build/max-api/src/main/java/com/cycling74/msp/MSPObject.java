@@ -0,0 +1,12 @@
+package com.cycling74.msp;
+
+import com.cycling74.max.MaxObject;
+
+import java.lang.reflect.Method;
+
+public abstract class MSPObject extends MaxObject {
+    public static final int SIGNAL = 5;
+
+    // Called when DSP starts; returns the perform(MSPSignal[], MSPSignal[]) method to call every block
+    public abstract Method dsp(MSPSignal[] ins, MSPSignal[] outs);
+}
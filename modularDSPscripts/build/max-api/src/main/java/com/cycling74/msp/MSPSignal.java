@@ -0,0 +1,19 @@
+package com.cycling74.msp;
+
+// Stand-in signal vector: samples, sample rate, vector size and connection count.
+public class MSPSignal {
+    public float[] vec;
+    public double sr;
+    public int n;
+    public short cc;
+
+    public MSPSignal() {
+    }
+
+    public MSPSignal(float[] vec, double sr, int n, short cc) {
+        this.vec = vec;
+        this.sr = sr;
+        this.n = n;
+        this.cc = cc;
+    }
+}